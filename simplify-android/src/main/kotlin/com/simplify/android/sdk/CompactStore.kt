@@ -0,0 +1,230 @@
+package com.simplify.android.sdk
+
+import java.util.Arrays
+
+/**
+ * Insertion ordered key/value storage in two flat arrays, backing [SimplifyMap].
+ * <br>Keys are found by a linear scan while there are at most [THRESHOLD] of them, as most maps in card and
+ * 3-D Secure payloads are this small. Above it, an open addressing index of slot numbers is kept alongside,
+ * probed linearly. Removed keys leave an empty slot behind, reclaimed when the arrays are full.
+ *
+ * @param initialCapacity The number of keys to allocate room for
+ */
+internal class CompactStore(initialCapacity: Int) {
+
+    companion object {
+        const val THRESHOLD = 8
+
+        private val EMPTY_KEYS = arrayOf<String?>()
+        private val EMPTY_VALUES = arrayOf<Any?>()
+    }
+
+    private var keys: Array<String?> = if (initialCapacity > 0) arrayOfNulls(initialCapacity) else EMPTY_KEYS
+    private var values: Array<Any?> = if (initialCapacity > 0) arrayOfNulls(initialCapacity) else EMPTY_VALUES
+
+    // slot number plus one by key hash, or 0 for none. Only kept above the threshold
+    private var index: IntArray? = null
+
+    /**
+     * The number of keys stored
+     */
+    var size = 0
+        private set
+
+    /**
+     * The number of slots in use, including empty slots left by removed keys. Slots are numbered from 0 until end.
+     */
+    var end = 0
+        private set
+
+    /**
+     * Incremented by every change to the keys, to detect changes during iteration
+     */
+    var modCount = 0
+        private set
+
+    /**
+     * Incremented by every change to the keys or values
+     */
+    var version = 0
+        private set
+
+    /**
+     * The number of slots allocated
+     */
+    val capacity: Int
+        get() = keys.size
+
+    /**
+     * Whether keys are found through the index rather than by a linear scan
+     */
+    val isIndexed: Boolean
+        get() = index != null
+
+    init {
+        require(initialCapacity >= 0) { "Illegal initial capacity: $initialCapacity" }
+    }
+
+    /**
+     * Returns the key in the slot, or null for an empty slot
+     */
+    fun keyAt(slot: Int): String? = keys[slot]
+
+    fun valueAt(slot: Int): Any? = values[slot]
+
+    fun setValueAt(slot: Int, value: Any) {
+        values[slot] = value
+        version++
+    }
+
+    /**
+     * Returns the slot holding the key, or -1 if there is none
+     */
+    fun find(key: String): Int {
+        val index = index
+        if (index == null) {
+            for (slot in 0 until end) {
+                if (key == keys[slot]) {
+                    return slot
+                }
+            }
+            return -1
+        }
+
+        val mask = index.size - 1
+        var i = hash(key) and mask
+        while (true) {
+            val entry = index[i]
+            if (entry == 0) {
+                return -1
+            }
+            if (key == keys[entry - 1]) {
+                return entry - 1
+            }
+            i = (i + 1) and mask
+        }
+    }
+
+    /**
+     * Associates the value to the key, returning the previous value
+     */
+    fun put(key: String, value: Any): Any? {
+        val existing = find(key)
+        if (existing != -1) {
+            val previous = values[existing]
+            values[existing] = value
+            version++
+            return previous
+        }
+
+        if (end == keys.size) {
+            makeRoom()
+        }
+
+        val slot = end++
+        keys[slot] = key
+        values[slot] = value
+        size++
+        modCount++
+        version++
+
+        val index = index
+        if (index != null) {
+            addToIndex(index, slot)
+        } else if (size > THRESHOLD) {
+            buildIndex()
+        }
+
+        return null
+    }
+
+    /**
+     * Removes the key in the slot, returning its value
+     */
+    fun removeAt(slot: Int): Any? {
+        val previous = values[slot]
+        keys[slot] = null
+        values[slot] = null
+        size--
+        modCount++
+        version++
+
+        // the index may still point at the slot, so it is only reused once the index is rebuilt
+        if (slot == end - 1 && index == null) {
+            end--
+        }
+
+        return previous
+    }
+
+    fun clear() {
+        Arrays.fill(keys, 0, end, null)
+        Arrays.fill(values, 0, end, null)
+        index = null
+        size = 0
+        end = 0
+        modCount++
+        version++
+    }
+
+    // reclaims the slots of removed keys if at least half of the slots are empty, or grows the arrays
+    private fun makeRoom() {
+        if (size <= end / 2 && end > 0) {
+            compact()
+        } else {
+            val capacity = maxOf(4, keys.size * 2)
+            keys = keys.copyOf(capacity)
+            values = values.copyOf(capacity)
+        }
+
+        if (index != null) {
+            buildIndex()
+        }
+    }
+
+    private fun compact() {
+        var to = 0
+        for (from in 0 until end) {
+            if (keys[from] != null) {
+                keys[to] = keys[from]
+                values[to] = values[from]
+                to++
+            }
+        }
+
+        Arrays.fill(keys, to, end, null)
+        Arrays.fill(values, to, end, null)
+        end = to
+    }
+
+    // an index with at least twice as many entries as there are slots, so probes stay short
+    private fun buildIndex() {
+        var capacity = THRESHOLD * 2
+        while (capacity < keys.size * 2) {
+            capacity *= 2
+        }
+
+        val index = IntArray(capacity)
+        for (slot in 0 until end) {
+            if (keys[slot] != null) {
+                addToIndex(index, slot)
+            }
+        }
+
+        this.index = index
+    }
+
+    private fun addToIndex(index: IntArray, slot: Int) {
+        val mask = index.size - 1
+        var i = hash(keys[slot]!!) and mask
+        while (index[i] != 0) {
+            i = (i + 1) and mask
+        }
+        index[i] = slot + 1
+    }
+
+    private fun hash(key: String): Int {
+        val h = key.hashCode()
+        return h xor (h ushr 16)
+    }
+}
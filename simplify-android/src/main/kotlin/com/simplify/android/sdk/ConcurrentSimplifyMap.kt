@@ -0,0 +1,263 @@
+package com.simplify.android.sdk
+
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ *
+ * A thread-safe map of JSON-like data, read and written with the same key paths as a [SimplifyMap], for maps shared
+ * between threads such as card tokens and responses.
+ * <br>Each top-level value is kept as an immutable [SimplifyMapSnapshot] or list, so reads take no lock and always
+ * see a value as it was between two writes. Writes to a key path replace the top-level value it starts with, under
+ * one of a fixed set of locks chosen by that top-level key, so writes to different keys rarely wait on each other
+ * and every write is atomic, including the nested maps it adds. [getOrPut] and [update] read and write a key path
+ * in one step.
+ * <br>Values are copied into snapshots when stored, and nested maps and lists are read back as snapshots and
+ * immutable lists. Iteration order is not defined, and iterators reflect some of the changes made while iterating.
+ */
+class ConcurrentSimplifyMap() : AbstractMutableMap<String, Any>() {
+
+    companion object {
+        private const val STRIPES = 16
+    }
+
+    private val root = ConcurrentHashMap<String, Any>()
+
+    private val locks = Array(STRIPES) { Any() }
+
+    private var entrySet: EntrySet? = null
+
+    /**
+     * Constructs a map with the same mappings as in the specified map.
+     *
+     * @param map the map whose mappings are to be placed in this map
+     */
+    constructor(map: Map<String, Any>) : this() {
+        putAll(map)
+    }
+
+    override val size: Int
+        get() = root.size
+
+    override fun isEmpty(): Boolean = root.isEmpty()
+
+    override val entries: MutableSet<MutableMap.MutableEntry<String, Any>>
+        get() = entrySet ?: EntrySet().also { entrySet = it }
+
+    /**
+     * Returns the value associated with the specified key path or null if there is no associated value, without locking.
+     *
+     * @param key key path whose associated value is to be returned
+     * @return the value to which the specified key is mapped
+     * @throws IllegalArgumentException  if part of the key path does not match the expected type.
+     * @throws IndexOutOfBoundsException if using an array index in the key path is out of bounds.
+     */
+    override fun get(key: String): Any? = if (KeyPath.isPlain(key)) root[key] else get(KeyPath.of(key))
+
+    /**
+     * @see get
+     */
+    operator fun get(keyPath: KeyPath): Any? {
+        val name = nameOf(keyPath)
+        return SimplifyMapSnapshot.read(name, root[name], keyPath)
+    }
+
+    /**
+     * Returns true if there is a value associated with the specified key path.
+     *
+     * @param key key path whose associated value is to be tested
+     * @throws IllegalArgumentException  if part of the key path does not match the expected type.
+     */
+    override fun containsKey(key: String): Boolean = get(key) != null
+
+    /**
+     * Atomically associates the specified value to the specified key path, adding missing maps along the path.
+     *
+     * @param key   key path to which the specified value is to be associated.
+     * @param value the value which is to be associated with the specified key path. Maps and lists are copied
+     * @return the previous value associated with the key path
+     * @throws IllegalArgumentException  if part of the key path does not match the expected type.
+     * @throws IndexOutOfBoundsException if using an array index in the key path is out of bounds.
+     */
+    override fun put(key: String, value: Any): Any? = put(KeyPath.of(key), value)
+
+    /**
+     * @see put
+     */
+    fun put(keyPath: KeyPath, value: Any): Any? {
+        val name = nameOf(keyPath)
+
+        synchronized(lockFor(name)) {
+            val top = root[name]
+            val previous = SimplifyMapSnapshot.read(name, top, keyPath)
+            store(name, SimplifyMapSnapshot.write(name, top, keyPath, value))
+            return previous
+        }
+    }
+
+    /**
+     * Atomically associates the specified value to the specified key path and returns a reference to this map.
+     *
+     * @see put
+     */
+    fun set(keyPath: String, value: Any): ConcurrentSimplifyMap {
+        put(keyPath, value)
+        return this
+    }
+
+    /**
+     * Atomically removes the value associated with the specified key path.
+     *
+     * @param key key path whose associated value is to be removed
+     * @return the removed value
+     * @throws IllegalArgumentException  if part of the key path does not match the expected type.
+     * @throws IndexOutOfBoundsException if using an array index in the key path is out of bounds.
+     */
+    override fun remove(key: String): Any? {
+        val keyPath = KeyPath.of(key)
+        val name = nameOf(keyPath)
+
+        synchronized(lockFor(name)) {
+            val top = root[name] ?: return null
+            val previous = SimplifyMapSnapshot.read(name, top, keyPath) ?: return null
+            store(name, SimplifyMapSnapshot.remove(name, top, keyPath))
+            return previous
+        }
+    }
+
+    /**
+     * Returns the value associated with the specified key path, first associating the value returned by
+     * the function if there is none. Checking for a value and adding it is one atomic step, so the function
+     * is called at most once per key path however many threads ask for it at the same time.
+     *
+     * @param keyPath      key path whose associated value is to be returned
+     * @param defaultValue returns the value to associate when there is none. Called while holding a write lock
+     * @return the value associated with the key path, as stored
+     * @throws IllegalArgumentException  if part of the key path does not match the expected type.
+     * @throws IndexOutOfBoundsException if using an array index in the key path is out of bounds.
+     */
+    fun getOrPut(keyPath: String, defaultValue: () -> Any): Any {
+        val path = KeyPath.of(keyPath)
+        get(path)?.let { return it }
+
+        val name = nameOf(path)
+        synchronized(lockFor(name)) {
+            val top = root[name]
+            SimplifyMapSnapshot.read(name, top, path)?.let { return it }
+
+            val updated = SimplifyMapSnapshot.write(name, top, path, defaultValue())
+            store(name, updated)
+            return SimplifyMapSnapshot.read(name, updated, path)!!
+        }
+    }
+
+    /**
+     * Atomically replaces the value associated with the specified key path by the value returned by the function,
+     * or removes it if the function returns null.
+     *
+     * @param keyPath   key path whose associated value is to be updated
+     * @param transform returns the new value from the current one, or null if there is none. Called while holding
+     * a write lock
+     * @return the new value, as stored
+     * @throws IllegalArgumentException  if part of the key path does not match the expected type.
+     * @throws IndexOutOfBoundsException if using an array index in the key path is out of bounds.
+     */
+    fun update(keyPath: String, transform: (Any?) -> Any?): Any? {
+        val path = KeyPath.of(keyPath)
+        val name = nameOf(path)
+
+        synchronized(lockFor(name)) {
+            val top = root[name]
+            val current = SimplifyMapSnapshot.read(name, top, path)
+            val value = transform(current)
+
+            val updated = when {
+                value != null -> SimplifyMapSnapshot.write(name, top, path, value)
+                current != null -> SimplifyMapSnapshot.remove(name, top, path)
+                else -> return null
+            }
+            store(name, updated)
+            return SimplifyMapSnapshot.read(name, updated, path)
+        }
+    }
+
+    /**
+     * Removes every top-level key, one at a time
+     */
+    override fun clear() {
+        for (key in root.keys) {
+            synchronized(lockFor(key)) {
+                root.remove(key)
+            }
+        }
+    }
+
+    /**
+     * Returns a snapshot of this map, consistent for each top-level key
+     *
+     * @return A snapshot of this map
+     */
+    fun snapshot(): SimplifyMapSnapshot = SimplifyMapSnapshot.of(root)
+
+    private fun nameOf(keyPath: KeyPath): String = keyPath.first.arrayName ?: keyPath.first.raw
+
+    private fun lockFor(name: String): Any {
+        val h = name.hashCode()
+        return locks[(h xor (h ushr 16)) and (STRIPES - 1)]
+    }
+
+    // stores the top-level value, or removes it if there is none. Called while holding its lock
+    private fun store(name: String, top: Any?) {
+        if (top == null) {
+            root.remove(name)
+        } else {
+            root[name] = top
+        }
+    }
+
+    private inner class EntrySet : AbstractMutableSet<MutableMap.MutableEntry<String, Any>>() {
+
+        override val size: Int
+            get() = root.size
+
+        override fun add(element: MutableMap.MutableEntry<String, Any>): Boolean = throw UnsupportedOperationException()
+
+        override fun clear() = this@ConcurrentSimplifyMap.clear()
+
+        override fun iterator(): MutableIterator<MutableMap.MutableEntry<String, Any>> {
+            val iterator = root.entries.iterator()
+
+            return object : MutableIterator<MutableMap.MutableEntry<String, Any>> {
+
+                private var last: String? = null
+
+                override fun hasNext(): Boolean = iterator.hasNext()
+
+                override fun next(): MutableMap.MutableEntry<String, Any> {
+                    val (key, value) = iterator.next()
+                    last = key
+                    return Entry(key, value)
+                }
+
+                override fun remove() {
+                    val key = checkNotNull(last)
+                    synchronized(lockFor(key)) {
+                        root.remove(key)
+                    }
+                    last = null
+                }
+            }
+        }
+    }
+
+    // an entry whose value is set through to the map
+    private inner class Entry(key: String, value: Any) : java.util.AbstractMap.SimpleEntry<String, Any>(key, value) {
+
+        override fun setValue(value: Any): Any {
+            val frozen = SimplifyMapSnapshot.freeze(value)
+            synchronized(lockFor(key)) {
+                root[key] = frozen
+            }
+            return super.setValue(frozen)
+        }
+    }
+}
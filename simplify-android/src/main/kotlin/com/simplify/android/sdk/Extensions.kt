@@ -12,4 +12,12 @@ fun String.urlEncode(): String {
 
 fun InputStream.readTextAndClose(charset: Charset = Charsets.UTF_8): String {
     return this.bufferedReader(charset).use { it.readText() }
-}
\ No newline at end of file
+}
+
+// reads the stream to its end, discarding the data
+internal fun InputStream.skipFully() {
+    val buffer = ByteArray(1024)
+    while (read(buffer) != -1) {
+        // discard
+    }
+}
@@ -0,0 +1,252 @@
+package com.simplify.android.sdk
+
+/**
+ * An immutable hash array mapped trie from strings to values.
+ * <br>Updates copy only the nodes on the path to the changed key, O(log32 n) of them, and share the rest
+ * of the trie with the previous version. Iteration order is not defined.
+ */
+internal class HashTrie private constructor(private val root: Node?, val size: Int) {
+
+    companion object {
+        val EMPTY = HashTrie(null, 0)
+
+        private const val BITS = 5
+        private const val MASK = (1 shl BITS) - 1
+
+        private fun hash(key: String): Int {
+            val h = key.hashCode()
+            return h xor (h ushr 16)
+        }
+
+        private fun bit(hash: Int, shift: Int): Int = 1 shl ((hash ushr shift) and MASK)
+
+        // a node holding both entries, splitting them on the next bits of their hashes
+        private fun node(shift: Int, key1: String, value1: Any, hash2: Int, key2: String, value2: Any): Node {
+            val hash1 = hash(key1)
+            if (hash1 == hash2) {
+                return CollisionNode(hash1, arrayOf<Any?>(key1, value1, key2, value2))
+            }
+
+            val added = BooleanArray(1)
+            return BitmapNode.EMPTY
+                    .put(shift, hash1, key1, value1, added)
+                    .put(shift, hash2, key2, value2, added)
+        }
+    }
+
+    operator fun get(key: String): Any? = root?.get(0, hash(key), key)
+
+    fun containsKey(key: String): Boolean = get(key) != null
+
+    /**
+     * Returns a trie with the value associated to the key, sharing all unchanged nodes with this one
+     */
+    fun put(key: String, value: Any): HashTrie {
+        val added = BooleanArray(1)
+        val newRoot = (root ?: BitmapNode.EMPTY).put(0, hash(key), key, value, added)
+
+        return if (newRoot === root) this else HashTrie(newRoot, if (added[0]) size + 1 else size)
+    }
+
+    /**
+     * Returns a trie without the key, sharing all unchanged nodes with this one
+     */
+    fun remove(key: String): HashTrie {
+        val current = root ?: return this
+        val newRoot = current.remove(0, hash(key), key)
+
+        return if (newRoot === current) this else HashTrie(newRoot, size - 1)
+    }
+
+    fun forEach(action: (String, Any) -> Unit) {
+        root?.forEach(action)
+    }
+
+    private abstract class Node {
+        abstract fun get(shift: Int, hash: Int, key: String): Any?
+        abstract fun put(shift: Int, hash: Int, key: String, value: Any, added: BooleanArray): Node
+        abstract fun remove(shift: Int, hash: Int, key: String): Node?
+        abstract fun forEach(action: (String, Any) -> Unit)
+    }
+
+    // entries and sub-tries indexed by the population count of a bitmap. Each slot is a key and its value,
+    // or a null key and a sub-trie
+    private class BitmapNode(private val bitmap: Int, private val array: Array<Any?>) : Node() {
+
+        companion object {
+            val EMPTY = BitmapNode(0, arrayOf<Any?>())
+        }
+
+        private fun index(bit: Int): Int = Integer.bitCount(bitmap and (bit - 1))
+
+        override fun get(shift: Int, hash: Int, key: String): Any? {
+            val bit = bit(hash, shift)
+            if (bitmap and bit == 0) {
+                return null
+            }
+
+            val i = 2 * index(bit)
+            val keyOrNull = array[i]
+            val valueOrNode = array[i + 1]
+
+            return when (keyOrNull) {
+                null -> (valueOrNode as Node).get(shift + BITS, hash, key)
+                key -> valueOrNode
+                else -> null
+            }
+        }
+
+        override fun put(shift: Int, hash: Int, key: String, value: Any, added: BooleanArray): Node {
+            val bit = bit(hash, shift)
+            val i = 2 * index(bit)
+
+            if (bitmap and bit == 0) {
+                val newArray = arrayOfNulls<Any>(array.size + 2)
+                System.arraycopy(array, 0, newArray, 0, i)
+                newArray[i] = key
+                newArray[i + 1] = value
+                System.arraycopy(array, i, newArray, i + 2, array.size - i)
+
+                added[0] = true
+                return BitmapNode(bitmap or bit, newArray)
+            }
+
+            val keyOrNull = array[i]
+            val valueOrNode = array[i + 1]
+
+            return when (keyOrNull) {
+                null -> {
+                    val node = (valueOrNode as Node).put(shift + BITS, hash, key, value, added)
+                    if (node === valueOrNode) this else withValue(i + 1, node)
+                }
+                key -> if (value === valueOrNode) this else withValue(i + 1, value)
+                else -> {
+                    added[0] = true
+                    withEntry(i, null, node(shift + BITS, keyOrNull as String, valueOrNode!!, hash, key, value))
+                }
+            }
+        }
+
+        override fun remove(shift: Int, hash: Int, key: String): Node? {
+            val bit = bit(hash, shift)
+            if (bitmap and bit == 0) {
+                return this
+            }
+
+            val i = 2 * index(bit)
+            val keyOrNull = array[i]
+
+            if (keyOrNull == null) {
+                val child = array[i + 1] as Node
+                val node = child.remove(shift + BITS, hash, key)
+
+                return when {
+                    node === child -> this
+                    node != null -> withValue(i + 1, node)
+                    else -> without(bit, i)
+                }
+            }
+
+            return if (keyOrNull == key) without(bit, i) else this
+        }
+
+        override fun forEach(action: (String, Any) -> Unit) {
+            for (i in 0 until array.size step 2) {
+                val keyOrNull = array[i]
+                if (keyOrNull == null) {
+                    (array[i + 1] as Node).forEach(action)
+                } else {
+                    action(keyOrNull as String, array[i + 1]!!)
+                }
+            }
+        }
+
+        private fun withValue(i: Int, value: Any?): BitmapNode {
+            val newArray = array.copyOf()
+            newArray[i] = value
+            return BitmapNode(bitmap, newArray)
+        }
+
+        private fun withEntry(i: Int, key: Any?, value: Any?): BitmapNode {
+            val newArray = array.copyOf()
+            newArray[i] = key
+            newArray[i + 1] = value
+            return BitmapNode(bitmap, newArray)
+        }
+
+        private fun without(bit: Int, i: Int): BitmapNode? {
+            if (bitmap == bit) {
+                return null
+            }
+
+            val newArray = arrayOfNulls<Any>(array.size - 2)
+            System.arraycopy(array, 0, newArray, 0, i)
+            System.arraycopy(array, i + 2, newArray, i, array.size - i - 2)
+            return BitmapNode(bitmap xor bit, newArray)
+        }
+    }
+
+    // entries whose keys have the same hash, searched linearly
+    private class CollisionNode(private val hash: Int, private val array: Array<Any?>) : Node() {
+
+        private fun find(key: String): Int {
+            for (i in 0 until array.size step 2) {
+                if (array[i] == key) {
+                    return i
+                }
+            }
+            return -1
+        }
+
+        override fun get(shift: Int, hash: Int, key: String): Any? {
+            val i = find(key)
+            return if (i == -1) null else array[i + 1]
+        }
+
+        override fun put(shift: Int, hash: Int, key: String, value: Any, added: BooleanArray): Node {
+            if (hash != this.hash) {
+                // nest this node in a bitmap node, where the new key gets a slot of its own
+                return BitmapNode(bit(this.hash, shift), arrayOf<Any?>(null, this)).put(shift, hash, key, value, added)
+            }
+
+            val i = find(key)
+            if (i != -1) {
+                if (array[i + 1] === value) {
+                    return this
+                }
+
+                val newArray = array.copyOf()
+                newArray[i + 1] = value
+                return CollisionNode(hash, newArray)
+            }
+
+            val newArray = array.copyOf(array.size + 2)
+            newArray[array.size] = key
+            newArray[array.size + 1] = value
+
+            added[0] = true
+            return CollisionNode(hash, newArray)
+        }
+
+        override fun remove(shift: Int, hash: Int, key: String): Node? {
+            val i = find(key)
+            if (i == -1) {
+                return this
+            }
+            if (array.size == 2) {
+                return null
+            }
+
+            val newArray = arrayOfNulls<Any>(array.size - 2)
+            System.arraycopy(array, 0, newArray, 0, i)
+            System.arraycopy(array, i + 2, newArray, i, array.size - i - 2)
+            return CollisionNode(hash, newArray)
+        }
+
+        override fun forEach(action: (String, Any) -> Unit) {
+            for (i in 0 until array.size step 2) {
+                action(array[i] as String, array[i + 1]!!)
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.simplify.android.sdk
+
+import java.io.IOException
+import java.io.InputStream
+import java.net.Socket
+import java.net.URL
+import javax.net.ssl.HttpsURLConnection
+
+/**
+ * The default [SimplifyTransport], sending requests with [HttpsURLConnection] over a TLS context
+ * that only trusts the Simplify certificate authority.
+ */
+internal class HttpsTransport : SimplifyTransport {
+
+    // when null, the process-wide socket factory is used
+    var socketFactory: TlsSocketFactory? = null
+
+    val sslSocketFactory: TlsSocketFactory
+        get() = socketFactory ?: sharedSocketFactory
+
+    // when null, connections are closed after every request
+    var connectionPool: SimplifyConnectionPool? = sharedConnectionPool
+
+    var streamingMode = StreamingMode.FIXED_LENGTH
+
+    override fun execute(request: SimplifyRequest): SimplifyTransport.Response {
+        val host = URL(request.url).host
+        val pool = connectionPool?.takeIf { it.accepts(host) }
+
+        // init connection
+        val c = createHttpsUrlConnection(request, pool != null)
+
+        // cancelling closes the connection, unblocking any read or write in progress
+        request.setCancelAction(Runnable { c.disconnect() })
+
+        // forget any socket left over from an earlier request on this thread
+        sslSocketFactory.takeSocketCreatedOnThread()
+        pool?.acquire(host)
+
+        try {
+            // stream request data to the connection as json
+            writeRequestData(c, request)
+
+            // initiate the connection
+            c.connect()
+
+            val statusCode = c.responseCode
+            val body = if (c.doInput) (if (isStatusCodeOk(statusCode)) c.inputStream else c.errorStream) else null
+
+            // the status line is reported under a null key
+            val headers = c.headerFields.filterKeys { it != null }
+
+            return Response(request, c, statusCode, headers, body, pool, host, sslSocketFactory.takeSocketCreatedOnThread())
+        } catch (e: Exception) {
+            request.setCancelAction(null)
+            pool?.release(host, sslSocketFactory.takeSocketCreatedOnThread(), false)
+            c.disconnect()
+            throw e
+        }
+    }
+
+    // opens a connection to the url with an empty GET request, returns true if it was kept alive for reuse
+    // a HEAD request would be lighter, but some clients will not keep the connection alive after one
+    fun warmUp(url: String, connectTimeoutMillis: Int, readTimeoutMillis: Int): Boolean {
+        val host = URL(url).host
+        val pool = connectionPool?.takeIf { it.accepts(host) }
+
+        val c = URL(url).openConnection() as HttpsURLConnection
+        c.sslSocketFactory = sslSocketFactory
+        c.connectTimeout = connectTimeoutMillis
+        c.readTimeout = readTimeoutMillis
+        c.requestMethod = "GET"
+
+        if (pool == null) {
+            c.setRequestProperty("Connection", "close")
+        }
+
+        sslSocketFactory.takeSocketCreatedOnThread()
+        pool?.acquire(host)
+
+        var reusable = false
+        try {
+            val body = if (isStatusCodeOk(c.responseCode)) c.inputStream else c.errorStream
+            body?.use { it.skipFully() }
+            reusable = pool != null
+        } finally {
+            pool?.release(host, sslSocketFactory.takeSocketCreatedOnThread(), reusable)
+
+            if (!reusable) {
+                c.disconnect()
+            }
+        }
+
+        return reusable
+    }
+
+    fun writeRequestData(c: HttpsURLConnection, request: SimplifyRequest) {
+        when (streamingMode) {
+            // a counting pass finds the length without holding a copy of the data
+            StreamingMode.FIXED_LENGTH -> c.setFixedLengthStreamingMode(request.contentLength)
+            StreamingMode.CHUNKED -> c.setChunkedStreamingMode(0)
+        }
+
+        c.outputStream.use { request.writeBody(it) }
+    }
+
+    fun createHttpsUrlConnection(request: SimplifyRequest, keepAlive: Boolean = false): HttpsURLConnection {
+        // parse url
+        val url = URL(request.url)
+
+        val c = url.openConnection() as HttpsURLConnection
+        c.sslSocketFactory = sslSocketFactory
+        c.connectTimeout = request.connectTimeoutMillis
+        c.readTimeout = request.readTimeoutMillis
+        c.requestMethod = request.method.name
+        c.doOutput = true
+
+        if (!keepAlive) {
+            c.setRequestProperty("Connection", "close")
+        }
+
+        // add request headers
+        for (key in request.headers.keys) {
+            c.setRequestProperty(key, request.headers[key])
+        }
+
+        return c
+    }
+
+    private fun isStatusCodeOk(statusCode: Int): Boolean {
+        return statusCode in 200..299
+    }
+
+    // parks the connection for reuse once the body has been fully read, otherwise disconnects it
+    private class Response(
+            private val request: SimplifyRequest,
+            private val c: HttpsURLConnection,
+            statusCode: Int,
+            headers: Map<String, List<String>>,
+            body: InputStream?,
+            private val pool: SimplifyConnectionPool?,
+            private val host: String,
+            private val createdSocket: Socket?
+    ) : SimplifyTransport.Response(statusCode, headers, body) {
+
+        override fun close() {
+            var reusable = false
+            try {
+                body?.use { it.skipFully() }
+                reusable = pool != null && !request.isCancelled
+            } catch (e: IOException) {
+                // the connection is unusable
+            } finally {
+                request.setCancelAction(null)
+                pool?.release(host, createdSocket, reusable)
+
+                if (!reusable) {
+                    c.disconnect()
+                }
+            }
+        }
+    }
+
+    enum class StreamingMode {
+        // sends a Content-Length header, serializing the payload twice
+        FIXED_LENGTH,
+
+        // sends the payload in chunks as it is serialized
+        CHUNKED
+    }
+
+    companion object {
+
+        // building the trust-limited context is costly, and sharing a single instance keeps
+        // its session cache alive so later connections can resume the TLS session
+        private val sharedSocketFactory: TlsSocketFactory by lazy { TlsSocketFactory(SimplifyComms.createSslContext()) }
+
+        // the platform keeps alive connections process-wide, so the pool tracking them is shared too
+        private val sharedConnectionPool = SimplifyConnectionPool()
+    }
+}
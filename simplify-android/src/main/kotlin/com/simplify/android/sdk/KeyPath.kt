@@ -0,0 +1,229 @@
+package com.simplify.android.sdk
+
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ *
+ * A [SimplifyMap] key path, such as <code>card.secure3DData.acsUrl</code> or <code>a[2].b</code>, parsed once into segments.
+ * <br>Instances are immutable and cached, so looking up the same path repeatedly does not parse it again.
+ *
+ * Example:
+ * <pre>
+ * KeyPath acsUrl = KeyPath.of("card.secure3DData.acsUrl");
+ * String url = (String) cardToken.get(acsUrl);
+ * </pre>
+ */
+class KeyPath private constructor(val path: String) {
+
+    internal val segments: Array<Segment> = parse(path)
+
+    internal val size: Int
+        get() = segments.size
+
+    internal val first: Segment
+        get() = segments[0]
+
+    internal val last: Segment
+        get() = segments[segments.size - 1]
+
+    override fun equals(other: Any?): Boolean = other is KeyPath && other.path == path
+
+    override fun hashCode(): Int = path.hashCode()
+
+    override fun toString(): String = path
+
+    // one dot separated part of a key path
+    internal class Segment private constructor(
+            // the segment as written
+            val raw: String,
+            // the name before the brackets, or null if the segment has no array index
+            val arrayName: String?,
+            private val index: Int?,
+            // the index text as written, when it is not a valid number
+            private val invalidIndex: String?
+    ) {
+
+        val isArray: Boolean
+            get() = arrayName != null
+
+        // the index given in brackets, or null for empty brackets
+        val explicitIndex: Int?
+            get() {
+                if (invalidIndex != null) {
+                    throw NumberFormatException("Invalid array index '$invalidIndex' in key path segment '$raw'")
+                }
+                return index
+            }
+
+        // the index given in brackets, or the last index of a list of the given size for empty brackets
+        fun indexIn(size: Int): Int = explicitIndex ?: size - 1
+
+        companion object {
+
+            // scans the segment between start and end of the path in a single pass: a non empty name, optionally
+            // followed by one index in brackets ending the segment
+            fun parse(path: String, start: Int, end: Int): Segment {
+                var open = -1
+                var i = start
+                scan@ while (i < end) {
+                    when (path[i]) {
+                        '[' -> if (open < 0) open = i else throw invalid(path, i, "unexpected '['")
+                        ']' -> if (open >= 0) break@scan else throw invalid(path, i, "unexpected ']'")
+                    }
+                    i++
+                }
+
+                if (i == start) {
+                    throw invalid(path, i, "expected a key")
+                }
+                if (open < 0) {
+                    return Segment(path.substring(start, end), null, null, null)
+                }
+                if (open == start) {
+                    throw invalid(path, open, "expected a key")
+                }
+                if (i == end) {
+                    throw invalid(path, end, "expected ']'")
+                }
+                if (i + 1 < end) {
+                    throw invalid(path, i + 1, "expected '.'")
+                }
+
+                val raw = path.substring(start, end)
+                val name = path.substring(start, open)
+                if (i == open + 1) {
+                    return Segment(raw, name, null, null)
+                }
+
+                val index = parseIndex(path, open + 1, i)
+                        ?: return Segment(raw, name, null, path.substring(open + 1, i))
+
+                return Segment(raw, name, index, null)
+            }
+
+            private fun invalid(path: String, offset: Int, message: String): IllegalArgumentException {
+                return IllegalArgumentException("Invalid key path '$path': $message at offset $offset")
+            }
+
+            // parses a decimal int as Integer.parseInt would, returning null if it is not valid
+            private fun parseIndex(s: String, start: Int, end: Int): Int? {
+                var i = start
+                val negative = s[i] == '-'
+                if (negative || s[i] == '+') {
+                    i++
+                    if (i == end) {
+                        return null
+                    }
+                }
+
+                // accumulate negatively, as the magnitude of Int.MIN_VALUE does not fit in an Int
+                val limit = if (negative) Int.MIN_VALUE else -Int.MAX_VALUE
+                var result = 0
+                while (i < end) {
+                    val digit = Character.digit(s[i++], 10)
+                    if (digit < 0 || result < limit / 10) {
+                        return null
+                    }
+                    result *= 10
+                    if (result < limit + digit) {
+                        return null
+                    }
+                    result -= digit
+                }
+
+                return if (negative) result else -result
+            }
+        }
+    }
+
+    // a cached key path, flagged when read since the clock hand last passed it
+    private class CacheEntry(val keyPath: KeyPath) {
+        @Volatile
+        var read = false
+    }
+
+    companion object {
+
+        /**
+         * The number of parsed key paths kept in the cache, beyond which the least recently read are evicted
+         */
+        const val CACHE_SIZE = 256
+
+        // looked up without locking, as every nested key path read goes through it. Entries are evicted by a
+        // second chance clock: the hand clears the read flag of the entries it passes, and evicts the first
+        // entry not read since its last pass
+        private val cache = ConcurrentHashMap<String, CacheEntry>(CACHE_SIZE * 2)
+        private val clock = arrayOfNulls<CacheEntry>(CACHE_SIZE)
+        private var hand = 0
+
+        internal val cacheSize: Int
+            get() = cache.size
+
+        /**
+         * Returns the parsed key path for the given string, from the cache when possible
+         *
+         * @param path The key path
+         * @return The parsed key path
+         * @throws IllegalArgumentException if the path has an empty key, or brackets other than a single index
+         * ending a key
+         */
+        @JvmStatic
+        fun of(path: String): KeyPath {
+            cache[path]?.let { entry ->
+                // only written when clear, so reading a hot path does not keep writing to shared memory
+                if (!entry.read) {
+                    entry.read = true
+                }
+                return entry.keyPath
+            }
+
+            // parsed before locking, so misses only hold the lock to evict
+            val entry = CacheEntry(KeyPath(path))
+
+            synchronized(clock) {
+                cache[path]?.let { return it.keyPath }
+
+                while (true) {
+                    val current = clock[hand] ?: break
+                    if (!current.read) {
+                        cache.remove(current.keyPath.path)
+                        break
+                    }
+                    current.read = false
+                    hand = (hand + 1) % CACHE_SIZE
+                }
+
+                clock[hand] = entry
+                hand = (hand + 1) % CACHE_SIZE
+                cache[path] = entry
+            }
+
+            return entry.keyPath
+        }
+
+        // splits the path on dots in a single pass
+        private fun parse(path: String): Array<Segment> {
+            val segments = ArrayList<Segment>()
+
+            var start = 0
+            var dot = path.indexOf('.')
+            while (dot >= 0) {
+                segments.add(Segment.parse(path, start, dot))
+                start = dot + 1
+                dot = path.indexOf('.', start)
+            }
+            segments.add(Segment.parse(path, start, path.length))
+
+            return segments.toTypedArray()
+        }
+
+        // true if the key is used as a plain map key rather than parsed. Keys without dots or closing brackets,
+        // such as "test[0", have always been plain keys
+        internal fun isPlain(key: String): Boolean = key.indexOf('.') < 0 && key.indexOf(']') < 0
+
+        // true if the key can be written as a segment of a key path, and read back as the same key
+        internal fun isKey(key: String): Boolean {
+            return key.isNotEmpty() && key.indexOf('.') < 0 && key.indexOf('[') < 0 && key.indexOf(']') < 0
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.simplify.android.sdk
+
+import com.google.gson.JsonSyntaxException
+import com.google.gson.stream.JsonReader
+import java.io.ByteArrayInputStream
+import java.io.IOException
+import java.io.InputStreamReader
+
+/**
+ * A JSON value left undecoded in the UTF-8 bytes it was read from, stored in a [SimplifyMap] in place
+ * of the value until it is read.
+ * <br>Objects decode to [SimplifyMap]s that are themselves lazy, other values are decoded as
+ * [SimplifyMapTypeAdapter] reads them.
+ */
+internal class LazyJsonValue private constructor(
+        private val bytes: ByteArray,
+        private val start: Int,
+        private val end: Int,
+        private val lazyNumbers: Boolean,
+        private val stringPool: SimplifyStringPool?) {
+
+    fun decode(): Any {
+        if (bytes[start] == '{'.toByte()) {
+            return SimplifyMap().also { index(bytes, start, end, lazyNumbers, stringPool, it) }
+        }
+
+        return try {
+            SimplifyMapTypeAdapter.of(lazyNumbers, stringPool).readValue(reader(bytes, start, end))
+                    ?: throw JsonSyntaxException("Unexpected null value")
+        } catch (e: IOException) {
+            throw JsonSyntaxException(e)
+        } catch (e: IllegalStateException) {
+            throw JsonSyntaxException(e)
+        }
+    }
+
+    companion object {
+
+        /**
+         * Indexes the members of the JSON object found between start and end into the target map,
+         * storing each value as a [LazyJsonValue]. Members with a null value are skipped, and keys are replaced
+         * by their copy in the string pool, when given one.
+         * <br>Only the structure of the object is checked here, errors in its values are reported when they are decoded.
+         *
+         * @throws JsonSyntaxException if the bytes are not a JSON object
+         */
+        fun index(bytes: ByteArray, start: Int, end: Int, lazyNumbers: Boolean, stringPool: SimplifyStringPool?, target: SimplifyMap) {
+            val scanner = Scanner(bytes, start, end)
+
+            scanner.expect('{')
+            if (scanner.peek() == '}'.toInt()) {
+                return
+            }
+
+            do {
+                val key = scanner.key().let { stringPool?.intern(it) ?: it }
+                scanner.expect(':')
+                val valueStart = scanner.skipValue()
+
+                if (!scanner.isNull(valueStart)) {
+                    target.putRaw(key, LazyJsonValue(bytes, valueStart, scanner.position, lazyNumbers, stringPool))
+                }
+            } while (scanner.next(',', '}'))
+        }
+
+        private fun reader(bytes: ByteArray, start: Int, end: Int): JsonReader =
+                JsonReader(InputStreamReader(ByteArrayInputStream(bytes, start, end - start), Charsets.UTF_8)).apply { isLenient = true }
+    }
+
+    // walks the structure of a JSON document without decoding it
+    private class Scanner(private val bytes: ByteArray, var position: Int, private val end: Int) {
+
+        // returns the next non-whitespace byte without consuming it, or -1 at the end
+        fun peek(): Int {
+            while (position < end) {
+                when (bytes[position].toChar()) {
+                    ' ', '\t', '\n', '\r' -> position++
+                    else -> return bytes[position].toInt()
+                }
+            }
+            return -1
+        }
+
+        fun expect(c: Char) {
+            if (peek() != c.toInt()) {
+                throw syntaxError("Expected '$c'")
+            }
+            position++
+        }
+
+        // consumes either the separator, returning true, or the terminator, returning false
+        fun next(separator: Char, terminator: Char): Boolean {
+            return when (peek()) {
+                separator.toInt() -> {
+                    position++
+                    true
+                }
+                terminator.toInt() -> {
+                    position++
+                    false
+                }
+                else -> throw syntaxError("Expected '$separator' or '$terminator'")
+            }
+        }
+
+        fun key(): String {
+            if (peek() != '"'.toInt()) {
+                throw syntaxError("Expected a name")
+            }
+
+            val keyStart = position
+            val escaped = skipString()
+
+            return if (escaped) {
+                reader(bytes, keyStart, position).nextString()
+            } else {
+                String(bytes, keyStart + 1, position - keyStart - 2, Charsets.UTF_8)
+            }
+        }
+
+        // skips the next value, returning where it starts
+        fun skipValue(): Int {
+            val c = peek()
+            val valueStart = position
+
+            when (c) {
+                -1 -> throw syntaxError("Expected a value")
+                '"'.toInt() -> skipString()
+                '{'.toInt(), '['.toInt() -> skipNested()
+                else -> skipLiteral()
+            }
+
+            if (position == valueStart) {
+                throw syntaxError("Expected a value")
+            }
+
+            return valueStart
+        }
+
+        fun isNull(valueStart: Int): Boolean {
+            return position - valueStart == 4
+                    && bytes[valueStart] == 'n'.toByte()
+                    && bytes[valueStart + 1] == 'u'.toByte()
+                    && bytes[valueStart + 2] == 'l'.toByte()
+                    && bytes[valueStart + 3] == 'l'.toByte()
+        }
+
+        // skips a string, returning whether it contains escape sequences
+        private fun skipString(): Boolean {
+            var escaped = false
+
+            position++
+            while (position < end) {
+                when (bytes[position++]) {
+                    '"'.toByte() -> return escaped
+                    '\\'.toByte() -> {
+                        escaped = true
+                        position++
+                    }
+                }
+            }
+
+            throw syntaxError("Unterminated string")
+        }
+
+        private fun skipNested() {
+            var depth = 0
+
+            while (position < end) {
+                if (bytes[position] == '"'.toByte()) {
+                    skipString()
+                    continue
+                }
+
+                when (bytes[position]) {
+                    '{'.toByte(), '['.toByte() -> depth++
+                    '}'.toByte(), ']'.toByte() -> depth--
+                }
+                position++
+
+                if (depth == 0) {
+                    return
+                }
+            }
+
+            throw syntaxError("Unterminated object or array")
+        }
+
+        private fun skipLiteral() {
+            while (position < end) {
+                when (bytes[position].toChar()) {
+                    ',', '}', ']', ':', ' ', '\t', '\n', '\r' -> return
+                    else -> position++
+                }
+            }
+        }
+
+        private fun syntaxError(message: String) = JsonSyntaxException("$message at offset $position")
+    }
+}
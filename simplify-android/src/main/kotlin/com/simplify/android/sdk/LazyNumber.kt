@@ -0,0 +1,64 @@
+package com.simplify.android.sdk
+
+import com.google.gson.stream.JsonReader
+import com.google.gson.stream.JsonWriter
+import java.math.BigDecimal
+
+/**
+ *
+ * A number kept as the text it was read from, and only parsed when its value is asked for.
+ * <br>Integer values such as amounts in cents read back exactly, without a round trip through [Double]. Reading a
+ * number as an integer type throws an [ArithmeticException] if it has a fractional part or is out of range, rather
+ * than truncating it.
+ *
+ * @param text The number as written in JSON
+ */
+class LazyNumber(private val text: String) : Number() {
+
+    override fun toInt(): Int {
+        return try {
+            Integer.parseInt(text)
+        } catch (e: NumberFormatException) {
+            toBigDecimal().intValueExact()
+        }
+    }
+
+    override fun toLong(): Long {
+        return try {
+            java.lang.Long.parseLong(text)
+        } catch (e: NumberFormatException) {
+            toBigDecimal().longValueExact()
+        }
+    }
+
+    override fun toDouble(): Double = text.toDouble()
+
+    override fun toFloat(): Float = text.toFloat()
+
+    override fun toShort(): Short = toBigDecimal().shortValueExact()
+
+    override fun toByte(): Byte = toBigDecimal().byteValueExact()
+
+    override fun toChar(): Char = toInt().toChar()
+
+    /**
+     * Returns the exact value of the number
+     */
+    fun toBigDecimal(): BigDecimal = BigDecimal(text)
+
+    override fun equals(other: Any?): Boolean = other is LazyNumber && other.text == text
+
+    override fun hashCode(): Int = text.hashCode()
+
+    override fun toString(): String = text
+
+    // writes the number as it was read
+    internal object TypeAdapter : com.google.gson.TypeAdapter<LazyNumber>() {
+
+        override fun write(out: JsonWriter, value: LazyNumber?) {
+            out.value(value)
+        }
+
+        override fun read(reader: JsonReader): LazyNumber = LazyNumber(reader.nextString())
+    }
+}
@@ -16,10 +16,23 @@
 
 package com.simplify.android.sdk
 
-import java.net.HttpURLConnection
-
 internal interface Logger {
-    fun logRequest(c: HttpURLConnection, data: String?)
-    fun logResponse(c: HttpURLConnection, data: String?)
+
+    // false when everything logged is discarded, so request and response data are not copied for it
+    val isEnabled: Boolean
+        get() = true
+
+    fun logRequest(request: SimplifyRequest, data: String?)
+    fun logResponse(response: SimplifyTransport.Response, data: String?)
     fun logDebug(message: String)
 }
+
+// discards everything, installed when logging is not wanted
+internal object NoOpLogger : Logger {
+    override val isEnabled: Boolean
+        get() = false
+
+    override fun logRequest(request: SimplifyRequest, data: String?) {}
+    override fun logResponse(response: SimplifyTransport.Response, data: String?) {}
+    override fun logDebug(message: String) {}
+}
@@ -0,0 +1,156 @@
+package com.simplify.android.sdk
+
+import java.util.ArrayList
+import java.util.IdentityHashMap
+
+/**
+ * Copies a tree of maps and lists into [SimplifyMap]s and [ArrayList]s holding only strings, numbers and booleans,
+ * other values being replaced by their string form, and nulls by "null". Backs [SimplifyMap.normalize].
+ * <br>The tree is walked with a stack of frames rather than by recursion, so deep trees do not overflow the thread's
+ * stack, and a map or list found inside itself is reported instead of being walked forever. Copies are sized for
+ * their source. Snapshots and their lists cannot change, so those already holding only normalized values are kept
+ * as they are; their copy is only started at the first value that needs replacing.
+ *
+ * @param maxDepth The number of nested maps and lists allowed, the top map included
+ */
+internal class Normalizer(private val maxDepth: Int) {
+
+    init {
+        require(maxDepth > 0) { "Illegal maximum depth: $maxDepth" }
+    }
+
+    /**
+     * @throws IllegalArgumentException if the map contains itself, or is nested deeper than allowed
+     */
+    fun normalize(map: Map<String, Any>): MutableMap<String, Any> {
+        val stack = ArrayList<Frame>()
+        val inProgress = IdentityHashMap<Any, Any>()
+
+        stack.add(MapFrame(map, false))
+        inProgress[map] = map
+
+        while (true) {
+            val frame = stack[stack.size - 1]
+
+            if (!frame.hasNext()) {
+                stack.removeAt(stack.size - 1)
+                inProgress.remove(frame.source)
+
+                val result = frame.result()
+                if (stack.isEmpty()) {
+                    return result as MutableMap<String, Any>
+                }
+                stack[stack.size - 1].add(result)
+                continue
+            }
+
+            when (val value = frame.next()) {
+                is String, is Number, is Boolean -> frame.add(value)
+                is Map<*, *>, is List<*> -> {
+                    if (inProgress.containsKey(value)) {
+                        throw IllegalArgumentException("Cannot normalize a map or list that contains itself")
+                    }
+                    if (stack.size == maxDepth) {
+                        throw IllegalArgumentException("Cannot normalize maps and lists nested more than $maxDepth deep")
+                    }
+
+                    stack.add(if (value is Map<*, *>) {
+                        MapFrame(value as Map<String, Any>, value is SimplifyMapSnapshot)
+                    } else {
+                        ListFrame(value as List<Any?>, value is SimplifyMapSnapshot.FrozenList)
+                    })
+                    inProgress[value] = value
+                }
+                // nulls included, as the string "null"
+                else -> frame.add(value.toString())
+            }
+        }
+    }
+
+    // a map or list being copied. When the source cannot change, nothing is copied until a value differs from it
+    private abstract class Frame(val source: Any, immutable: Boolean) {
+
+        // the number of values read from the source, and the current value
+        protected var read = 0
+        protected var current: Any? = null
+
+        private var copying = !immutable
+
+        abstract fun hasNext(): Boolean
+
+        abstract fun next(): Any?
+
+        // adds the normalized current value to the copy
+        fun add(value: Any?) {
+            if (!copying) {
+                if (value === current) {
+                    return
+                }
+                copying = true
+                copyFirst(read - 1)
+            }
+            addToCopy(value)
+        }
+
+        fun result(): Any = if (copying) copy() else source
+
+        // starts the copy with the first values of the source, which were already normalized
+        protected abstract fun copyFirst(count: Int)
+
+        protected abstract fun addToCopy(value: Any?)
+
+        protected abstract fun copy(): Any
+    }
+
+    private class MapFrame(private val map: Map<String, Any>, immutable: Boolean) : Frame(map, immutable) {
+
+        private val iterator = map.entries.iterator()
+        private var key: String? = null
+        private val target by lazy(LazyThreadSafetyMode.NONE) { SimplifyMap(map.size) }
+
+        override fun hasNext(): Boolean = iterator.hasNext()
+
+        override fun next(): Any? {
+            val entry = iterator.next()
+            key = entry.key
+            current = entry.value
+            read++
+            return current
+        }
+
+        override fun copyFirst(count: Int) {
+            // snapshots iterate in the same order every time
+            map.entries.asSequence().take(count).forEach { (k, v) -> target.set(k, v) }
+        }
+
+        override fun addToCopy(value: Any?) {
+            target.set(key!!, value!!)
+        }
+
+        override fun copy(): Any = target
+    }
+
+    private class ListFrame(private val list: List<Any?>, immutable: Boolean) : Frame(list, immutable) {
+
+        private val iterator = list.iterator()
+        private val target by lazy(LazyThreadSafetyMode.NONE) { ArrayList<Any?>(list.size) }
+
+        override fun hasNext(): Boolean = iterator.hasNext()
+
+        override fun next(): Any? {
+            current = iterator.next()
+            read++
+            return current
+        }
+
+        override fun copyFirst(count: Int) {
+            target.addAll(list.subList(0, count))
+        }
+
+        override fun addToCopy(value: Any?) {
+            target.add(value)
+        }
+
+        override fun copy(): Any = target
+    }
+}
@@ -5,9 +5,11 @@ import android.content.Intent
 import android.util.Base64
 import android.util.Log
 import androidx.annotation.VisibleForTesting
+import io.reactivex.Flowable
 import io.reactivex.Single
 import java.nio.charset.Charset
 import java.util.*
+import java.util.concurrent.Executor
 
 
 /**
@@ -41,6 +43,129 @@ class Simplify(apiKey: String) {
     @VisibleForTesting
     internal var comms = SimplifyComms()
 
+    /**
+     * The executor used to run requests made with a [SimplifyCallback].
+     * <br>Defaults to a [SimplifyExecutor] shared by all Simplify instances.
+     */
+    var executor: Executor
+        get() = comms.executor
+        set(value) {
+            comms.executor = value
+        }
+
+    /**
+     * The pool keeping connections to the Simplify API alive between requests.
+     * <br>Defaults to a [SimplifyConnectionPool] shared by all Simplify instances. When null, connections are closed after every request.
+     */
+    var connectionPool: SimplifyConnectionPool?
+        get() = comms.httpsTransport.connectionPool
+        set(value) {
+            comms.httpsTransport.connectionPool = value
+        }
+
+    /**
+     * When true, numbers in responses are kept as [LazyNumber]s and only parsed when read, so that integer values such as
+     * amounts read back exactly through [SimplifyMap.getLong]. When false, numbers are read as doubles.
+     * <br>Defaults to false.
+     */
+    var lazyNumbers: Boolean
+        get() = comms.lazyNumbers
+        set(value) {
+            comms.lazyNumbers = value
+        }
+
+    /**
+     * When true, response bodies are kept as their raw bytes and each value is only decoded the first time it is read,
+     * so that fields never read, such as the 3-D Secure data of a card token, are never decoded.
+     * Lazy maps compare and serialize the same as maps decoded up front.
+     * <br>Reading a lazy map may modify it, so it must not be read from several threads at once without synchronization.
+     * <br>Defaults to false.
+     */
+    var lazyResponses: Boolean
+        get() = comms.lazyResponses
+        set(value) {
+            comms.lazyResponses = value
+        }
+
+    /**
+     * The pool sharing one copy of the keys and short string values of decoded responses, such as field names and
+     * card brands, between all the maps read with it. Useful when many responses are kept in memory.
+     * <br>Defaults to null, each response holding its own strings.
+     */
+    var stringPool: SimplifyStringPool?
+        get() = comms.stringPool
+        set(value) {
+            comms.stringPool = value
+        }
+
+    /**
+     * The policy deciding whether failed requests are sent again.
+     * <br>Defaults to [SimplifyRetryPolicy.NONE], failing on the first error.
+     */
+    var retryPolicy: SimplifyRetryPolicy
+        get() = comms.retryPolicy
+        set(value) {
+            comms.retryPolicy = value
+        }
+
+    /**
+     * Receives the timing and outcome of every attempt made by a request, on the thread running the request. May be null
+     */
+    var retryListener: SimplifyRetryPolicy.Listener?
+        get() = comms.retryListener
+        set(value) {
+            comms.retryListener = value
+        }
+
+    /**
+     * The transport used to send requests to the Simplify API.
+     * <br>Defaults to an HttpsURLConnection based transport, using the [connectionPool]. May be replaced with a
+     * [SimplifyInMemoryTransport] to exercise request handling without a network.
+     */
+    var transport: SimplifyTransport
+        get() = comms.transport
+        set(value) {
+            comms.transport = value
+        }
+
+    /**
+     * How long requests wait for a connection to be established, in milliseconds
+     */
+    var connectTimeoutMillis: Int = SimplifyComms.CONNECTION_TIMEOUT
+        set(value) {
+            if (value < 0) {
+                throw IllegalArgumentException("Invalid connect timeout: $value")
+            }
+            field = value
+        }
+
+    /**
+     * How long requests wait for data once connected, in milliseconds
+     */
+    var readTimeoutMillis: Int = SimplifyComms.READ_TIMEOUT
+        set(value) {
+            if (value < 0) {
+                throw IllegalArgumentException("Invalid read timeout: $value")
+            }
+            field = value
+        }
+
+    /**
+     * Returns a Simplify instance with the same key and configuration, whose requests use the given timeouts.
+     * <br>Useful to override the timeouts of a single call, as in <code>simplify.withTimeouts(5000, 10000).createCardToken(card, callback)</code>
+     *
+     * @param connectTimeoutMillis How long to wait for a connection to be established, in milliseconds
+     * @param readTimeoutMillis    How long to wait for data once connected, in milliseconds
+     * @return A Simplify instance sharing this instance's executor, transport and policies
+     */
+    fun withTimeouts(connectTimeoutMillis: Int, readTimeoutMillis: Int): Simplify {
+        return Simplify(apiKey).also {
+            it.comms = comms
+            it.connectTimeoutMillis = connectTimeoutMillis
+            it.readTimeoutMillis = readTimeoutMillis
+        }
+    }
+
     private val url: String
         get() = if (isLive) API_BASE_LIVE_URL else API_BASE_SANDBOX_URL
 
@@ -56,16 +181,21 @@ class Simplify(apiKey: String) {
      * @param card                A valid card object
      * @param secure3DRequestData Data required to initiate 3DS authentication. may be null
      * @param callback            The callback to invoke after the request is complete
+     * @return A handle to cancel the request
      */
     @JvmOverloads
-    fun createCardToken(card: SimplifyMap, secure3DRequestData: SimplifyMap? = null, callback: SimplifyCallback) =
-            buildCreateCardTokenRequest(card, secure3DRequestData).run { comms.runSimplifyRequest(this, callback) }
+    fun createCardToken(card: SimplifyMap, secure3DRequestData: SimplifyMap? = null, callback: SimplifyCallback): SimplifyCall {
+        val request = buildCreateCardTokenRequest(card, secure3DRequestData)
+        comms.runSimplifyRequest(request, callback)
+        return SimplifyCall(listOf(request))
+    }
 
     /**
      *
      * Builds a Single to retrieve a card token that can then be used to process a payment
      * <br>Includes optional 3DS request data required to initiate a 3DS authentication process.
      * <br>Does not operate on any particular scheduler
+     * <br>Disposing the Single closes the connection of a request in progress
      *
      * @param card                A valid card object
      * @param secure3DRequestData Data requires to initiate 3DS authentication
@@ -73,22 +203,134 @@ class Simplify(apiKey: String) {
      */
     @JvmOverloads
     fun createCardToken(card: SimplifyMap, secure3DRequestData: SimplifyMap? = null): Single<SimplifyMap> =
-            buildCreateCardTokenRequest(card, secure3DRequestData).run(comms::runSimplifyRequest)
+            Single.defer { buildCreateCardTokenRequest(card, secure3DRequestData).run(comms::runSimplifyRequest) }
+
+    /**
+     *
+     * Retrieves a card token that can then be used to process a payment, suspending until the request is complete.
+     * <br>Includes optional 3DS request data required to initiate a 3DS authentication process.
+     * <br>The request runs on the [executor]. Cancelling the coroutine closes the connection of a request in progress
+     *
+     * @param card                A valid card object
+     * @param secure3DRequestData Data required to initiate 3DS authentication. may be null
+     * @return A SimplifyMap containing card token information
+     */
+    suspend fun awaitCardToken(card: SimplifyMap, secure3DRequestData: SimplifyMap? = null): SimplifyMap =
+            comms.awaitSimplifyRequest(buildCreateCardTokenRequest(card, secure3DRequestData))
+
+    /**
+     *
+     * Performs asynchronous requests to the Simplify server to retrieve a card token for each card.
+     * <br>Requests run concurrently, up to the given limit. A failed request does not affect the others.
+     *
+     * @param cards          The cards to tokenize
+     * @param maxConcurrency The maximum number of requests running at once
+     * @param callback       The callback to invoke as each request completes, and once all are complete
+     * @return A handle to cancel the requests
+     */
+    @JvmOverloads
+    fun createCardTokens(cards: List<SimplifyMap>, maxConcurrency: Int = DEFAULT_BATCH_CONCURRENCY, callback: SimplifyBatchCallback): SimplifyCall {
+        val requests = buildCreateCardTokenRequests(cards, maxConcurrency)
+        comms.runSimplifyRequests(requests, maxConcurrency, callback)
+        return SimplifyCall(requests)
+    }
+
+    /**
+     *
+     * Builds a Single to retrieve a card token for each card.
+     * <br>Requests run concurrently on the [executor], up to the given limit. A failed request does not fail the Single.
+     *
+     * @param cards          The cards to tokenize
+     * @param maxConcurrency The maximum number of requests running at once
+     * @return A Single of the results, in the order the cards were given
+     */
+    @JvmOverloads
+    fun createCardTokens(cards: List<SimplifyMap>, maxConcurrency: Int = DEFAULT_BATCH_CONCURRENCY): Single<List<SimplifyBatchResult>> =
+            streamCardTokens(cards, maxConcurrency).toSortedList { a, b -> a.index - b.index }
+
+    /**
+     *
+     * Builds a Flowable emitting the result of each card token request as it completes.
+     * <br>Requests run concurrently on the [executor], up to the given limit, and new requests are only
+     * started as results are consumed. A failed request does not fail the Flowable.
+     *
+     * @param cards          The cards to tokenize
+     * @param maxConcurrency The maximum number of requests running at once
+     * @return A Flowable of the results, in completion order
+     */
+    @JvmOverloads
+    fun streamCardTokens(cards: List<SimplifyMap>, maxConcurrency: Int = DEFAULT_BATCH_CONCURRENCY): Flowable<SimplifyBatchResult> =
+            Flowable.defer { comms.runSimplifyRequests(buildCreateCardTokenRequests(cards, maxConcurrency), maxConcurrency) }
+
+    /**
+     *
+     * Retrieves a card token for each card, suspending until all requests are complete.
+     * <br>Requests run concurrently on the [executor], up to the given limit. A failed request does not affect the others.
+     *
+     * @param cards          The cards to tokenize
+     * @param maxConcurrency The maximum number of requests running at once
+     * @return The results, in the order the cards were given
+     */
+    suspend fun awaitCardTokens(cards: List<SimplifyMap>, maxConcurrency: Int = DEFAULT_BATCH_CONCURRENCY): List<SimplifyBatchResult> =
+            comms.awaitSimplifyRequests(buildCreateCardTokenRequests(cards, maxConcurrency), maxConcurrency)
+
+    private fun buildCreateCardTokenRequests(cards: List<SimplifyMap>, maxConcurrency: Int): List<SimplifyRequest> {
+        if (maxConcurrency < 1) {
+            throw IllegalArgumentException("Invalid max concurrency: $maxConcurrency")
+        }
+
+        return cards.map { buildCreateCardTokenRequest(it, null) }
+    }
+
+    /**
+     *
+     * Warms up the connection to the Simplify API for this key's environment, so that the next request
+     * does not pay for the host lookup, the TCP and TLS handshakes or the SDK set up.
+     * <br>The connection is kept alive for the next request. No card data is sent.
+     *
+     * @param callback The callback to invoke once the connection is warmed up
+     */
+    fun warmUp(callback: SimplifyWarmUpCallback) = comms.runWarmUp(url, connectTimeoutMillis, readTimeoutMillis, callback)
+
+    /**
+     *
+     * Builds a Single to warm up the connection to the Simplify API for this key's environment, so that the next request
+     * does not pay for the host lookup, the TCP and TLS handshakes or the SDK set up.
+     * <br>The connection is kept alive for the next request. No card data is sent.
+     * <br>Does not operate on any particular scheduler
+     *
+     * @return A Single of the warm up timing and outcome
+     */
+    fun warmUp(): Single<SimplifyWarmUpResult> = comms.runWarmUp(url, connectTimeoutMillis, readTimeoutMillis)
+
+    /**
+     *
+     * Warms up the connection to the Simplify API for this key's environment, suspending until done.
+     * <br>The connection is kept alive for the next request. No card data is sent.
+     *
+     * @return The warm up timing and outcome
+     */
+    suspend fun awaitWarmUp(): SimplifyWarmUpResult = comms.awaitWarmUp(url, connectTimeoutMillis, readTimeoutMillis)
 
     private fun buildCreateCardTokenRequest(card: SimplifyMap, secure3DRequestData: SimplifyMap?): SimplifyRequest {
+        // snapshots keep later changes to the caller's maps out of the request. Maps keep their last snapshot,
+        // so a card sent again unchanged is not copied again
         val payload = SimplifyMap()
                 .set("key", apiKey)
-                .set("card", card)
+                .set("card", card.snapshot())
 
         secure3DRequestData?.let {
-            payload.set("secure3DRequestData", it)
+            payload.set("secure3DRequestData", it.snapshot())
         }
 
         return SimplifyRequest(
                 url = url + API_PATH_CARDTOKEN,
                 method = SimplifyRequest.Method.POST,
                 payload = payload
-        )
+        ).apply {
+            connectTimeoutMillis = this@Simplify.connectTimeoutMillis
+            readTimeoutMillis = this@Simplify.readTimeoutMillis
+        }
     }
 
     private fun validateApiKey(apiKey: String): Boolean {
@@ -118,6 +360,11 @@ class Simplify(apiKey: String) {
         @VisibleForTesting
         internal const val API_PATH_CARDTOKEN = "/payment/cardToken"
 
+        /**
+         * The default maximum number of card token requests running at once in a batch
+         */
+        const val DEFAULT_BATCH_CONCURRENCY = 4
+
         private const val PATTERN_API_KEY = "(?:lv|sb)pb_(.+)"
         private const val LIVE_KEY_PREFIX = "lvpb_"
 
@@ -168,10 +415,10 @@ class Simplify(apiKey: String) {
                     when (resultCode) {
                         Activity.RESULT_OK -> {
                             try {
-                                SimplifyMap(data!!.getStringExtra(SimplifySecure3DActivity.EXTRA_RESULT)).run {
+                                resultOf(data!!).run {
                                     when {
-                                        containsKey("secure3d.authenticated") -> callback.onSecure3DComplete(this["secure3d.authenticated"] as Boolean)
-                                        containsKey("secure3d.error") -> callback.onSecure3DError(this["secure3d.error.message"] as String)
+                                        containsKey("secure3d.authenticated") -> callback.onSecure3DComplete(getBoolean("secure3d.authenticated"))
+                                        containsKey("secure3d.error") -> callback.onSecure3DError(getString("secure3d.error.message") ?: "Unknown error occurred during authentication")
                                         else -> callback.onSecure3DError("Unknown error occurred during authentication")
                                     }
                                 }
@@ -187,6 +434,14 @@ class Simplify(apiKey: String) {
                 else -> false
             }
         }
+
+        // the 3DS result parcelled by the activity, or the JSON string it could not parse
+        private fun resultOf(data: Intent): SimplifyMap {
+            data.setExtrasClassLoader(SimplifyMap::class.java.classLoader)
+
+            return data.getParcelableExtra(SimplifySecure3DActivity.EXTRA_RESULT_MAP)
+                    ?: SimplifyMap(data.getStringExtra(SimplifySecure3DActivity.EXTRA_RESULT))
+        }
     }
 }
 
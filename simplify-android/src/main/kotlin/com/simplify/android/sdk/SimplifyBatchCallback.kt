@@ -0,0 +1,21 @@
+package com.simplify.android.sdk
+
+/**
+ * A callback interface for following a batch of calls to the Simplify API
+ */
+interface SimplifyBatchCallback {
+
+    /**
+     * Called as each request in the batch completes, in completion order
+     *
+     * @param result The outcome of the request
+     */
+    fun onResult(result: SimplifyBatchResult)
+
+    /**
+     * Called once every request in the batch has completed
+     *
+     * @param results The outcome of every request, in the order the requests were given
+     */
+    fun onComplete(results: List<SimplifyBatchResult>)
+}
@@ -0,0 +1,21 @@
+package com.simplify.android.sdk
+
+/**
+ * The outcome of one request in a batch
+ *
+ * @param index     The position of the request in the batch
+ * @param response  The response map, or null if the request failed
+ * @param error     The exception thrown by the request, or null if it succeeded
+ */
+class SimplifyBatchResult internal constructor(val index: Int, val response: SimplifyMap?, val error: Throwable?) {
+
+    /**
+     * True if the request succeeded
+     */
+    val isSuccess: Boolean
+        get() = error == null
+
+    override fun toString(): String {
+        return "SimplifyBatchResult[index=$index, " + (if (isSuccess) "response=$response" else "error=$error") + "]"
+    }
+}
@@ -0,0 +1,21 @@
+package com.simplify.android.sdk
+
+/**
+ * A handle to requests started with a callback, which can be used to cancel them.
+ * <br>Once cancelled, the callback is not invoked and any connection in use is closed.
+ */
+class SimplifyCall internal constructor(private val requests: List<SimplifyRequest>) {
+
+    /**
+     * True once the call has been cancelled
+     */
+    val isCancelled: Boolean
+        get() = requests.all { it.isCancelled }
+
+    /**
+     * Cancels every request of this call that has not completed
+     */
+    fun cancel() {
+        requests.forEach { it.cancel() }
+    }
+}
@@ -2,160 +2,420 @@ package com.simplify.android.sdk
 
 import android.os.Build
 import android.os.Handler
-import com.google.gson.GsonBuilder
+import io.reactivex.Flowable
 import io.reactivex.Single
+import kotlinx.coroutines.suspendCancellableCoroutine
 import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.InputStream
+import java.io.OutputStream
+import java.io.StringReader
+import java.net.InetAddress
+import java.net.SocketTimeoutException
 import java.net.URL
 import java.security.KeyStore
 import java.security.cert.CertificateFactory
 import java.security.cert.X509Certificate
-import javax.net.ssl.HttpsURLConnection
+import java.util.*
+import java.util.concurrent.CancellationException
+import java.util.concurrent.Executor
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
 import javax.net.ssl.SSLContext
 import javax.net.ssl.TrustManagerFactory
+import kotlin.coroutines.resume
+import kotlin.coroutines.resumeWithException
 
 internal class SimplifyComms {
 
     var logger: Logger = BaseLogger()
-    var gson = GsonBuilder().disableHtmlEscaping().create()
+
+    // the default transport, kept so its connection settings stay reachable when another transport is set
+    val httpsTransport = HttpsTransport()
+
+    var transport: SimplifyTransport = httpsTransport
+
+    // runs requests made with a callback
+    var executor: Executor = sharedExecutor
+
+    // keeps response numbers as text until read
+    var lazyNumbers = false
+
+    // keeps response bodies undecoded until read
+    var lazyResponses = false
+
+    // shares the keys and short strings of decoded responses, or null
+    var stringPool: SimplifyStringPool? = null
+
+    var retryPolicy: SimplifyRetryPolicy = SimplifyRetryPolicy.NONE
+
+    var retryListener: SimplifyRetryPolicy.Listener? = null
+
+    // the source of retry jitter
+    var random = Random()
 
     fun runSimplifyRequest(request: SimplifyRequest, callback: SimplifyCallback) {
-        // create handler on current thread
-        val handler = Handler { msg -> handleCallbackMessage(callback, msg.obj) }
+        // create handler on current thread, dropping results that arrive after a cancel
+        val handler = Handler { msg -> request.isCancelled || handleCallbackMessage(callback, msg.obj) }
+
+        try {
+            executor.execute {
+                val m = handler.obtainMessage()
+                try {
+                    m.obj = executeSimplifyRequest(request)
+                } catch (e: Exception) {
+                    m.obj = e
+                }
+
+                handler.sendMessage(m)
+            }
+        } catch (e: RejectedExecutionException) {
+            handler.sendMessage(handler.obtainMessage().apply { obj = e })
+        }
+    }
+
+    fun runSimplifyRequest(request: SimplifyRequest): Single<SimplifyMap> {
+        return Single.create { emitter ->
+            // disposing closes the connection, unblocking the request
+            emitter.setCancellable { request.cancel() }
 
-        Thread {
-            val m = handler.obtainMessage()
             try {
-                m.obj = executeSimplifyRequest(request)
+                emitter.onSuccess(executeSimplifyRequest(request))
             } catch (e: Exception) {
-                m.obj = e
+                emitter.tryOnError(e)
             }
-
-            handler.sendMessage(m)
-        }.start()
+        }
     }
 
-    fun runSimplifyRequest(request: SimplifyRequest): Single<SimplifyMap> {
-        return Single.fromCallable { executeSimplifyRequest(request) }
-    }
+    suspend fun awaitSimplifyRequest(request: SimplifyRequest): SimplifyMap {
+        return suspendCancellableCoroutine { continuation ->
+            continuation.invokeOnCancellation { request.cancel() }
 
-    // handler callback method when executing a request on a new thread
-    fun handleCallbackMessage(callback: SimplifyCallback?, arg: Any): Boolean {
-        if (callback != null) {
-            if (arg is Throwable) {
-                callback.onError(arg)
-            } else {
-                callback.onSuccess(arg as SimplifyMap)
+            try {
+                executor.execute {
+                    try {
+                        continuation.resume(executeSimplifyRequest(request))
+                    } catch (e: Exception) {
+                        continuation.resumeWithException(e)
+                    }
+                }
+            } catch (e: RejectedExecutionException) {
+                continuation.resumeWithException(e)
             }
         }
-        return true
     }
 
-    fun executeSimplifyRequest(request: SimplifyRequest): SimplifyMap {
-        // init connection
-        val c = createHttpsUrlConnection(request)
+    fun runSimplifyRequests(requests: List<SimplifyRequest>, maxConcurrency: Int, callback: SimplifyBatchCallback) {
+        // create handler on current thread
+        val handler = Handler()
+        val isCancelled = { requests.any { it.isCancelled } }
 
-        // encode request data to json
-        val requestData = gson.toJson(request.payload)
+        dispatchSimplifyRequests(requests, maxConcurrency,
+                { result -> handler.post { if (!isCancelled()) callback.onResult(result) } },
+                { results -> handler.post { if (!isCancelled()) callback.onComplete(results) } })
+    }
+
+    fun runSimplifyRequests(requests: List<SimplifyRequest>, maxConcurrency: Int): Flowable<SimplifyBatchResult> {
+        // inner requests are only started as results are consumed, keeping at most maxConcurrency in flight
+        return Flowable.range(0, requests.size).flatMap({ index ->
+            Single.create<SimplifyBatchResult> { emitter ->
+                emitter.setCancellable { requests[index].cancel() }
+
+                try {
+                    executor.execute { emitter.onSuccess(executeBatchItem(requests, index)) }
+                } catch (e: RejectedExecutionException) {
+                    emitter.onSuccess(SimplifyBatchResult(index, null, e))
+                }
+            }.toFlowable()
+        }, maxConcurrency)
+    }
 
-        // log request data
-        logger.logRequest(c, requestData)
+    suspend fun awaitSimplifyRequests(requests: List<SimplifyRequest>, maxConcurrency: Int): List<SimplifyBatchResult> {
+        return suspendCancellableCoroutine { continuation ->
+            continuation.invokeOnCancellation { requests.forEach { it.cancel() } }
 
-        // write request data
-        if (requestData != null) {
-            val os = c.outputStream
-            os.write(requestData.toByteArray(charset("UTF-8")))
-            os.close()
+            dispatchSimplifyRequests(requests, maxConcurrency, {}, { results -> continuation.resume(results) })
         }
+    }
 
-        // initiate the connection
-        c.connect()
+    fun runWarmUp(url: String, connectTimeoutMillis: Int, readTimeoutMillis: Int, callback: SimplifyWarmUpCallback) {
+        // create handler on current thread
+        val handler = Handler()
+
+        try {
+            executor.execute {
+                try {
+                    val result = executeWarmUp(url, connectTimeoutMillis, readTimeoutMillis)
+                    handler.post { callback.onWarmUp(result) }
+                } catch (e: Exception) {
+                    handler.post { callback.onError(e) }
+                }
+            }
+        } catch (e: RejectedExecutionException) {
+            handler.post { callback.onError(e) }
+        }
+    }
 
-        var responseData: String? = null
-        val statusCode = c.responseCode
-        val isStatusOk = isStatusCodeOk(statusCode)
+    fun runWarmUp(url: String, connectTimeoutMillis: Int, readTimeoutMillis: Int): Single<SimplifyWarmUpResult> {
+        return Single.fromCallable { executeWarmUp(url, connectTimeoutMillis, readTimeoutMillis) }
+    }
 
-        // if connection has output stream, get the data
-        // socket time-out exceptions will be thrown here
-        if (c.doInput) {
-            val inputStream = if (isStatusOk) c.inputStream else c.errorStream
-            responseData = inputStream.readTextAndClose()
+    suspend fun awaitWarmUp(url: String, connectTimeoutMillis: Int, readTimeoutMillis: Int): SimplifyWarmUpResult {
+        return suspendCancellableCoroutine { continuation ->
+            try {
+                executor.execute {
+                    try {
+                        continuation.resume(executeWarmUp(url, connectTimeoutMillis, readTimeoutMillis))
+                    } catch (e: Exception) {
+                        continuation.resumeWithException(e)
+                    }
+                }
+            } catch (e: RejectedExecutionException) {
+                continuation.resumeWithException(e)
+            }
         }
+    }
 
-        c.disconnect()
+    // pays the one-off costs of a first request up front, without sending any data
+    fun executeWarmUp(url: String, connectTimeoutMillis: Int = CONNECTION_TIMEOUT, readTimeoutMillis: Int = READ_TIMEOUT): SimplifyWarmUpResult {
+        val start = System.nanoTime()
+        val host = URL(url).host
 
-        // log response
-        logger.logResponse(c, responseData)
+        InetAddress.getAllByName(host)
+        val dnsMillis = millisSince(start)
 
-        // parse the response body
-        val response = SimplifyMap(responseData)
+        // load the JSON classes
+        SimplifyJson.writeMap(SimplifyMap("key", "value"), CountingOutputStream())
+        SimplifyJson.readMap(StringReader("{\"key\":\"value\"}"))
 
-        // if response static is good, return response
-        if (isStatusOk) {
-            return response
+        // building the TLS context is part of the first connection
+        val connectStart = System.nanoTime()
+        val isConnectionKept = transport === httpsTransport && httpsTransport.warmUp(url, connectTimeoutMillis, readTimeoutMillis)
+        val connectMillis = millisSince(connectStart)
+
+        val result = SimplifyWarmUpResult(dnsMillis, connectMillis, millisSince(start), isConnectionKept)
+        if (isConnectionKept) {
+            httpsTransport.connectionPool?.onNextRelease(host) { result.setConnectionReused(it) }
         }
 
-        // otherwise, create a gateway exception and throw it
-        val message = response["error.message"] as String? ?: "An error occurred"
+        logger.logDebug("Warmed up $host: $result")
 
-        throw SimplifyException(message, statusCode, response)
+        return result
     }
 
-    fun createSslContext(): SSLContext {
-        // create and initialize a KeyStore
-        val keyStore = createSslKeyStore()
+    // runs the requests on the executor, with at most maxConcurrency running at once
+    fun dispatchSimplifyRequests(
+            requests: List<SimplifyRequest>,
+            maxConcurrency: Int,
+            onResult: (SimplifyBatchResult) -> Unit,
+            onComplete: (List<SimplifyBatchResult>) -> Unit
+    ) {
+        val results = arrayOfNulls<SimplifyBatchResult>(requests.size)
+        val nextIndex = AtomicInteger()
+        val remaining = AtomicInteger(requests.size)
+
+        fun complete(result: SimplifyBatchResult) {
+            results[result.index] = result
+            onResult(result)
+
+            if (remaining.decrementAndGet() == 0) {
+                onComplete(results.map { it!! })
+            }
+        }
+
+        if (requests.isEmpty()) {
+            onComplete(emptyList())
+            return
+        }
+
+        // each worker takes the next request until none are left, so no thread waits on a permit
+        val worker = Runnable {
+            var index = nextIndex.getAndIncrement()
+            while (index < requests.size) {
+                complete(executeBatchItem(requests, index))
+                index = nextIndex.getAndIncrement()
+            }
+        }
 
-        // create a TrustManager that trusts the INTERMEDIATE_CA in our KeyStore
-        val tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm())
-        tmf.init(keyStore)
+        var started = 0
+        for (i in 0 until minOf(maxConcurrency, requests.size)) {
+            try {
+                executor.execute(worker)
+                started++
+            } catch (e: RejectedExecutionException) {
+                break
+            }
+        }
 
-        val trustManagers = tmf.trustManagers
+        // with no worker running, nothing else will complete the batch
+        if (started == 0) {
+            val e = RejectedExecutionException("Simplify request queue is full")
+            var index = nextIndex.getAndIncrement()
+            while (index < requests.size) {
+                complete(SimplifyBatchResult(index, null, e))
+                index = nextIndex.getAndIncrement()
+            }
+        }
+    }
 
-        val context = SSLContext.getInstance("TLSv1.2")
-        context.init(null, trustManagers, null)
+    private fun executeBatchItem(requests: List<SimplifyRequest>, index: Int): SimplifyBatchResult {
+        return try {
+            SimplifyBatchResult(index, executeSimplifyRequest(requests[index]), null)
+        } catch (e: Exception) {
+            SimplifyBatchResult(index, null, e)
+        }
+    }
 
-        return context
+    // handler callback method when executing a request on a new thread
+    fun handleCallbackMessage(callback: SimplifyCallback?, arg: Any): Boolean {
+        if (callback != null) {
+            if (arg is Throwable) {
+                callback.onError(arg)
+            } else {
+                callback.onSuccess(arg as SimplifyMap)
+            }
+        }
+        return true
     }
 
-    fun createSslKeyStore(): KeyStore {
-        val keyStore = KeyStore.getInstance(KeyStore.getDefaultType())
-        keyStore.load(null, null)
+    fun executeSimplifyRequest(request: SimplifyRequest): SimplifyMap {
+        // add default headers, leaving any set on the request
+        request.headers.getOrPut("User-Agent") { buildUserAgent() }
+        request.headers.getOrPut("Content-Type") { "application/json" }
+
+        val policy = retryPolicy
+        val start = System.nanoTime()
+        var attempt = 1
+        var delay = policy.baseDelayMillis
+
+        // each attempt is given no more time than is left before the deadline
+        val connectTimeout = request.connectTimeoutMillis
+        val readTimeout = request.readTimeoutMillis
+
+        while (true) {
+            if (request.isCancelled) {
+                throw CancellationException("Request cancelled")
+            }
 
-        // add our trusted cert to the keystore
-        keyStore.setCertificateEntry(KEYSTORE_CA_ALIAS, readCertificate(INTERMEDIATE_CA))
+            val remaining = policy.deadlineMillis - millisSince(start)
+            if (remaining <= 0) {
+                throw SocketTimeoutException("Deadline of ${policy.deadlineMillis}ms exceeded")
+            }
+            request.connectTimeoutMillis = clampTimeout(connectTimeout, remaining)
+            request.readTimeoutMillis = clampTimeout(readTimeout, remaining)
 
-        return keyStore
+            val attemptStart = System.nanoTime()
+            try {
+                val response = executeAttempt(request)
+                retryListener?.onAttempt(SimplifyRetryPolicy.Attempt(attempt, millisSince(attemptStart), null, -1))
+                return response
+            } catch (e: Exception) {
+                // closing the connection on cancel surfaces here as a socket error, which must not be retried
+                if (request.isCancelled && e !is CancellationException) {
+                    throw CancellationException("Request cancelled").apply { initCause(e) }
+                }
+
+                var retry = attempt < policy.maxAttempts && policy.isRetryable(e)
+                if (retry) {
+                    delay = policy.nextDelayMillis(delay, random)
+                    retry = millisSince(start) + delay < policy.deadlineMillis
+                }
+
+                retryListener?.onAttempt(SimplifyRetryPolicy.Attempt(attempt, millisSince(attemptStart), e, if (retry) delay else -1))
+
+                if (!retry) {
+                    throw e
+                }
+
+                // cancelling the request ends the wait at once
+                val cancelled = try {
+                    request.awaitCancel(delay)
+                } catch (ie: InterruptedException) {
+                    Thread.currentThread().interrupt()
+                    throw e
+                }
+                if (cancelled) {
+                    throw CancellationException("Request cancelled").apply { initCause(e) }
+                }
+
+                // a sleep running late may leave no time for another attempt
+                if (millisSince(start) >= policy.deadlineMillis) {
+                    throw e
+                }
+
+                attempt++
+            } finally {
+                request.connectTimeoutMillis = connectTimeout
+                request.readTimeoutMillis = readTimeout
+            }
+        }
     }
 
-    fun readCertificate(cert: String): X509Certificate {
-        val bytes = cert.toByteArray()
-        val inputStream = ByteArrayInputStream(bytes)
+    private fun millisSince(nanos: Long): Long = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - nanos)
 
-        return CertificateFactory.getInstance("X.509").generateCertificate(inputStream) as X509Certificate
+    // a timeout of zero waits forever, so a timeout never drops below a millisecond
+    private fun clampTimeout(timeoutMillis: Int, remainingMillis: Long): Int {
+        if (timeoutMillis != 0 && timeoutMillis <= remainingMillis) {
+            return timeoutMillis
+        }
+        return minOf(remainingMillis, Int.MAX_VALUE.toLong()).toInt()
     }
 
-    fun createHttpsUrlConnection(request: SimplifyRequest): HttpsURLConnection {
-        // parse url
-        val url = URL(request.url)
+    // sends the request once
+    private fun executeAttempt(request: SimplifyRequest): SimplifyMap {
+        if (request.isCancelled) {
+            throw CancellationException("Request cancelled")
+        }
 
-        // init ssl context with limiting trust managers
-        val context = createSslContext()
+        // copy the raw data only when it will be logged
+        val isLogging = logger.isEnabled
+        val requestCopy = if (isLogging) ByteArrayOutputStream() else null
+        request.bodyCopy = requestCopy
 
-        val c = url.openConnection() as HttpsURLConnection
-        c.sslSocketFactory = context.socketFactory
-        c.connectTimeout = CONNECTION_TIMEOUT
-        c.readTimeout = READ_TIMEOUT
-        c.requestMethod = request.method.name
-        c.doOutput = true
+        // log request data, as far as it was written, even when sending it failed
+        val response = try {
+            transport.execute(request)
+        } finally {
+            logger.logRequest(request, requestCopy?.toString("UTF-8"))
+        }
+
+        response.use { r ->
+            val isStatusOk = isStatusCodeOk(r.statusCode)
 
-        c.setRequestProperty("User-Agent", buildUserAgent())
-        c.setRequestProperty("Content-Type", "application/json")
+            // parse the data as it arrives
+            // socket time-out exceptions will be thrown here
+            val responseCopy = if (isLogging) ByteArrayOutputStream() else null
+            val response = readResponseData(r.body, responseCopy)
 
-        // add extra headers
-        for (key in request.headers.keys) {
-            c.setRequestProperty(key, request.headers[key])
+            // log response
+            logger.logResponse(r, responseCopy?.toString("UTF-8"))
+
+            // if response static is good, return response
+            if (isStatusOk) {
+                return response
+            }
+
+            // otherwise, create a gateway exception and throw it
+            val message = response.getString("error.message") ?: "An error occurred"
+
+            throw SimplifyException(message, r.statusCode, response)
         }
+    }
 
-        return c
+    // decodes the stream, copying the raw data when given a copy stream
+    fun readResponseData(inputStream: InputStream?, copy: OutputStream?): SimplifyMap {
+        if (inputStream == null) {
+            return SimplifyMap()
+        }
+
+        val input = copy?.let { TeeInputStream(inputStream, it) } ?: inputStream
+
+        return if (lazyResponses) {
+            SimplifyJson.readMapLazily(input.readBytes(), lazyNumbers, stringPool)
+        } else {
+            SimplifyJson.readMap(input, lazyNumbers, stringPool)
+        }
     }
 
     fun isStatusCodeOk(statusCode: Int): Boolean {
@@ -199,5 +459,40 @@ internal class SimplifyComms {
                 "V4pf1qLDNe/mHIBMNQOucuqMf1q7PMIkCM4LHGexG6ApbwBQYwJp6GiaZR0dwYvi\n" +
                 "fuc46qX1D2lnGyC1EktHnL3lazAZFuFC\n" +
                 "-----END CERTIFICATE-----\n"
+
+        private val sharedExecutor: SimplifyExecutor by lazy { SimplifyExecutor() }
+
+        fun createSslContext(): SSLContext {
+            // create and initialize a KeyStore
+            val keyStore = createSslKeyStore()
+
+            // create a TrustManager that trusts the INTERMEDIATE_CA in our KeyStore
+            val tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm())
+            tmf.init(keyStore)
+
+            val trustManagers = tmf.trustManagers
+
+            val context = SSLContext.getInstance("TLSv1.2")
+            context.init(null, trustManagers, null)
+
+            return context
+        }
+
+        fun createSslKeyStore(): KeyStore {
+            val keyStore = KeyStore.getInstance(KeyStore.getDefaultType())
+            keyStore.load(null, null)
+
+            // add our trusted cert to the keystore
+            keyStore.setCertificateEntry(KEYSTORE_CA_ALIAS, readCertificate(INTERMEDIATE_CA))
+
+            return keyStore
+        }
+
+        fun readCertificate(cert: String): X509Certificate {
+            val bytes = cert.toByteArray()
+            val inputStream = ByteArrayInputStream(bytes)
+
+            return CertificateFactory.getInstance("X.509").generateCertificate(inputStream) as X509Certificate
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,228 @@
+package com.simplify.android.sdk
+
+import java.io.IOException
+import java.net.Socket
+
+/**
+ *
+ * Keeps connections to the Simplify API alive between requests, so that back-to-back requests
+ * can reuse a warm socket instead of paying for a new TCP connection and TLS handshake.
+ * <br>Connections are parked by the platform's HTTP client once a response has been fully read.
+ * This pool decides which hosts may keep connections alive, and closes parked connections
+ * that have been idle longer than the idle timeout or that exceed the maximum pool size.
+ * <br>Idle connections are closed by a daemon thread, running only while connections are parked.
+ *
+ * @param idleTimeoutMillis  How long a connection may stay idle before it is closed
+ * @param maxIdleConnections The maximum number of idle connections kept per host
+ * @param hosts              The hosts for which connections are kept alive
+ */
+class SimplifyConnectionPool @JvmOverloads constructor(
+        val idleTimeoutMillis: Long = DEFAULT_IDLE_TIMEOUT_MILLIS,
+        val maxIdleConnections: Int = DEFAULT_MAX_IDLE_CONNECTIONS,
+        val hosts: Set<String> = DEFAULT_HOSTS
+) {
+
+    private val routes = HashMap<String, Route>()
+
+    private var hits = 0L
+    private var misses = 0L
+    private var evictions = 0L
+
+    // whether the cleanup thread is running
+    internal val isCleanupRunning: Boolean
+        get() = synchronized(this) { cleanupRunning }
+
+    private var cleanupRunning = false
+
+    // closes parked connections as they time out, until none are left
+    private val cleanupTask = Runnable {
+        while (true) {
+            val waitMillis = evictIdle(System.currentTimeMillis())
+            if (waitMillis < 0) {
+                return@Runnable
+            }
+
+            try {
+                Thread.sleep(waitMillis)
+            } catch (e: InterruptedException) {
+                synchronized(this) { cleanupRunning = false }
+                return@Runnable
+            }
+        }
+    }
+
+    /**
+     * The number of requests that reused a kept alive connection
+     */
+    val reuseHits: Long
+        get() = synchronized(this) { hits }
+
+    /**
+     * The number of requests that had to open a new connection
+     */
+    val reuseMisses: Long
+        get() = synchronized(this) { misses }
+
+    /**
+     * The number of kept alive connections closed by this pool
+     */
+    val evictionCount: Long
+        get() = synchronized(this) { evictions }
+
+    /**
+     * The number of open connections tracked by this pool, across all hosts
+     */
+    val connectionCount: Int
+        get() = synchronized(this) { routes.values.sumBy { route -> route.prune() } }
+
+    /**
+     * Returns true if connections to the given host are kept alive
+     *
+     * @param host The host name
+     */
+    fun accepts(host: String): Boolean = hosts.any { it.equals(host, ignoreCase = true) }
+
+    /**
+     * Closes all idle connections tracked by this pool
+     */
+    @Synchronized
+    fun evictAll() {
+        routes.values.forEach { route ->
+            if (route.inFlight == 0) {
+                evictions += route.trimTo(0)
+            }
+        }
+    }
+
+    // called before a request to the host is sent
+    @Synchronized
+    internal fun acquire(host: String) {
+        val route = routes.getOrPut(host.toLowerCase()) { Route() }
+
+        // with nothing in flight, every tracked connection has been idle since the last release
+        if (route.inFlight == 0 && System.currentTimeMillis() - route.lastUsed > idleTimeoutMillis) {
+            evictions += route.trimTo(0)
+        }
+
+        route.inFlight++
+    }
+
+    // called once the request is complete, with the socket it created if it did not reuse one
+    @Synchronized
+    internal fun release(host: String, createdSocket: Socket?, reusable: Boolean) {
+        val route = routes[host.toLowerCase()] ?: return
+
+        route.inFlight--
+        route.lastUsed = System.currentTimeMillis()
+
+        // tell those waiting on this host whether the request reused a kept alive connection
+        if (route.releaseListeners.isNotEmpty()) {
+            val listeners = route.takeReleaseListeners(route.lastUsed - idleTimeoutMillis)
+            listeners.forEach { it(createdSocket == null && reusable) }
+        }
+
+        if (createdSocket != null) {
+            misses++
+            if (reusable) {
+                route.sockets.add(createdSocket)
+            }
+        } else if (reusable) {
+            hits++
+        }
+
+        if (route.inFlight == 0) {
+            evictions += route.trimTo(maxIdleConnections)
+        }
+
+        if (!cleanupRunning && route.sockets.isNotEmpty()) {
+            cleanupRunning = true
+            Thread(cleanupTask, CLEANUP_THREAD_NAME).apply { isDaemon = true }.start()
+        }
+    }
+
+    // closes the connections idle past the timeout, returns how long until the next one times out,
+    // or -1 once none are parked, stopping the cleanup
+    @Synchronized
+    private fun evictIdle(now: Long): Long {
+        var waitMillis = Long.MAX_VALUE
+        for (route in routes.values) {
+            if (route.prune() == 0) {
+                continue
+            }
+
+            // connections parked while a request is in flight are checked again after a full timeout
+            val untilIdle = if (route.inFlight > 0) idleTimeoutMillis else route.lastUsed + idleTimeoutMillis - now
+            if (untilIdle < 0) {
+                evictions += route.trimTo(0)
+            } else {
+                waitMillis = minOf(waitMillis, untilIdle + 1)
+            }
+        }
+
+        if (waitMillis == Long.MAX_VALUE) {
+            cleanupRunning = false
+            return -1
+        }
+        return waitMillis
+    }
+
+    // calls the listener once the next request to the host completes, with true if it reused a kept alive connection.
+    // Listeners are dropped once the idle timeout has passed without a request, as no connection is kept that long
+    @Synchronized
+    internal fun onNextRelease(host: String, listener: (Boolean) -> Unit) {
+        val now = System.currentTimeMillis()
+        val route = routes.getOrPut(host.toLowerCase()) { Route() }
+        route.releaseListeners.removeAll { now - it.addedAt > idleTimeoutMillis }
+        route.releaseListeners.add(ReleaseListener(listener, now))
+    }
+
+    // the number of listeners still waiting on a request to the host
+    @Synchronized
+    internal fun pendingListenerCount(host: String): Int = routes[host.toLowerCase()]?.releaseListeners?.size ?: 0
+
+    private class Route {
+        var inFlight = 0
+        var lastUsed = 0L
+        val sockets = ArrayList<Socket>()
+        val releaseListeners = ArrayList<ReleaseListener>()
+
+        // removes every listener, returning those added since the given time
+        fun takeReleaseListeners(since: Long): List<(Boolean) -> Unit> {
+            val listeners = releaseListeners.filter { it.addedAt >= since }.map { it.listener }
+            releaseListeners.clear()
+            return listeners
+        }
+
+        // drops closed sockets, returns the number still open
+        fun prune(): Int {
+            sockets.removeAll { it.isClosed }
+            return sockets.size
+        }
+
+        // closes the oldest sockets until at most max remain open, returns the number closed
+        fun trimTo(max: Int): Int {
+            var closed = 0
+            while (prune() > max) {
+                try {
+                    sockets.removeAt(0).close()
+                } catch (e: IOException) {
+                    // already unusable
+                }
+                closed++
+            }
+            return closed
+        }
+    }
+
+    private class ReleaseListener(val listener: (Boolean) -> Unit, val addedAt: Long)
+
+    companion object {
+        const val DEFAULT_IDLE_TIMEOUT_MILLIS = 60000L
+        const val DEFAULT_MAX_IDLE_CONNECTIONS = 2
+
+        private const val CLEANUP_THREAD_NAME = "simplify-connection-cleanup"
+
+        @JvmField
+        val DEFAULT_HOSTS = setOf("api.simplify.com", "sandbox.simplify.com")
+    }
+}
@@ -0,0 +1,127 @@
+package com.simplify.android.sdk
+
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.RejectedExecutionHandler
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ *
+ * A bounded thread pool for running asynchronous Simplify requests.
+ * <br>Threads are named daemon threads, started on demand and retired after being idle for the keep alive time.
+ * Once all threads are busy, requests wait in a queue of fixed capacity, and are rejected when the queue is full.
+ *
+ * @param poolSize        The maximum number of threads
+ * @param queueCapacity   The maximum number of requests waiting for a thread
+ * @param keepAliveMillis How long an idle thread is kept before being retired
+ */
+class SimplifyExecutor @JvmOverloads constructor(
+        poolSize: Int = DEFAULT_POOL_SIZE,
+        queueCapacity: Int = DEFAULT_QUEUE_CAPACITY,
+        keepAliveMillis: Long = DEFAULT_KEEP_ALIVE_MILLIS
+) : ThreadPoolExecutor(poolSize, poolSize, keepAliveMillis, TimeUnit.MILLISECONDS, ArrayBlockingQueue(queueCapacity), RequestThreadFactory(), CountingRejectionHandler()) {
+
+    private val waitCount = AtomicLong()
+    private val totalWaitNanos = AtomicLong()
+    private val maxWaitNanos = AtomicLong()
+
+    init {
+        allowCoreThreadTimeOut(true)
+    }
+
+    /**
+     * The number of threads currently running a request
+     */
+    val activeThreads: Int
+        get() = activeCount
+
+    /**
+     * The number of requests waiting for a thread
+     */
+    val queueDepth: Int
+        get() = queue.size
+
+    /**
+     * The number of requests rejected because the queue was full
+     */
+    val rejectedCount: Long
+        get() = (rejectedExecutionHandler as? CountingRejectionHandler)?.count?.get() ?: 0
+
+    /**
+     * The total time requests have spent waiting in the queue, in milliseconds
+     */
+    val totalQueueWaitMillis: Long
+        get() = TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get())
+
+    /**
+     * The longest time a single request has spent waiting in the queue, in milliseconds
+     */
+    val maxQueueWaitMillis: Long
+        get() = TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get())
+
+    /**
+     * The average time requests have spent waiting in the queue, in milliseconds
+     */
+    val averageQueueWaitMillis: Double
+        get() = waitCount.get().let { count -> if (count == 0L) 0.0 else totalWaitNanos.get() / count / 1e6 }
+
+    override fun execute(command: Runnable) {
+        super.execute(QueuedTask(command))
+    }
+
+    override fun beforeExecute(t: Thread, r: Runnable) {
+        super.beforeExecute(t, r)
+
+        if (r is QueuedTask) {
+            val wait = System.nanoTime() - r.queuedAt
+            waitCount.incrementAndGet()
+            totalWaitNanos.addAndGet(wait)
+
+            var max = maxWaitNanos.get()
+            while (wait > max && !maxWaitNanos.compareAndSet(max, wait)) {
+                max = maxWaitNanos.get()
+            }
+        }
+    }
+
+    override fun toString(): String {
+        return "SimplifyExecutor[active=$activeThreads, queued=$queueDepth, rejected=$rejectedCount, avgQueueWaitMillis=$averageQueueWaitMillis]"
+    }
+
+    private class QueuedTask(private val command: Runnable) : Runnable {
+        val queuedAt = System.nanoTime()
+
+        override fun run() = command.run()
+    }
+
+    private class RequestThreadFactory : ThreadFactory {
+        private val threadNumber = AtomicInteger(1)
+
+        override fun newThread(r: Runnable): Thread {
+            return Thread(r, THREAD_NAME_PREFIX + threadNumber.getAndIncrement()).apply {
+                isDaemon = true
+            }
+        }
+    }
+
+    private class CountingRejectionHandler : RejectedExecutionHandler {
+        val count = AtomicLong()
+
+        override fun rejectedExecution(r: Runnable, executor: ThreadPoolExecutor) {
+            count.incrementAndGet()
+            throw RejectedExecutionException("Simplify request queue is full")
+        }
+    }
+
+    companion object {
+        const val DEFAULT_POOL_SIZE = 4
+        const val DEFAULT_QUEUE_CAPACITY = 64
+        const val DEFAULT_KEEP_ALIVE_MILLIS = 30000L
+
+        internal const val THREAD_NAME_PREFIX = "simplify-request-"
+    }
+}
@@ -0,0 +1,109 @@
+package com.simplify.android.sdk
+
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import java.io.InterruptedIOException
+import java.net.SocketTimeoutException
+import java.util.*
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ *
+ * A [SimplifyTransport] that answers requests in-process, without touching the network.
+ * <br>Scripted responses are returned in the order they were enqueued. Once none are left, every request
+ * is answered with a card token built from the card in the request payload.
+ * <br>Useful for exercising request handling in tests and benchmarks.
+ *
+ * @param latencyMillis How long each request blocks before being answered, simulating the network. Requests with
+ *                      a shorter read timeout time out instead
+ */
+class SimplifyInMemoryTransport @JvmOverloads constructor(val latencyMillis: Long = 0) : SimplifyTransport {
+
+    private val scripted = ConcurrentLinkedQueue<Scripted>()
+    private val count = AtomicLong()
+
+    /**
+     * The number of requests answered by this transport
+     */
+    val requestCount: Long
+        get() = count.get()
+
+    /**
+     * Queues a response to be returned for a future request
+     *
+     * @param statusCode The HTTP status code
+     * @param body       The JSON response body
+     */
+    fun enqueue(statusCode: Int, body: String) {
+        scripted.add(Scripted(statusCode, body.toByteArray(Charsets.UTF_8)))
+    }
+
+    override fun execute(request: SimplifyRequest): SimplifyTransport.Response {
+        count.incrementAndGet()
+
+        // serialize the request as a real transport would
+        request.writeBody(ByteArrayOutputStream())
+
+        if (latencyMillis > 0) {
+            // a cancel ends the wait early, as closing a connection would
+            val cancelled = CountDownLatch(1)
+            request.setCancelAction(Runnable { cancelled.countDown() })
+            try {
+                val timeoutMillis = request.readTimeoutMillis.toLong()
+                val waitMillis = if (timeoutMillis > 0) minOf(latencyMillis, timeoutMillis) else latencyMillis
+                if (cancelled.await(waitMillis, TimeUnit.MILLISECONDS)) {
+                    throw IOException("Canceled")
+                }
+                if (waitMillis < latencyMillis) {
+                    throw SocketTimeoutException("Read timed out")
+                }
+            } catch (e: InterruptedException) {
+                throw InterruptedIOException()
+            } finally {
+                request.setCancelAction(null)
+            }
+        }
+
+        val response = scripted.poll() ?: Scripted(200, buildCardToken(request.payload))
+
+        return SimplifyTransport.Response(
+                response.statusCode,
+                mapOf("Content-Type" to listOf("application/json")),
+                ByteArrayInputStream(response.body)
+        )
+    }
+
+    private fun buildCardToken(payload: SimplifyMap): ByteArray {
+        val number = payload.getString("card.number", "")!!
+
+        val card = SimplifyMap()
+                .set("id", UUID.randomUUID().toString())
+                .set("last4", number.takeLast(4))
+                .set("type", cardType(number))
+
+        payload["card.expMonth"]?.let { card["expMonth"] = it }
+        payload["card.expYear"]?.let { card["expYear"] = it }
+
+        val token = SimplifyMap()
+                .set("id", UUID.randomUUID().toString())
+                .set("used", false)
+                .set("card", card)
+
+        return ByteArrayOutputStream().also { SimplifyJson.writeMap(token, it) }.toByteArray()
+    }
+
+    // a rough guess by prefix, good enough for a stand-in response
+    private fun cardType(number: String): String = when {
+        number.startsWith("4") -> "VISA"
+        number.startsWith("5") || number.startsWith("2") -> "MASTERCARD"
+        number.startsWith("34") || number.startsWith("37") -> "AMERICAN_EXPRESS"
+        number.startsWith("6") -> "DISCOVER"
+        else -> "UNKNOWN"
+    }
+
+    private class Scripted(val statusCode: Int, val body: ByteArray)
+}
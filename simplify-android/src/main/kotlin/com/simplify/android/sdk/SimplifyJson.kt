@@ -0,0 +1,97 @@
+package com.simplify.android.sdk
+
+import com.google.gson.Gson
+import com.google.gson.GsonBuilder
+import com.google.gson.JsonSyntaxException
+import com.google.gson.stream.JsonReader
+import com.google.gson.stream.JsonToken
+import com.google.gson.stream.MalformedJsonException
+import java.io.BufferedOutputStream
+import java.io.EOFException
+import java.io.InputStream
+import java.io.InputStreamReader
+import java.io.OutputStream
+import java.io.OutputStreamWriter
+import java.io.Reader
+
+/**
+ * The JSON codec shared by the whole SDK. [SimplifyMap]s are read and written in a single pass by
+ * [SimplifyMapTypeAdapter], without building an intermediate String or going through Gson's
+ * reflective map adapters.
+ */
+internal object SimplifyJson {
+
+    /**
+     * A Gson instance with the [SimplifyMap] and [LazyNumber] adapters registered
+     */
+    val gson: Gson = GsonBuilder()
+            .disableHtmlEscaping()
+            .registerTypeHierarchyAdapter(SimplifyMap::class.java, SimplifyMapTypeAdapter.DEFAULT)
+            .registerTypeAdapter(LazyNumber::class.java, LazyNumber.TypeAdapter)
+            .create()
+
+    /**
+     * Writes the map to the stream as UTF-8 encoded JSON. The stream is flushed but not closed.
+     */
+    fun writeMap(map: Map<String, Any>, os: OutputStream) {
+        val writer = gson.newJsonWriter(OutputStreamWriter(BufferedOutputStream(os), Charsets.UTF_8))
+        SimplifyMapTypeAdapter.DEFAULT.writeMap(writer, map)
+        writer.flush()
+    }
+
+    fun readMap(input: InputStream, lazyNumbers: Boolean = false, stringPool: SimplifyStringPool? = null): SimplifyMap =
+            readMap(InputStreamReader(input, Charsets.UTF_8), lazyNumbers, stringPool)
+
+    fun readMap(reader: Reader, lazyNumbers: Boolean = false, stringPool: SimplifyStringPool? = null): SimplifyMap =
+            SimplifyMap().also { readMap(reader, it, lazyNumbers, stringPool) }
+
+    /**
+     * Reads a JSON object into the target map. An empty document or a JSON null leaves the map unchanged,
+     * while a document ending before the object does fails.
+     * <br>When reading numbers lazily, numbers are kept as their JSON text, and only parsed when read.
+     * <br>When given a string pool, keys and short strings are replaced by their pooled copy.
+     */
+    fun readMap(reader: Reader, target: SimplifyMap, lazyNumbers: Boolean = false, stringPool: SimplifyStringPool? = null) {
+        val jsonReader = JsonReader(reader).apply { isLenient = true }
+
+        try {
+            val token = try {
+                jsonReader.peek()
+            } catch (e: EOFException) {
+                // empty document
+                return
+            }
+
+            when (token) {
+                JsonToken.NULL -> jsonReader.nextNull()
+                else -> SimplifyMapTypeAdapter.of(lazyNumbers, stringPool).readObject(jsonReader, target)
+            }
+        } catch (e: EOFException) {
+            throw JsonSyntaxException(e)
+        } catch (e: MalformedJsonException) {
+            throw JsonSyntaxException(e)
+        } catch (e: IllegalStateException) {
+            throw JsonSyntaxException(e)
+        }
+    }
+
+    /**
+     * Indexes a UTF-8 encoded JSON object into a lazy map, which decodes each value the first time it is read.
+     * An empty document or a JSON null gives an empty map.
+     * <br>Values are decoded holding the lock of the map they are in, so the map may be read from several threads
+     * as a map that is never written may be.
+     */
+    fun readMapLazily(bytes: ByteArray, lazyNumbers: Boolean = false, stringPool: SimplifyStringPool? = null): SimplifyMap {
+        val map = SimplifyMap()
+
+        val start = bytes.indexOfFirst { !Character.isWhitespace(it.toInt()) }
+        if (start != -1 && !isNull(bytes, start)) {
+            LazyJsonValue.index(bytes, start, bytes.size, lazyNumbers, stringPool, map)
+        }
+
+        return map
+    }
+
+    private fun isNull(bytes: ByteArray, start: Int): Boolean =
+            String(bytes, start, minOf(4, bytes.size - start), Charsets.UTF_8) == "null"
+}
@@ -1,90 +1,163 @@
 package com.simplify.android.sdk
 
-import com.google.gson.Gson
-import com.google.gson.reflect.TypeToken
+import android.os.Parcel
+import android.os.Parcelable
+import com.google.gson.TypeAdapter
+import java.io.Serializable
+import java.io.StringReader
+import java.math.BigDecimal
+import java.math.BigInteger
 import java.util.ArrayList
 
 
-class SimplifyMap : LinkedHashMap<String, Any> {
+/**
+ *
+ * A map of JSON-like data, whose values can be read and written with key paths such as "card.secure3DData.acsUrl" or "fees[0].amount".
+ * <br>Keys keep their insertion order. Maps of up to eight keys, such as cards and 3-D Secure data, are kept in flat
+ * arrays and searched linearly; larger maps also keep a hash index.
+ * <br>Maps are parcelable in the compact binary form of [toBytes]. As they are also serializable, cast them to
+ * [Parcelable] when putting them in an intent or bundle.
+ * <br>Unlike earlier versions, this class does not extend LinkedHashMap, so code that casts maps to LinkedHashMap or
+ * HashMap must use the Map interfaces instead. Maps are serialized as their list of keys and values, which does
+ * not depend on how they are stored.
+ */
+class SimplifyMap : AbstractMutableMap<String, Any>, Serializable, Cloneable, Parcelable {
+
+    private val store: CompactStore
+
+    // whether some values may still be undecoded JSON, see SimplifyJson.readMapLazily. While it is set, values are
+    // read and decoded holding the map's lock, so that threads reading the map see each value fully decoded
+    @Volatile
+    private var hasLazyValues = false
+
+    @Transient
+    private var entrySet: EntrySet? = null
+
+    // the last snapshot taken, returned again while neither this map nor the maps nested in it have changed
+    private var lastSnapshot: SnapshotOf? = null
 
     companion object {
-        private val arrayIndexPattern = "(.*)\\[(.*)\\]".toRegex()
 
         /**
-         * Returns an identical copy of the map
+         * Returns an identical copy of the map, made of [SimplifyMap]s and lists holding only strings, numbers and
+         * booleans. Other values are replaced by their string form, and nulls by "null".
+         * <br>Nested maps and lists are copied without recursion, so trees of any depth can be normalized.
+         * Snapshots holding only such values are kept as they are, as they cannot change.
          *
          * @param m The map to copy
          * @return A copy of the original map
+         * @throws IllegalArgumentException if the map contains itself
          */
         @JvmStatic
-        fun normalize(m: MutableMap<String, Any>): MutableMap<String, Any> {
-            val pm = SimplifyMap()
-
-            m.keys.forEach { k ->
-                when (val v = m[k]) {
-                    is List<*> -> pm.set(k, normalize(v as MutableList<Any>))
-                    is Map<*, *> -> pm.set(k, normalize(v as MutableMap<String, Any>))
-                    is String, is Double, is Float, is Number, is Boolean -> pm.set(k, v)
-                    else -> pm.set(k, v.toString())
-                }
-            }
+        fun normalize(m: MutableMap<String, Any>): MutableMap<String, Any> = Normalizer(Int.MAX_VALUE).normalize(m)
 
-            return pm
-        }
+        /**
+         * Returns an identical copy of the map, as [normalize] does, failing if maps and lists are nested
+         * more than the given number of levels deep.
+         *
+         * @param m        The map to copy
+         * @param maxDepth The number of nested maps and lists allowed, the map itself included
+         * @return A copy of the original map
+         * @throws IllegalArgumentException if the map contains itself, or is nested deeper than allowed
+         */
+        @JvmStatic
+        fun normalize(m: MutableMap<String, Any>, maxDepth: Int): MutableMap<String, Any> = Normalizer(maxDepth).normalize(m)
 
+        /**
+         * Returns a map built from key paths and their values, such as those returned by [flatten].
+         *
+         * @param flat The values by key path
+         * @return A new map
+         * @throws IllegalArgumentException  if part of a key path does not match the expected type.
+         * @throws IndexOutOfBoundsException if using an array index in a key path is out of bounds.
+         * @see writer
+         */
         @JvmStatic
-        private fun normalize(l: MutableList<Any>): MutableList<Any> {
-            val pl = ArrayList<Any>()
-
-            l.forEach {v ->
-                when (v) {
-                    is List<*> -> pl.add(normalize(v as MutableList<Any>))
-                    is Map<*, *> -> pl.add(normalize(v as MutableMap<String, Any>))
-                    is String, is Double, is Float, is Number, is Boolean -> pl.add(v)
-                    else -> pl.add(v.toString())
-                }
+        fun unflatten(flat: Map<String, Any>): SimplifyMap {
+            val map = SimplifyMap()
+            val writer = map.writer()
+            for ((keyPath, value) in flat) {
+                writer.visit(keyPath, value)
             }
+            return map
+        }
 
-            return pl
+        /**
+         * Returns the map encoded in the bytes returned by [toBytes]
+         *
+         * @param bytes The encoded map
+         * @return A new map
+         * @throws IllegalArgumentException if the bytes are not an encoded map
+         */
+        @JvmStatic
+        fun fromBytes(bytes: ByteArray): SimplifyMap = SimplifyMapCodec.decode(bytes)
+
+        /**
+         * Creates maps from parcels, in the binary form of [toBytes]
+         */
+        @JvmField
+        val CREATOR: Parcelable.Creator<SimplifyMap> = object : Parcelable.Creator<SimplifyMap> {
+
+            override fun createFromParcel(source: Parcel): SimplifyMap = fromBytes(source.createByteArray()!!)
+
+            override fun newArray(size: Int): Array<SimplifyMap?> = arrayOfNulls(size)
         }
+
+        /**
+         * Returns the streaming Gson adapter used by the SDK to read and write maps, for registering
+         * with an app's own Gson instance.
+         * <br>Nested objects are read as [SimplifyMap]s and arrays as [ArrayList]s.
+         *
+         * @return The [SimplifyMap] type adapter
+         */
+        @JvmStatic
+        fun typeAdapter(): TypeAdapter<SimplifyMap> = SimplifyMapTypeAdapter.DEFAULT
     }
 
 
     /**
-     * Constructs an empty map with the default capacity and load factor.
+     * Constructs an empty map.
      */
-    constructor() : super()
+    constructor() : this(0)
 
     /**
-     * Constructs an empty map with the specified capacity and default load factor.
+     * Constructs an empty map with room for the specified number of keys.
      *
      * @param initialCapacity the initial capacity
+     * @throws IllegalArgumentException if the initial capacity is negative
      */
-    constructor(initialCapacity: Int) : super(initialCapacity)
+    constructor(initialCapacity: Int) : super() {
+        store = CompactStore(initialCapacity)
+    }
 
     /**
-     * Constructs an empty map with the specified capacity and load factor.
+     * Constructs an empty map with room for the specified number of keys.
+     * <br>The load factor is only checked, as small maps are not hashed.
      *
      * @param initialCapacity the initial capacity
      * @param loadFactor      the load factor
+     * @throws IllegalArgumentException if the initial capacity is negative or the load factor nonpositive
      */
-    constructor(initialCapacity: Int, loadFactor: Float) : super(initialCapacity, loadFactor)
+    constructor(initialCapacity: Int, loadFactor: Float) : this(initialCapacity) {
+        require(loadFactor > 0 && !loadFactor.isNaN()) { "Illegal load factor: $loadFactor" }
+    }
 
     /**
      * Constructs a map with the same mappings as in the specifed map.
      *
      * @param map the map whose mappings are to be placed in this map
      */
-    constructor(map: Map<String, Any>) : super(map)
+    constructor(map: Map<String, Any>) : this(map.size) {
+        putAll(map)
+    }
 
     /**
      * Constructs a map based of the speficied JSON string.
      *
      * @param jsonMapString the JSON string used to construct the map
      */
-    constructor(jsonMapString: String?) : super() {
-        val map = Gson().fromJson<Map<out String, Any>>(jsonMapString, object : TypeToken<Map<out String, Any>>() {}.type)
-        putAll(map)
+    constructor(jsonMapString: String?) : this(0) {
+        jsonMapString?.let { SimplifyJson.readMap(StringReader(it), this) }
     }
 
     /**
@@ -93,10 +166,40 @@ class SimplifyMap : LinkedHashMap<String, Any> {
      * @param keyPath key path with which the specified value is to be associated.
      * @param value   value to be associated with the specified key path.
      */
-    constructor(keyPath: String, value: Any) {
+    constructor(keyPath: String, value: Any) : this(0) {
         put(keyPath, value)
     }
 
+    override val size: Int
+        get() = store.size
+
+    // the number of mappings there is room for
+    internal val capacity: Int
+        get() = store.capacity
+
+    override fun isEmpty(): Boolean = store.size == 0
+
+    override fun clear() {
+        store.clear()
+        hasLazyValues = false
+    }
+
+    /**
+     * Copies all of the mappings of the specified map to this map. Keys are stored as they are, without parsing them as key paths.
+     *
+     * @param from mappings to be stored in this map
+     */
+    override fun putAll(from: Map<out String, Any>) {
+        for ((key, value) in from) {
+            putRaw(key, value)
+        }
+    }
+
+    /**
+     * Returns a shallow copy of this map
+     */
+    public override fun clone(): Any = SimplifyMap(this)
+
     /**
      * Associates the specified value to the specified key path.
      *
@@ -106,34 +209,178 @@ class SimplifyMap : LinkedHashMap<String, Any> {
      * @throws IndexOutOfBoundsException if using an array index in the key path is out of bounds.
      */
     override fun put(key: String, value: Any): Any? {
-        val properties = key.split("\\.".toRegex())
+        return if (KeyPath.isPlain(key)) decoded(putRaw(key, value)) else put(KeyPath.of(key), value)
+    }
+
+    /**
+     * Associates the specified value to the specified key path.
+     *
+     * @param keyPath key path to which the specified value is to be associated.
+     * @param value   the value which is to be associated with the specified key path.
+     * @throws IllegalArgumentException  if part of the key path does not match the expected type.
+     * @throws IndexOutOfBoundsException if using an array index in the key path is out of bounds.
+     */
+    fun put(keyPath: KeyPath, value: Any): Any? {
         var destinationObject: MutableMap<String, Any> = this
 
-        if (properties.size > 1) {
-            for (i in 0 until properties.size - 1) {
-                val property = properties[i]
-                destinationObject = when {
-                    property.contains("[") -> getDestinationMap(property, destinationObject, i == properties.size - 1)
-                    else -> getPropertyMapFrom(property, destinationObject)
-                }
+        if (keyPath.size > 1) {
+            for (i in 0 until keyPath.size - 1) {
+                destinationObject = findOrAddMapIn(destinationObject, keyPath.segments[i])
             }
-        } else if (key.contains("[")) {
-            destinationObject = getDestinationMap(key, this, true)
+        } else if (keyPath.first.isArray) {
+            destinationObject = getDestinationMap(keyPath.first, this)
         }
 
+        return putIn(destinationObject, keyPath, value)
+    }
+
+    // stores the value under the last segment of the key path, in the map found for the segments before it
+    private fun putIn(destinationObject: MutableMap<String, Any>, keyPath: KeyPath, value: Any): Any? {
         // TODO: need to take care of the case where we are inserting a value into an array rather than
         // map ( eg map.put("a[2]", 123);
 
         return when {
-            destinationObject === this -> super.put(key, value!!)
+            destinationObject === this -> decoded(putRaw(keyPath.path, value))
             value is Map<*, *> -> {     // if putting a map, call put all
                 destinationObject.clear()
                 val m = SimplifyMap()
                 m.putAll(value as Map<out String, Any>)
-                destinationObject[properties[properties.size - 1]] = m
+                putInto(destinationObject, keyPath.last.raw, m)
                 destinationObject
             }
-            else -> destinationObject.put(properties[properties.size - 1], value!!)
+            else -> putInto(destinationObject, keyPath.last.raw, value)
+        }
+    }
+
+    /**
+     * Returns an immutable snapshot of this map and everything nested in it, safe to share between threads.
+     * <br>Nested snapshots are kept as they are, other maps and lists are copied.
+     * <br>The snapshot is kept by this map, and returned again until the map changes, so taking it repeatedly costs
+     * nothing. Changes to nested [SimplifyMap]s are detected as well. Nested lists and other maps may change without
+     * this map knowing, so a map holding them is copied every time.
+     *
+     * @return A snapshot of this map
+     */
+    fun snapshot(): SimplifyMapSnapshot {
+        lastSnapshot?.let { last ->
+            if (last.isCurrent(store.version)) {
+                return last.snapshot
+            }
+        }
+
+        // copying decodes lazy values, so the version is read afterwards
+        val snapshot = SimplifyMapSnapshot.copyOf(this)
+        val nested = ArrayList<SimplifyMap>()
+        for (slot in 0 until store.end) {
+            when (val value = store.valueAt(slot)) {
+                is SimplifyMap -> nested.add(value)
+                is SimplifyMapSnapshot, is SimplifyMapSnapshot.FrozenList -> {}
+                is Map<*, *>, is Collection<*> -> return snapshot
+            }
+        }
+
+        lastSnapshot = SnapshotOf(snapshot, store.version, nested, nested.map { it.snapshot() })
+        return snapshot
+    }
+
+    // stores the value under the key as is, without parsing it as a key path
+    internal fun putRaw(key: String, value: Any): Any? {
+        if (value is LazyJsonValue) {
+            hasLazyValues = true
+        }
+
+        return store.put(key, value)
+    }
+
+    // reads the value under the key as is, decoding it first if it is still lazy
+    private fun getRaw(key: String): Any? {
+        if (!hasLazyValues) {
+            return store.find(key).let { if (it == -1) null else store.valueAt(it) }
+        }
+
+        synchronized(this) {
+            val slot = store.find(key)
+            if (slot == -1) {
+                return null
+            }
+
+            val value = store.valueAt(slot)
+            return if (value is LazyJsonValue) value.decode().also { store.setValueAt(slot, it) } else value
+        }
+    }
+
+    // removes the value under the key as is
+    private fun removeRaw(key: String): Any? {
+        val slot = store.find(key)
+        return if (slot == -1) null else decoded(store.removeAt(slot))
+    }
+
+    private fun decoded(value: Any?): Any? = (value as? LazyJsonValue)?.decode() ?: value
+
+    // decodes every lazy value, before the map is read as a whole
+    private fun decodeAll() {
+        if (!hasLazyValues) {
+            return
+        }
+
+        synchronized(this) {
+            for (slot in 0 until store.end) {
+                (store.valueAt(slot) as? LazyJsonValue)?.let { store.setValueAt(slot, it.decode()) }
+            }
+
+            // cleared last, so that a reader seeing it cleared also sees every decoded value
+            hasLazyValues = false
+        }
+    }
+
+    override val entries: MutableSet<MutableMap.MutableEntry<String, Any>>
+        get() {
+            decodeAll()
+            return entrySet ?: EntrySet().also { entrySet = it }
+        }
+
+    override fun containsValue(value: Any): Boolean {
+        decodeAll()
+        for (slot in 0 until store.end) {
+            if (store.keyAt(slot) != null && store.valueAt(slot) == value) {
+                return true
+            }
+        }
+        return false
+    }
+
+    /**
+     * Returns this map in a compact binary form, smaller and faster to read than JSON, for storing or passing it
+     * around within an app. Keys are written once each, and numbers and booleans keep their types.
+     * <br>Values other than maps, lists, strings, numbers and booleans are written as their string form.
+     *
+     * @return The encoded map
+     * @see fromBytes
+     */
+    fun toBytes(): ByteArray = SimplifyMapCodec.encode(this)
+
+    override fun describeContents(): Int = 0
+
+    override fun writeToParcel(dest: Parcel, flags: Int) {
+        dest.writeByteArray(toBytes())
+    }
+
+    // serialized as its keys and values rather than its store, so the form stays stable as storage changes
+    private fun writeReplace(): Any {
+        decodeAll()
+        return SerializedForm(keys.toTypedArray(), values.toTypedArray())
+    }
+
+    private class SerializedForm(private val keys: Array<String>, private val values: Array<Any>) : Serializable {
+
+        private fun readResolve(): Any {
+            val map = SimplifyMap(keys.size)
+            keys.forEachIndexed { i, key -> map.putRaw(key, values[i]) }
+            return map
+        }
+
+        companion object {
+            private const val serialVersionUID = 1L
         }
     }
 
@@ -152,6 +399,153 @@ class SimplifyMap : LinkedHashMap<String, Any> {
         return this
     }
 
+    /**
+     * Associates the specified value to the specified key path and returns a reference to
+     * this map.
+     *
+     * @param keyPath key path to which the specified value is to be associated.
+     * @param value   the value which is to be associated with the specified key path.
+     * @return this map
+     * @throws IllegalArgumentException  if part of the key path does not match the expected type.
+     * @throws IndexOutOfBoundsException if using an array index in the key path is out of bounds.
+     */
+    fun set(keyPath: KeyPath, value: Any): SimplifyMap {
+        put(keyPath, value)
+        return this
+    }
+
+    /**
+     * Associates each value of the specified map to its key path, as if by calling [set] for each of them in turn,
+     * and returns a reference to this map.
+     * <br>Each key path reuses the nested maps found or added for the prefix it shares with the previous one, so
+     * listing key paths with a common prefix together walks it once. If an exception is thrown, some of the values
+     * may have been set.
+     *
+     * @param values the values to be associated, by key path
+     * @return this map
+     * @throws IllegalArgumentException  if part of a key path does not match the expected type.
+     * @throws IndexOutOfBoundsException if using an array index in a key path is out of bounds.
+     */
+    fun setAll(values: Map<String, Any>): SimplifyMap {
+        val writer = PathWriter(false)
+        for ((key, value) in values) {
+            writer.write(KeyPath.of(key), value)
+        }
+
+        return this
+    }
+
+    /**
+     * Returns a visitor storing each value it visits in this map at its key path, the reverse of [flatten].
+     * <br>Unlike [set], a value whose key path ends with an array index is stored in the list, at that index or at
+     * the end of the list for an empty or next index. Each key path reuses the nested maps found or added for the
+     * prefix it shares with the previous one, so the values of a flattened map are stored in a single pass.
+     *
+     * @return A visitor writing to this map
+     */
+    fun writer(): SimplifyMapVisitor = PathWriter(true)
+
+    /**
+     * Returns every value nested in this map by its key path, such as <code>card.secure3DData.acsUrl</code> or
+     * <code>fees[0].amount</code>, in depth first order.
+     * <br>Empty maps and lists are kept as values, as are lists holding lists or nulls, as their elements cannot be
+     * written with key paths. [unflatten] rebuilds the map.
+     *
+     * @return A new map of key paths to values
+     * @throws IllegalArgumentException if a key contains '.' or '[', and cannot be written in a key path
+     */
+    fun flatten(): MutableMap<String, Any> {
+        val flat = LinkedHashMap<String, Any>()
+        flatten(object : SimplifyMapVisitor {
+            override fun visit(keyPath: String, value: Any) {
+                flat[keyPath] = value
+            }
+        })
+        return flat
+    }
+
+    /**
+     * Visits every value nested in this map with its key path in depth first order, as [flatten] returns them,
+     * without copying them into a map first.
+     *
+     * @param visitor The visitor called for each value
+     * @throws IllegalArgumentException if a key contains '.' or '[', and cannot be written in a key path
+     */
+    fun flatten(visitor: SimplifyMapVisitor) {
+        flattenMap(this, StringBuilder(), visitor)
+    }
+
+    /**
+     * Returns the operations turning this map into the specified map, each at the key path of a value that differs,
+     * such as <code>card.address.city</code> or <code>fees[1].amount</code>. [applyPatch] applies them.
+     * <br>Maps are compared key by key and lists of the same size element by element, other lists being replaced as
+     * a whole. Maps and lists found in both are skipped without being compared. The values of the operations are
+     * those of the other map, not copies.
+     *
+     * @param other The map to compare with
+     * @return The operations, in depth first order
+     * @throws IllegalArgumentException if a key contains '.' or '[', and cannot be written in a key path
+     */
+    fun diff(other: Map<String, Any>): List<SimplifyMapOperation> = SimplifyMapDiff.diff(this, other)
+
+    /**
+     * Returns the values selected by the query, such as <code>data[*].id</code>, <code>card.*</code>,
+     * <code>..acsUrl</code> or <code>data[?card.type=='VISA'].id</code>, as a lazy sequence.
+     *
+     * @param query The query, parsed once and cached
+     * @return The selected values
+     * @throws IllegalArgumentException if the query is not valid
+     * @see SimplifyQuery
+     */
+    fun query(query: String): Sequence<Any> = SimplifyQuery.compile(query).select(this)
+
+    /**
+     * @see query
+     */
+    fun query(query: SimplifyQuery): Sequence<Any> = query.select(this)
+
+    /**
+     * Applies the operations to this map in order and returns a reference to this map.
+     * <br>Values are added or replaced as by [writer], so a key path ending with an array index replaces the element
+     * of the list at that index, and removing it removes the element. Missing maps along a key path are added, and
+     * removing a value that is not there does nothing. If an exception is thrown, some operations may have been
+     * applied.
+     * <br>Maps and lists added or replaced are copied, so this map shares nothing with the operations or the map they
+     * were taken from. Snapshots are kept as they are, as they cannot change.
+     *
+     * @param operations The operations to apply, as returned by [diff]
+     * @return this map
+     * @throws IllegalArgumentException  if part of a key path does not match the expected type.
+     * @throws IndexOutOfBoundsException if using an array index in a key path is out of bounds.
+     */
+    fun applyPatch(operations: List<SimplifyMapOperation>): SimplifyMap {
+        var writer = PathWriter(true)
+        for (operation in operations) {
+            val keyPath = KeyPath.of(operation.keyPath)
+            if (operation.type == SimplifyMapOperation.Type.REMOVE) {
+                removeFromPath(keyPath)
+                // the maps held by the writer may have been removed
+                writer = PathWriter(true)
+            } else {
+                writer.write(keyPath, copyOf(operation.value!!))
+            }
+        }
+
+        return this
+    }
+
+    // a deep copy of the maps and lists in the value
+    private fun copyOf(value: Any): Any = when (value) {
+        is SimplifyMapSnapshot, is SimplifyMapSnapshot.FrozenList -> value
+        is Map<*, *> -> SimplifyMap(value.size).also { copy ->
+            for ((k, v) in value) {
+                v?.let { copy.putRaw(k as String, copyOf(it)) }
+            }
+        }
+        is List<*> -> value.mapTo(ArrayList(value.size)) { it?.let(::copyOf) }
+        else -> value
+    }
+
     /**
      * Returns the value associated with the specified key path or null if there is no associated value.
      *
@@ -161,28 +555,76 @@ class SimplifyMap : LinkedHashMap<String, Any> {
      * @throws IndexOutOfBoundsException if using an array index in the key path is out of bounds.
      */
     override fun get(key: String): Any? {
-        val keys = key.split("\\.".toRegex())
-
-        if (keys.size <= 1) {
-            return arrayIndexPattern.find(keys[0])?.groupValues?.let { groups ->
-                val k = groups[1]
-                val o = super.get(k) as? List<*>
-                        ?: throw IllegalArgumentException("Property '$k' is not an array")
-                val l = o as List<Map<String, Any>>
+        return if (KeyPath.isPlain(key)) getRaw(key) else get(KeyPath.of(key))
+    }
 
-                //get last item if none specified
-                val index = if (groups[2].isNotEmpty()) {
-                    Integer.parseInt(groups[2])
-                } else l.size - 1
+    /**
+     * Returns the value associated with the specified key path or null if there is no associated value.
+     *
+     * @param keyPath key path whose associated value is to be returned
+     * @return the value to which the specified key is mapped
+     * @throws IllegalArgumentException  if part of the key path does not match the expected type.
+     * @throws IndexOutOfBoundsException if using an array index in the key path is out of bounds.
+     */
+    operator fun get(keyPath: KeyPath): Any? {
+        if (keyPath.size <= 1) {
+            val segment = keyPath.first
+            val k = segment.arrayName ?: return getRaw(segment.raw)
+            val l = getRaw(k) as? List<*>
+                    ?: throw IllegalArgumentException("Property '$k' is not an array")
 
-                return l[index]
-            } ?: super.get(keys[0])
+            //get last item if none specified
+            return l[segment.indexIn(l.size)]
         }
 
-        val map = findLastMapInKeyPath(key)     // handles keyPaths beyond 'root' keyPath. i.e. "x.y OR x.y[].z, etc."
+        val map = findLastMapInKeyPath(keyPath) ?: return null     // handles keyPaths beyond 'root' keyPath. i.e. "x.y OR x.y[].z, etc."
 
         // retrieve the value at the end of the object path i.e. x.y.z, this retrieves whatever is in 'z'
-        return map!!.get(keys[keys.size - 1])
+        return map[keyPath.last.raw]
+    }
+
+    /**
+     * Returns the values associated with the specified key paths, in the same order, with null for the key paths
+     * that have no associated value.
+     * <br>Each key path reuses the nested maps found for the prefix it shares with the previous one, so listing
+     * key paths with a common prefix together walks it once, rather than once per key path as with [get].
+     *
+     * @param keyPaths key paths whose associated values are to be returned
+     * @return the values to which the specified key paths are mapped
+     * @throws IllegalArgumentException  if part of a key path does not match the expected type.
+     * @throws IndexOutOfBoundsException if using an array index in a key path is out of bounds.
+     */
+    fun getAll(vararg keyPaths: String): Array<Any?> = getAll(*Array(keyPaths.size) { KeyPath.of(keyPaths[it]) })
+
+    /**
+     * @see getAll
+     */
+    fun getAll(vararg keyPaths: KeyPath): Array<Any?> {
+        val values = arrayOfNulls<Any>(keyPaths.size)
+
+        // the maps found for the segments of the previous key path, from this map down, or null past a missing one
+        val maps = arrayOfNulls<Map<String, Any>>(keyPaths.fold(1) { max, keyPath -> maxOf(max, keyPath.size) })
+        maps[0] = this
+        var previous: KeyPath? = null
+
+        for (i in keyPaths.indices) {
+            val keyPath = keyPaths[i]
+            if (keyPath.size <= 1) {
+                values[i] = get(keyPath)
+                continue
+            }
+
+            for (j in sharedPrefix(previous, keyPath, false) until keyPath.size - 1) {
+                maps[j + 1] = maps[j]?.let { findMapIn(it, keyPath.segments[j]) }
+            }
+            previous = keyPath
+
+            val map = maps[keyPath.size - 1] ?: continue
+            val last = keyPath.last
+            values[i] = if (last.isArray) map[last.raw] else getFrom(map, last.raw)
+        }
+
+        return values
     }
 
     /**
@@ -194,23 +636,30 @@ class SimplifyMap : LinkedHashMap<String, Any> {
      * @throws IndexOutOfBoundsException if using an array index in the key path is out of bounds.
      */
     override fun containsKey(key: String): Boolean {
-        val keys = key.split("\\.".toRegex())
-
-        if (keys.size <= 1) {
-            return arrayIndexPattern.find(keys[0])?.groupValues?.let { groups ->
-                val k = groups[1]
-                val o = super.get(k) as? MutableList<*>
-                        ?: throw IllegalArgumentException("Property '$k' is not an array")  // get the list from the map
-                val l = o as MutableList<MutableMap<String, Any>>  // get the list from the map
+        return if (KeyPath.isPlain(key)) store.find(key) != -1 else containsKey(KeyPath.of(key))
+    }
 
-                val index: Int = if (groups[2].isNotEmpty()) Integer.parseInt(groups[2]) else l.size - 1
+    /**
+     * Returns true if there is a value associated with the specified key path.
+     *
+     * @param keyPath key path whose associated value is to be tested
+     * @return true if this map contains an value associated with the specified key path
+     * @throws IllegalArgumentException  if part of the key path does not match the expected type.
+     * @throws IndexOutOfBoundsException if using an array index in the key path is out of bounds.
+     */
+    fun containsKey(keyPath: KeyPath): Boolean {
+        if (keyPath.size <= 1) {
+            val segment = keyPath.first
+            val k = segment.arrayName ?: return store.find(segment.raw) != -1
+            val l = getRaw(k) as? List<*>
+                    ?: throw IllegalArgumentException("Property '$k' is not an array")  // get the list from the map
 
-                index >= 0 && index < l.size
-            } ?: super.containsKey(keys[0])
+            val index = segment.indexIn(l.size)
+            return index >= 0 && index < l.size
         }
 
-        val map = findLastMapInKeyPath(key) ?: return false
-        return map.containsKey(keys[keys.size - 1])
+        val map = findLastMapInKeyPath(keyPath) ?: return false
+        return map.containsKey(keyPath.last.raw)
     }
 
     /**
@@ -221,80 +670,312 @@ class SimplifyMap : LinkedHashMap<String, Any> {
      * @throws IndexOutOfBoundsException if using an array index in the key path is out of bounds.
      */
     override fun remove(key: String): Any? {
-        val keys = key.split("\\.".toRegex())
+        return if (KeyPath.isPlain(key)) removeRaw(key) else remove(KeyPath.of(key))
+    }
+
+    /**
+     * Removes the value associated with the specified key path from the map.
+     *
+     * @param keyPath key path whose associated value is to be removed
+     * @throws IllegalArgumentException  if part of the key path does not match the expected type.
+     * @throws IndexOutOfBoundsException if using an array index in the key path is out of bounds.
+     */
+    fun remove(keyPath: KeyPath): Any? {
+        if (keyPath.size <= 1) {
+            val segment = keyPath.first
+            val k = segment.arrayName ?: return removeRaw(segment.raw)
+            val l = getRaw(k) as? MutableList<*>
+                    ?: throw IllegalArgumentException("Property '$k' is not an array")  // get the list from the map
+
+            return l.removeAt(segment.indexIn(l.size))
+        }
+
+        val map = findLastMapInKeyPath(keyPath) ?: return null
+        val mutableMap = map as? MutableMap<String, Any>
+                ?: throw UnsupportedOperationException("Property '${keyPath.segments[keyPath.size - 2].raw}' is read-only")
+
+        return mutableMap.remove(keyPath.last.raw)
+    }
+
+    /**
+     * Returns the number at the specified key path as a long, or the default value if there is none.
+     * <br>Numbers read lazily are parsed exactly, other numbers are converted. Numbers with a fractional part or out
+     * of range are not truncated, they fail as values of the wrong type do.
+     *
+     * @param keyPath      key path whose associated value is to be returned
+     * @param defaultValue the value returned when there is no associated value
+     * @throws IllegalArgumentException if the value is not a number, or part of the key path does not match the expected type.
+     */
+    @JvmOverloads
+    fun getLong(keyPath: String, defaultValue: Long = 0L): Long = typed(keyPath, get(keyPath), defaultValue, ::toLongExact)
+
+    /**
+     * @see getLong
+     */
+    @JvmOverloads
+    fun getLong(keyPath: KeyPath, defaultValue: Long = 0L): Long = typed(keyPath, get(keyPath), defaultValue, ::toLongExact)
+
+    /**
+     * Returns the number at the specified key path as an int, or the default value if there is none.
+     * <br>Numbers read lazily are parsed exactly, other numbers are converted. Numbers with a fractional part or out
+     * of range are not truncated, they fail as values of the wrong type do.
+     *
+     * @param keyPath      key path whose associated value is to be returned
+     * @param defaultValue the value returned when there is no associated value
+     * @throws IllegalArgumentException if the value is not a number, or part of the key path does not match the expected type.
+     */
+    @JvmOverloads
+    fun getInt(keyPath: String, defaultValue: Int = 0): Int = typed(keyPath, get(keyPath), defaultValue, ::toIntExact)
+
+    /**
+     * @see getInt
+     */
+    @JvmOverloads
+    fun getInt(keyPath: KeyPath, defaultValue: Int = 0): Int = typed(keyPath, get(keyPath), defaultValue, ::toIntExact)
+
+    /**
+     * Returns the number at the specified key path as a double, or the default value if there is none.
+     *
+     * @param keyPath      key path whose associated value is to be returned
+     * @param defaultValue the value returned when there is no associated value
+     * @throws IllegalArgumentException if the value is not a number, or part of the key path does not match the expected type.
+     */
+    @JvmOverloads
+    fun getDouble(keyPath: String, defaultValue: Double = 0.0): Double = typed(keyPath, get(keyPath), defaultValue) { (it as? Number)?.toDouble() }
+
+    /**
+     * @see getDouble
+     */
+    @JvmOverloads
+    fun getDouble(keyPath: KeyPath, defaultValue: Double = 0.0): Double = typed(keyPath, get(keyPath), defaultValue) { (it as? Number)?.toDouble() }
+
+    /**
+     * Returns the boolean at the specified key path, or the default value if there is none.
+     *
+     * @param keyPath      key path whose associated value is to be returned
+     * @param defaultValue the value returned when there is no associated value
+     * @throws IllegalArgumentException if the value is not a boolean, or part of the key path does not match the expected type.
+     */
+    @JvmOverloads
+    fun getBoolean(keyPath: String, defaultValue: Boolean = false): Boolean = typed(keyPath, get(keyPath), defaultValue) { it as? Boolean }
+
+    /**
+     * @see getBoolean
+     */
+    @JvmOverloads
+    fun getBoolean(keyPath: KeyPath, defaultValue: Boolean = false): Boolean = typed(keyPath, get(keyPath), defaultValue) { it as? Boolean }
+
+    /**
+     * Returns the string at the specified key path, or the default value if there is none.
+     *
+     * @param keyPath      key path whose associated value is to be returned
+     * @param defaultValue the value returned when there is no associated value
+     * @throws IllegalArgumentException if the value is not a string, or part of the key path does not match the expected type.
+     */
+    @JvmOverloads
+    fun getString(keyPath: String, defaultValue: String? = null): String? = typed(keyPath, get(keyPath), defaultValue) { it as? String }
+
+    /**
+     * @see getString
+     */
+    @JvmOverloads
+    fun getString(keyPath: KeyPath, defaultValue: String? = null): String? = typed(keyPath, get(keyPath), defaultValue) { it as? String }
+
+    /**
+     * Returns the number at the specified key path as a BigDecimal, or the default value if there is none.
+     * <br>Numbers read lazily are parsed exactly, doubles are converted from their shortest decimal form.
+     *
+     * @param keyPath      key path whose associated value is to be returned
+     * @param defaultValue the value returned when there is no associated value
+     * @throws IllegalArgumentException if the value is not a number, or part of the key path does not match the expected type.
+     */
+    @JvmOverloads
+    fun getBigDecimal(keyPath: String, defaultValue: BigDecimal? = null): BigDecimal? = typed(keyPath, get(keyPath), defaultValue, ::toBigDecimal)
 
-        if (keys.size <= 1) {
-            return arrayIndexPattern.find(keys[0])?.groupValues?.let { groups ->
-                val k = groups[1]
-                val o = super.get(k) as? MutableList<*>
-                        ?: throw IllegalArgumentException("Property '$k' is not an array")  // get the list from the map
-                val l = o as MutableList<MutableMap<String, Any>>  // get the list from the map
+    /**
+     * @see getBigDecimal
+     */
+    @JvmOverloads
+    fun getBigDecimal(keyPath: KeyPath, defaultValue: BigDecimal? = null): BigDecimal? = typed(keyPath, get(keyPath), defaultValue, ::toBigDecimal)
+
+    private inline fun <T> typed(keyPath: Any, value: Any?, defaultValue: T, convert: (Any) -> T?): T {
+        if (value == null) {
+            return defaultValue
+        }
 
-                val index: Int = if (groups[2].isNotEmpty()) Integer.parseInt(groups[2]) else l.size - 1
+        return convert(value) ?: throw IllegalArgumentException("Property '$keyPath' has an unexpected type: ${value.javaClass.simpleName}")
+    }
 
-                l.removeAt(index)
-            } ?: super.remove(keys[0])
+    // the exact value of an integral number, or null for other values
+    private fun toLongExact(value: Any): Long? = when (value) {
+        is Long, is Int, is Short, is Byte -> (value as Number).toLong()
+        is Double, is Float -> {
+            val d = (value as Number).toDouble()
+            // -2^63 is a long but 2^63 is not, and every double outside the range is integral
+            if (d == Math.rint(d) && d >= -9.223372036854776E18 && d < 9.223372036854776E18) d.toLong() else null
+        }
+        is BigInteger -> if (value.bitLength() < 64) value.toLong() else null
+        is Number -> try {
+            toBigDecimal(value)?.longValueExact()
+        } catch (e: ArithmeticException) {
+            null
+        } catch (e: NumberFormatException) {
+            null
         }
+        else -> null
+    }
 
-        val map = findLastMapInKeyPath(key)
+    private fun toIntExact(value: Any): Int? = toLongExact(value)?.takeIf { it >= Int.MIN_VALUE && it <= Int.MAX_VALUE }?.toInt()
 
-        return map!!.remove(keys[keys.size - 1])
+    private fun toBigDecimal(value: Any): BigDecimal? = when (value) {
+        is BigDecimal -> value
+        is LazyNumber -> value.toBigDecimal()
+        is BigInteger -> BigDecimal(value)
+        is Double, is Float -> BigDecimal.valueOf((value as Number).toDouble())
+        is Number -> BigDecimal.valueOf(value.toLong())
+        else -> null
     }
 
-    private fun findLastMapInKeyPath(keyPath: String): MutableMap<String, Any>? {
-        val keys = keyPath.split("\\.".toRegex())
+    // returns the map holding the last segment of the key path, or null if part of the path is missing
+    private fun findLastMapInKeyPath(keyPath: KeyPath): Map<String, Any>? {
+        var map: Map<String, Any> = this
 
-        var map: MutableMap<String, Any>? = null
+        for (i in 0..keyPath.size - 2) {
+            map = findMapIn(map, keyPath.segments[i]) ?: return null
+        }
 
-        for (i in 0..keys.size - 2) {
-            var thisKey = keys[i]
-            map = arrayIndexPattern.find(keys[i])?.groupValues?.let { groups ->
-                thisKey = groups[1]
+        return map
+    }
 
-                val o: Any? = (if (null == map) super.get(thisKey) else map!![thisKey]) as? List<*>
-                        ?: throw IllegalArgumentException("Property '$thisKey' is not an array")
+    // returns the map under the segment of the given map, or null if there is none
+    private fun findMapIn(map: Map<String, Any>, segment: KeyPath.Segment): Map<String, Any>? {
+        val k = segment.arrayName ?: segment.raw
+        val o = getFrom(map, k)
 
-                val l = o as MutableList<MutableMap<String, Any>>?
+        val next = if (segment.isArray) {
+            val l = o as? List<*> ?: throw IllegalArgumentException("Property '$k' is not an array")
 
-                var index: Int? = l!!.size - 1                                        //get last item if none specified
+            //get last item if none specified
+            l[segment.indexIn(l.size)]
+        } else {
+            o
+        } ?: return null
 
-                if ("" != groups[2]) {
-                    index = Integer.parseInt(groups[2])
-                }
+        return next as? Map<String, Any> ?: throw IllegalArgumentException("Property '${segment.raw}' is not a map")
+    }
 
-                l[index!!]
-            } ?: if (map == null) {
-                super.get(thisKey) as MutableMap<String, Any>?
-            } else {
-                map[thisKey] as MutableMap<String, Any>?
+    // visits the values of the map, with the key path of the map in the builder
+    private fun flattenMap(map: Map<String, Any>, path: StringBuilder, visitor: SimplifyMapVisitor) {
+        val length = path.length
+        for ((key, value) in map) {
+            if (!KeyPath.isKey(key)) {
+                throw IllegalArgumentException("Property '$key' cannot be written in a key path")
+            }
+
+            if (length > 0) {
+                path.append('.')
             }
+            flattenValue(value, path.append(key), visitor)
+            path.setLength(length)
         }
+    }
 
-        return map
+    private fun flattenValue(value: Any, path: StringBuilder, visitor: SimplifyMapVisitor) {
+        when {
+            value is Map<*, *> && value.isNotEmpty() -> flattenMap(value as Map<String, Any>, path, visitor)
+            value is List<*> && value.isNotEmpty() && value.all { it != null && it !is List<*> } -> {
+                val length = path.length
+                value.forEachIndexed { i, item ->
+                    flattenValue(item!!, path.append('[').append(i).append(']'), visitor)
+                    path.setLength(length)
+                }
+            }
+            value is Map<*, *> -> visitor.visit(path.toString(), SimplifyMap())
+            value is List<*> && value.isEmpty() -> visitor.visit(path.toString(), ArrayList<Any>())
+            else -> visitor.visit(path.toString(), value)
+        }
     }
 
-    private fun getDestinationMap(property: String, destinationObject: MutableMap<String, Any>, createMap: Boolean): MutableMap<String, Any> {
-        return arrayIndexPattern.find(property)?.groupValues?.let { groups ->
-            val propName = groups[1]
-            val index: Int? = if (groups[2].isNotEmpty()) {
-                Integer.parseInt(groups[2])
-            } else null
+    // removes the value at the key path, or the element of a list when the path ends with an array index
+    private fun removeFromPath(keyPath: KeyPath) {
+        if (keyPath.size <= 1) {
+            remove(keyPath)
+            return
+        }
+
+        val map = findLastMapInKeyPath(keyPath) ?: return
+        val mutableMap = map as? MutableMap<String, Any>
+                ?: throw UnsupportedOperationException("Property '${keyPath.segments[keyPath.size - 2].raw}' is read-only")
 
-            findOrAddToList(destinationObject, propName, index, createMap)
-        } ?: destinationObject
+        val segment = keyPath.last
+        val name = segment.arrayName
+        if (name == null) {
+            mutableMap.remove(segment.raw)
+            return
+        }
+
+        val list = getFrom(map, name) as? MutableList<*> ?: throw IllegalArgumentException("Property '$name' is not an array")
+
+        list.removeAt(segment.indexIn(list.size))
+    }
+
+    // stores the value in the list named by the segment, at its index or at the end of the list
+    private fun putIntoList(map: MutableMap<String, Any>, segment: KeyPath.Segment, value: Any) {
+        val name = segment.arrayName!!
+        val list = getFrom(map, name)?.let { it as? MutableList<Any> ?: throw IllegalArgumentException("Property '$name' is not an array") }
+                ?: ArrayList<Any>().also { putInto(map, name, it) }
+
+        val index = segment.explicitIndex ?: list.size
+        if (index == list.size) {
+            list.add(value)
+        } else {
+            list[index] = value
+        }
+    }
+
+    // returns the map under the segment of the given map, adding it if there is none
+    private fun findOrAddMapIn(map: MutableMap<String, Any>, segment: KeyPath.Segment): MutableMap<String, Any> = when {
+        segment.isArray -> getDestinationMap(segment, map)
+        else -> getPropertyMapFrom(segment.raw, map)
+    }
+
+    // the number of leading segments before the last one that both key paths share. When writing, segments adding
+    // a new array element each time are never shared
+    private fun sharedPrefix(previous: KeyPath?, keyPath: KeyPath, writing: Boolean): Int {
+        if (previous == null) {
+            return 0
+        }
+
+        val max = minOf(previous.size, keyPath.size) - 1
+        var shared = 0
+        while (shared < max) {
+            val segment = keyPath.segments[shared]
+            if (segment.raw != previous.segments[shared].raw || (writing && segment.isArray && segment.explicitIndex == null)) {
+                break
+            }
+            shared++
+        }
+        return shared
     }
 
-    private fun findOrAddToList(destinationObject: MutableMap<String, Any>, propName: String, index: Int?, createMap: Boolean): MutableMap<String, Any> {
+    private fun getDestinationMap(segment: KeyPath.Segment, destinationObject: MutableMap<String, Any>): MutableMap<String, Any> {
+        val propName = segment.arrayName ?: return destinationObject
+
+        return findOrAddToList(destinationObject, propName, segment.explicitIndex)
+    }
+
+    private fun findOrAddToList(destinationObject: MutableMap<String, Any>, propName: String, index: Int?): MutableMap<String, Any> {
         var destObject = destinationObject
 
         var list = ArrayList<MutableMap<String, Any>>()
         // find existing list or put the new list
-        if (destObject.containsKey(propName)) {
-            val o = destObject[propName] as? List<*>
+        val existing = getFrom(destObject, propName)
+        if (existing != null) {
+            val o = existing as? List<*>
                     ?: throw IllegalArgumentException("Property '$propName' is not an array")
             list = o as ArrayList<MutableMap<String, Any>>
         } else {
-            destObject[propName] = list
+            putInto(destObject, propName, list)
         }
 
         // get the existing object in the list at the index
@@ -305,7 +986,7 @@ class SimplifyMap : LinkedHashMap<String, Any> {
 
         // no object at the index, create a new map and add it
         if (null == propertyValue) {
-            propertyValue = java.util.LinkedHashMap()
+            propertyValue = SimplifyMap()
             if (null == index) {
                 list.add(propertyValue)
             } else {
@@ -321,16 +1002,135 @@ class SimplifyMap : LinkedHashMap<String, Any> {
 
     private fun getPropertyMapFrom(property: String, obj: MutableMap<String, Any>): MutableMap<String, Any> {
         // create a new map at the key specified if it doesn't already exist
-        if (!obj.containsKey(property)) {
-            val value = LinkedHashMap<String, Any>()
-            obj[property] = value
-        }
+        val o = getFrom(obj, property) ?: SimplifyMap().also { putInto(obj, property, it) }
 
-        val o = obj[property]
-        return if (o is Map<*, *>) {
+        return if (o is MutableMap<*, *>) {
             o as MutableMap<String, Any>
         } else {
             throw IllegalArgumentException("cannot change nested property to map")
         }
     }
-}
\ No newline at end of file
+
+    // reads a key of a nested map as is, without parsing it as a key path
+    private fun getFrom(map: Map<String, Any>, key: String): Any? = if (map is SimplifyMap) map.getRaw(key) else map[key]
+
+    // stores a value under a key of a nested map as is, without parsing it as a key path
+    private fun putInto(map: MutableMap<String, Any>, key: String, value: Any): Any? =
+            if (map is SimplifyMap) map.decoded(map.putRaw(key, value)) else map.put(key, value)
+
+    // writes key paths one after the other, reusing the maps found or added for the segments the previous key path
+    // shares with the next. Writing the value under a segment never replaces a map above it, so these stay valid
+    private inner class PathWriter(private val intoLists: Boolean) : SimplifyMapVisitor {
+
+        // the maps found or added for the segments of the previous key path, from this map down
+        private val maps = arrayListOf<MutableMap<String, Any>>(this@SimplifyMap)
+        private var previous: KeyPath? = null
+
+        override fun visit(keyPath: String, value: Any) = write(KeyPath.of(keyPath), value)
+
+        fun write(keyPath: KeyPath, value: Any) {
+            val previous = previous
+            this.previous = keyPath
+
+            if (!intoLists && keyPath.size <= 1) {
+                put(keyPath, value)
+                return
+            }
+
+            val shared = sharedPrefix(previous, keyPath, true)
+            while (maps.size > shared + 1) {
+                maps.removeAt(maps.size - 1)
+            }
+            for (j in shared until keyPath.size - 1) {
+                maps.add(findOrAddMapIn(maps[j], keyPath.segments[j]))
+            }
+
+            val destination = maps[keyPath.size - 1]
+            when {
+                !intoLists -> putIn(destination, keyPath, value)
+                keyPath.last.isArray -> putIntoList(destination, keyPath.last, value)
+                else -> putInto(destination, keyPath.last.raw, value)
+            }
+        }
+    }
+
+    // a snapshot of the map at the version of its store, along with the snapshots of the maps nested in it
+    private class SnapshotOf(
+            val snapshot: SimplifyMapSnapshot,
+            private val version: Int,
+            private val nested: List<SimplifyMap>,
+            private val nestedSnapshots: List<SimplifyMapSnapshot>
+    ) {
+
+        fun isCurrent(currentVersion: Int): Boolean =
+                version == currentVersion && nested.indices.all { nested[it].snapshot() === nestedSnapshots[it] }
+    }
+
+    private inner class EntrySet : AbstractMutableSet<MutableMap.MutableEntry<String, Any>>() {
+
+        override val size: Int
+            get() = store.size
+
+        override fun add(element: MutableMap.MutableEntry<String, Any>): Boolean = throw UnsupportedOperationException()
+
+        override fun clear() = this@SimplifyMap.clear()
+
+        override fun iterator(): MutableIterator<MutableMap.MutableEntry<String, Any>> = EntryIterator()
+    }
+
+    // walks the slots of the store in insertion order, skipping the empty ones
+    private inner class EntryIterator : MutableIterator<MutableMap.MutableEntry<String, Any>> {
+
+        private var expectedModCount = store.modCount
+        private var next = skipEmpty(0)
+        private var last = -1
+
+        override fun hasNext(): Boolean = next < store.end
+
+        override fun next(): MutableMap.MutableEntry<String, Any> {
+            checkForComodification()
+            if (next >= store.end) {
+                throw NoSuchElementException()
+            }
+
+            last = next
+            next = skipEmpty(next + 1)
+            return Entry(store.keyAt(last)!!, decoded(store.valueAt(last))!!)
+        }
+
+        override fun remove() {
+            check(last != -1)
+            checkForComodification()
+
+            store.removeAt(last)
+            expectedModCount = store.modCount
+            last = -1
+        }
+
+        private fun skipEmpty(from: Int): Int {
+            var slot = from
+            while (slot < store.end && store.keyAt(slot) == null) {
+                slot++
+            }
+            return slot
+        }
+
+        private fun checkForComodification() {
+            if (store.modCount != expectedModCount) {
+                throw ConcurrentModificationException()
+            }
+        }
+    }
+
+    // an entry whose value can be set through to the map
+    private inner class Entry(key: String, value: Any) : java.util.AbstractMap.SimpleEntry<String, Any>(key, value) {
+
+        override fun setValue(value: Any): Any {
+            val slot = store.find(key)
+            if (slot != -1) {
+                store.setValueAt(slot, value)
+            }
+            return super.setValue(value)
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package com.simplify.android.sdk
+
+import java.math.BigDecimal
+import java.math.BigInteger
+import java.util.ArrayList
+
+/**
+ * The compact binary form of a [SimplifyMap], used by [SimplifyMap.toBytes] and to write maps to parcels.
+ * <br>The bytes start with a version, followed by a table of every distinct key, then the map itself. Each value
+ * is a tag byte followed by its content: lengths, sizes and key numbers are unsigned varints, integers are zigzag
+ * varints, and doubles and floats are written as their IEEE 754 bits. Strings are UTF-8.
+ * <br>Nested maps decode to [SimplifyMap]s and lists to [ArrayList]s, with the same number types they were
+ * written with. Values of other types are written as their string form, as [SimplifyMap.normalize] would.
+ */
+internal object SimplifyMapCodec {
+
+    private const val VERSION = 1
+
+    private const val TAG_NULL = 0
+    private const val TAG_MAP = 1
+    private const val TAG_LIST = 2
+    private const val TAG_STRING = 3
+    private const val TAG_TRUE = 4
+    private const val TAG_FALSE = 5
+    private const val TAG_INT = 6
+    private const val TAG_LONG = 7
+    private const val TAG_DOUBLE = 8
+    private const val TAG_FLOAT = 9
+    private const val TAG_LAZY_NUMBER = 10
+    private const val TAG_BIG_DECIMAL = 11
+    private const val TAG_BIG_INTEGER = 12
+
+    fun encode(map: Map<String, Any>): ByteArray {
+        val keys = LinkedHashMap<String, Int>()
+        val body = Output(256)
+        writeMap(map, keys, body)
+
+        val out = Output(body.size + keys.size * 8 + 8)
+        out.varint(VERSION)
+        out.varint(keys.size)
+        keys.keys.forEach { out.string(it) }
+        out.bytes(body)
+
+        return out.toByteArray()
+    }
+
+    /**
+     * @throws IllegalArgumentException if the bytes are not a map written by [encode]
+     */
+    fun decode(bytes: ByteArray): SimplifyMap {
+        val input = Input(bytes)
+
+        return try {
+            val version = input.varint()
+            require(version == VERSION) { "Unsupported SimplifyMap encoding version $version" }
+
+            val keys = Array(input.size()) { input.string() }
+            val map = readMap(input, keys)
+            require(input.position == bytes.size) { "Unexpected bytes after the SimplifyMap" }
+
+            map
+        } catch (e: IndexOutOfBoundsException) {
+            throw IllegalArgumentException("Truncated SimplifyMap bytes", e)
+        }
+    }
+
+    private fun writeMap(map: Map<String, Any>, keys: MutableMap<String, Int>, out: Output) {
+        out.varint(map.size)
+        for ((key, value) in map) {
+            out.varint(keys[key] ?: keys.size.also { keys[key] = it })
+            writeValue(value, keys, out)
+        }
+    }
+
+    private fun writeValue(value: Any?, keys: MutableMap<String, Int>, out: Output) {
+        when (value) {
+            null -> out.byte(TAG_NULL)
+            is String -> {
+                out.byte(TAG_STRING)
+                out.string(value)
+            }
+            is Boolean -> out.byte(if (value) TAG_TRUE else TAG_FALSE)
+            is Int, is Short, is Byte -> {
+                out.byte(TAG_INT)
+                out.varint(zigzag((value as Number).toInt()))
+            }
+            is Long -> {
+                out.byte(TAG_LONG)
+                out.varlong((value shl 1) xor (value shr 63))
+            }
+            is Double -> {
+                out.byte(TAG_DOUBLE)
+                out.fixed64(java.lang.Double.doubleToRawLongBits(value))
+            }
+            is Float -> {
+                out.byte(TAG_FLOAT)
+                out.fixed32(java.lang.Float.floatToRawIntBits(value))
+            }
+            is LazyNumber -> {
+                out.byte(TAG_LAZY_NUMBER)
+                out.string(value.toString())
+            }
+            is BigDecimal -> {
+                out.byte(TAG_BIG_DECIMAL)
+                out.string(value.toString())
+            }
+            is BigInteger -> {
+                out.byte(TAG_BIG_INTEGER)
+                out.string(value.toString())
+            }
+            is Map<*, *> -> {
+                out.byte(TAG_MAP)
+                writeMap(value as Map<String, Any>, keys, out)
+            }
+            is List<*> -> {
+                out.byte(TAG_LIST)
+                out.varint(value.size)
+                value.forEach { writeValue(it, keys, out) }
+            }
+            else -> {
+                out.byte(TAG_STRING)
+                out.string(value.toString())
+            }
+        }
+    }
+
+    private fun readMap(input: Input, keys: Array<String>): SimplifyMap {
+        val size = input.size()
+        val map = SimplifyMap(size)
+
+        repeat(size) {
+            val number = input.varint()
+            val key = keys.getOrNull(number) ?: throw IllegalArgumentException("Unknown key number $number")
+            map.putRaw(key, readValue(input, keys) ?: throw IllegalArgumentException("Null value for key '$key'"))
+        }
+
+        return map
+    }
+
+    private fun readValue(input: Input, keys: Array<String>): Any? {
+        return when (val tag = input.byte()) {
+            TAG_NULL -> null
+            TAG_MAP -> readMap(input, keys)
+            TAG_LIST -> {
+                val size = input.size()
+                val list = ArrayList<Any?>(size)
+                repeat(size) { list.add(readValue(input, keys)) }
+                list
+            }
+            TAG_STRING -> input.string()
+            TAG_TRUE -> true
+            TAG_FALSE -> false
+            TAG_INT -> input.varint().let { (it ushr 1) xor -(it and 1) }
+            TAG_LONG -> input.varlong().let { (it ushr 1) xor -(it and 1) }
+            TAG_DOUBLE -> java.lang.Double.longBitsToDouble(input.fixed64())
+            TAG_FLOAT -> java.lang.Float.intBitsToFloat(input.fixed32())
+            TAG_LAZY_NUMBER -> LazyNumber(input.string())
+            TAG_BIG_DECIMAL -> BigDecimal(input.string())
+            TAG_BIG_INTEGER -> BigInteger(input.string())
+            else -> throw IllegalArgumentException("Unknown value tag $tag at offset ${input.position - 1}")
+        }
+    }
+
+    private fun zigzag(value: Int): Int = (value shl 1) xor (value shr 31)
+
+    // a growable byte array
+    private class Output(capacity: Int) {
+
+        private var buffer = ByteArray(capacity)
+
+        var size = 0
+            private set
+
+        fun byte(b: Int) {
+            ensure(1)
+            buffer[size++] = b.toByte()
+        }
+
+        fun varint(value: Int) = varlong(value.toLong() and 0xFFFFFFFFL)
+
+        fun varlong(value: Long) {
+            ensure(10)
+            var v = value
+            while (v and 0x7FL.inv() != 0L) {
+                buffer[size++] = ((v and 0x7F) or 0x80).toByte()
+                v = v ushr 7
+            }
+            buffer[size++] = v.toByte()
+        }
+
+        fun fixed32(value: Int) {
+            ensure(4)
+            for (shift in 0 until 32 step 8) {
+                buffer[size++] = (value ushr shift).toByte()
+            }
+        }
+
+        fun fixed64(value: Long) {
+            ensure(8)
+            for (shift in 0 until 64 step 8) {
+                buffer[size++] = (value ushr shift).toByte()
+            }
+        }
+
+        fun string(s: String) {
+            val bytes = s.toByteArray(Charsets.UTF_8)
+            varint(bytes.size)
+            ensure(bytes.size)
+            System.arraycopy(bytes, 0, buffer, size, bytes.size)
+            size += bytes.size
+        }
+
+        fun bytes(other: Output) {
+            ensure(other.size)
+            System.arraycopy(other.buffer, 0, buffer, size, other.size)
+            size += other.size
+        }
+
+        fun toByteArray(): ByteArray = if (size == buffer.size) buffer else buffer.copyOf(size)
+
+        private fun ensure(count: Int) {
+            if (size + count > buffer.size) {
+                buffer = buffer.copyOf(maxOf(size + count, buffer.size * 2))
+            }
+        }
+    }
+
+    // reads the bytes in order, failing with an IndexOutOfBoundsException past their end
+    private class Input(private val bytes: ByteArray) {
+
+        var position = 0
+            private set
+
+        fun byte(): Int = bytes[position++].toInt() and 0xFF
+
+        fun varint(): Int = varlong().toInt()
+
+        fun varlong(): Long {
+            var result = 0L
+            var shift = 0
+            while (shift < 64) {
+                val b = byte()
+                result = result or ((b and 0x7F).toLong() shl shift)
+                if (b and 0x80 == 0) {
+                    return result
+                }
+                shift += 7
+            }
+            throw IllegalArgumentException("Malformed varint at offset $position")
+        }
+
+        fun fixed32(): Int {
+            var result = 0
+            for (shift in 0 until 32 step 8) {
+                result = result or (byte() shl shift)
+            }
+            return result
+        }
+
+        fun fixed64(): Long {
+            var result = 0L
+            for (shift in 0 until 64 step 8) {
+                result = result or (byte().toLong() shl shift)
+            }
+            return result
+        }
+
+        // a count of items, each taking at least a byte, so a corrupt count cannot allocate more than the input
+        fun size(): Int {
+            val size = varint()
+            if (size < 0 || size > bytes.size - position) {
+                throw IllegalArgumentException("Malformed size $size at offset $position")
+            }
+            return size
+        }
+
+        fun string(): String {
+            val length = size()
+            val s = String(bytes, position, length, Charsets.UTF_8)
+            position += length
+            return s
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.simplify.android.sdk
+
+/**
+ * Lists the operations turning one tree of maps and lists into another. Backs [SimplifyMap.diff] and
+ * [SimplifyMapSnapshot.diff].
+ * <br>Maps are compared key by key, and lists of the same size element by element, as long as their elements can
+ * be written in key paths; other lists are replaced as a whole. A map or list found in both trees is skipped without
+ * being walked, so snapshots derived from one another only cost the branches they do not share, and snapshots
+ * compared as a whole are told apart by their cached hash codes.
+ */
+internal object SimplifyMapDiff {
+
+    /**
+     * @throws IllegalArgumentException if a key contains '.' or '[', and cannot be written in a key path
+     */
+    fun diff(from: Map<String, Any>, to: Map<String, Any>): List<SimplifyMapOperation> {
+        val operations = ArrayList<SimplifyMapOperation>()
+        diffMaps(from, to, StringBuilder(), operations)
+        return operations
+    }
+
+    private fun diffMaps(from: Map<String, Any>, to: Map<String, Any>, path: StringBuilder, operations: MutableList<SimplifyMapOperation>) {
+        if (from === to) {
+            return
+        }
+
+        val length = path.length
+        for ((key, value) in from) {
+            appendKey(path, key)
+            val other = to[key]
+            if (other == null) {
+                operations.add(SimplifyMapOperation(SimplifyMapOperation.Type.REMOVE, path.toString(), null))
+            } else {
+                diffValues(value, other, path, operations)
+            }
+            path.setLength(length)
+        }
+
+        for ((key, value) in to) {
+            if (!from.containsKey(key)) {
+                appendKey(path, key)
+                operations.add(SimplifyMapOperation(SimplifyMapOperation.Type.ADD, path.toString(), value))
+                path.setLength(length)
+            }
+        }
+    }
+
+    private fun diffValues(from: Any, to: Any, path: StringBuilder, operations: MutableList<SimplifyMapOperation>) {
+        when {
+            from === to -> return
+            from is Map<*, *> && to is Map<*, *> -> diffMaps(from as Map<String, Any>, to as Map<String, Any>, path, operations)
+            from is List<*> && to is List<*> && from.size == to.size && isIndexable(from) && isIndexable(to) -> {
+                val length = path.length
+                for (i in from.indices) {
+                    diffValues(from[i]!!, to[i]!!, path.append('[').append(i).append(']'), operations)
+                    path.setLength(length)
+                }
+            }
+            from != to -> operations.add(SimplifyMapOperation(SimplifyMapOperation.Type.REPLACE, path.toString(), to))
+        }
+    }
+
+    // the elements of the list can be written in key paths, as SimplifyMap.flatten writes them
+    private fun isIndexable(list: List<*>): Boolean = list.all { it != null && it !is List<*> }
+
+    private fun appendKey(path: StringBuilder, key: String) {
+        if (!KeyPath.isKey(key)) {
+            throw IllegalArgumentException("Property '$key' cannot be written in a key path")
+        }
+
+        if (path.isNotEmpty()) {
+            path.append('.')
+        }
+        path.append(key)
+    }
+}
@@ -0,0 +1,44 @@
+package com.simplify.android.sdk
+
+/**
+ * A change to one value of a [SimplifyMap], at a key path such as <code>card.address.city</code> or
+ * <code>fees[1].amount</code>. A list of operations is returned by [SimplifyMap.diff] and applied by
+ * [SimplifyMap.applyPatch].
+ *
+ * @param type    The kind of change
+ * @param keyPath The key path of the value changed
+ * @param value   The value added or replacing the previous one, or null to remove it
+ */
+class SimplifyMapOperation(val type: Type, val keyPath: String, val value: Any?) {
+
+    enum class Type {
+        /**
+         * A value is associated with a key path that had none
+         */
+        ADD,
+
+        /**
+         * The value associated with a key path is removed
+         */
+        REMOVE,
+
+        /**
+         * The value associated with a key path, or the element at an index of a list, is replaced
+         */
+        REPLACE
+    }
+
+    init {
+        require((type == Type.REMOVE) == (value == null)) { "A $type operation ${if (value == null) "needs" else "takes no"} value" }
+    }
+
+    override fun equals(other: Any?): Boolean {
+        return other is SimplifyMapOperation && other.type == type && other.keyPath == keyPath && other.value == value
+    }
+
+    override fun hashCode(): Int = (type.hashCode() * 31 + keyPath.hashCode()) * 31 + (value?.hashCode() ?: 0)
+
+    override fun toString(): String {
+        return "SimplifyMapOperation[type=$type, keyPath=$keyPath" + (if (value == null) "]" else ", value=$value]")
+    }
+}
@@ -0,0 +1,320 @@
+package com.simplify.android.sdk
+
+import java.util.ArrayList
+import java.util.Collections
+import java.util.LinkedHashSet
+import java.util.RandomAccess
+
+/**
+ *
+ * An immutable copy of a [SimplifyMap], safe to share between threads without copying it again.
+ * <br>Nested maps are snapshots and nested lists are immutable too. Values are read with the same key paths as a
+ * [SimplifyMap], and updates return a new snapshot sharing everything but the updated path with this one,
+ * so taking a snapshot of a snapshot, or of a map made of snapshots, costs nothing.
+ * <br>Keys keep their insertion order, as in a [SimplifyMap]: a key added by [with] comes last, and replacing the
+ * value of a key keeps its place. Snapshots compare equal to maps with the same mappings, and compute their hash
+ * code once.
+ *
+ * @param trie      The values by key, each in a [Slot] numbering the order it was added in
+ * @param nextOrder The number of the next key added
+ */
+class SimplifyMapSnapshot private constructor(private val trie: HashTrie, private val nextOrder: Int) : AbstractMap<String, Any>() {
+
+    companion object {
+
+        /**
+         * The empty snapshot
+         */
+        @JvmField
+        val EMPTY = SimplifyMapSnapshot(HashTrie.EMPTY, 0)
+
+        /**
+         * Returns an immutable snapshot of the map and everything nested in it.
+         * <br>Nested snapshots are kept as they are, other maps and lists are copied. The snapshot of a
+         * [SimplifyMap] is kept by the map, and taken again only once it has changed, see [SimplifyMap.snapshot].
+         *
+         * @param map The map to take a snapshot of
+         * @return A snapshot of the map
+         */
+        @JvmStatic
+        fun of(map: Map<String, Any>): SimplifyMapSnapshot = when (map) {
+            is SimplifyMapSnapshot -> map
+            is SimplifyMap -> map.snapshot()
+            else -> copyOf(map)
+        }
+
+        // copies the map, in its iteration order
+        internal fun copyOf(map: Map<String, Any>): SimplifyMapSnapshot {
+            var trie = HashTrie.EMPTY
+            var order = 0
+            for ((key, value) in map) {
+                trie = trie.put(key, Slot(order++, freeze(value)))
+            }
+
+            return SimplifyMapSnapshot(trie, order)
+        }
+
+        // the value under the name of the first segment of the key path, read from or updated in a snapshot holding
+        // only that value. Lets a map keep its top-level values apart, as ConcurrentSimplifyMap does
+        internal fun read(name: String, topValue: Any?, keyPath: KeyPath): Any? = holding(name, topValue)[keyPath]
+
+        internal fun write(name: String, topValue: Any?, keyPath: KeyPath, value: Any): Any? =
+                holding(name, topValue).with(keyPath, value).valueOf(name)
+
+        internal fun remove(name: String, topValue: Any?, keyPath: KeyPath): Any? =
+                holding(name, topValue).without(keyPath).valueOf(name)
+
+        private fun holding(name: String, topValue: Any?): SimplifyMapSnapshot =
+                if (topValue == null) EMPTY else SimplifyMapSnapshot(HashTrie.EMPTY.put(name, Slot(0, topValue)), 1)
+
+        internal fun freeze(value: Any): Any = when (value) {
+            is SimplifyMapSnapshot, is FrozenList -> value
+            is Map<*, *> -> of(value as Map<String, Any>)
+            is List<*> -> FrozenList(Array(value.size) { i -> value[i]?.let(::freeze) })
+            else -> value
+        }
+
+        private fun thaw(value: Any?): Any? = when (value) {
+            is SimplifyMapSnapshot -> value.toSimplifyMap()
+            is List<*> -> value.mapTo(ArrayList(value.size), ::thaw)
+            else -> value
+        }
+    }
+
+    override val size: Int
+        get() = trie.size
+
+    // computed on first use, as a snapshot cannot change. Zero until then
+    private var hash = 0
+
+    override val entries: Set<Map.Entry<String, Any>> by lazy {
+        val slots = arrayOfNulls<Map.Entry<String, Slot>>(trie.size)
+        var i = 0
+        trie.forEach { key, slot -> slots[i++] = java.util.AbstractMap.SimpleImmutableEntry(key, slot as Slot) }
+        slots.sortBy { it!!.value.order }
+
+        val set = LinkedHashSet<Map.Entry<String, Any>>(trie.size * 2)
+        slots.forEach { set.add(java.util.AbstractMap.SimpleImmutableEntry(it!!.key, it.value.value)) }
+        Collections.unmodifiableSet(set)
+    }
+
+    /**
+     * Returns the value associated with the specified key path or null if there is no associated value.
+     *
+     * @param key key path whose associated value is to be returned
+     * @return the value to which the specified key is mapped
+     * @throws IllegalArgumentException  if part of the key path does not match the expected type.
+     * @throws IndexOutOfBoundsException if using an array index in the key path is out of bounds.
+     */
+    override fun get(key: String): Any? {
+        return if (KeyPath.isPlain(key)) valueOf(key) else get(KeyPath.of(key))
+    }
+
+    /**
+     * @see get
+     */
+    operator fun get(keyPath: KeyPath): Any? {
+        var map = this
+
+        for (i in 0 until keyPath.size - 1) {
+            val next = read(map, keyPath.segments[i]) ?: return null
+            map = next as? SimplifyMapSnapshot ?: throw IllegalArgumentException("Property '${keyPath.segments[i].raw}' is not a map")
+        }
+
+        return read(map, keyPath.last)
+    }
+
+    /**
+     * Returns true if there is a value associated with the specified key path.
+     *
+     * @param key key path whose associated value is to be tested
+     * @throws IllegalArgumentException  if part of the key path does not match the expected type.
+     */
+    override fun containsKey(key: String): Boolean = get(key) != null
+
+    /**
+     * Returns a snapshot with the value associated to the specified key path, sharing everything else with this one.
+     * <br>Missing maps along the path are created. An array index in the path replaces the element at that index,
+     * or adds one to the end of the list for an empty or next index.
+     *
+     * @param keyPath key path to which the specified value is to be associated.
+     * @param value   the value which is to be associated with the specified key path. Maps and lists are copied into snapshots
+     * @return The updated snapshot
+     * @throws IllegalArgumentException  if part of the key path does not match the expected type.
+     * @throws IndexOutOfBoundsException if using an array index in the key path is out of bounds.
+     */
+    fun with(keyPath: String, value: Any): SimplifyMapSnapshot = with(KeyPath.of(keyPath), value)
+
+    /**
+     * @see with
+     */
+    fun with(keyPath: KeyPath, value: Any): SimplifyMapSnapshot = with(keyPath.segments, 0, freeze(value))
+
+    /**
+     * Returns a snapshot without the value associated to the specified key path, sharing everything else with this one.
+     *
+     * @param keyPath key path whose associated value is to be removed
+     * @return The updated snapshot, or this one if there was no such value
+     * @throws IllegalArgumentException  if part of the key path does not match the expected type.
+     * @throws IndexOutOfBoundsException if using an array index in the key path is out of bounds.
+     */
+    fun without(keyPath: String): SimplifyMapSnapshot = without(KeyPath.of(keyPath))
+
+    /**
+     * @see without
+     */
+    fun without(keyPath: KeyPath): SimplifyMapSnapshot = without(keyPath.segments, 0)
+
+    /**
+     * Returns the operations turning this snapshot into the specified map, as [SimplifyMap.diff] does.
+     * <br>Branches shared with the other map, such as those of a snapshot returned by [with] or [without], are
+     * skipped without being walked.
+     *
+     * @param other The map to compare with
+     * @return The operations, in depth first order
+     * @throws IllegalArgumentException if a key contains '.' or '[', and cannot be written in a key path
+     */
+    fun diff(other: Map<String, Any>): List<SimplifyMapOperation> = SimplifyMapDiff.diff(this, other)
+
+    override fun hashCode(): Int {
+        var h = hash
+        if (h == 0) {
+            h = super.hashCode()
+            hash = h
+        }
+        return h
+    }
+
+    // snapshots with different hashes are unequal without comparing their values
+    override fun equals(other: Any?): Boolean {
+        return other === this || !(other is SimplifyMapSnapshot && other.hashCode() != hashCode()) && super.equals(other)
+    }
+
+    /**
+     * Returns a mutable copy of this snapshot, with nested [SimplifyMap]s and lists
+     *
+     * @return A new map
+     */
+    fun toSimplifyMap(): SimplifyMap {
+        val map = SimplifyMap(size)
+        entries.forEach { (key, value) -> map.putRaw(key, thaw(value)!!) }
+        return map
+    }
+
+    private fun valueOf(key: String): Any? = (trie[key] as Slot?)?.value
+
+    // the trie with the value associated to the key, which keeps its place if it was already there
+    private fun put(key: String, value: Any): HashTrie {
+        val slot = trie[key] as Slot?
+        return when {
+            slot == null -> trie.put(key, Slot(nextOrder, value))
+            slot.value === value -> trie
+            else -> trie.put(key, Slot(slot.order, value))
+        }
+    }
+
+    // a snapshot of the updated trie, numbering the next key after any key the update added
+    private fun updated(updated: HashTrie): SimplifyMapSnapshot =
+            SimplifyMapSnapshot(updated, if (updated.size > trie.size) nextOrder + 1 else nextOrder)
+
+    private fun read(map: SimplifyMapSnapshot, segment: KeyPath.Segment): Any? {
+        val name = segment.arrayName ?: return map.valueOf(segment.raw)
+        val list = map.valueOf(name) as? List<*> ?: throw IllegalArgumentException("Property '$name' is not an array")
+
+        return list[segment.indexIn(list.size)]
+    }
+
+    private fun with(segments: Array<KeyPath.Segment>, from: Int, value: Any): SimplifyMapSnapshot {
+        val segment = segments[from]
+        val isLast = from == segments.size - 1
+
+        val name = segment.arrayName
+        if (name == null) {
+            val newValue = if (isLast) value else child(valueOf(segment.raw), segment.raw).with(segments, from + 1, value)
+            return updated(put(segment.raw, newValue))
+        }
+
+        val list = when (val current = valueOf(name)) {
+            null -> emptyList<Any?>()
+            is List<*> -> current
+            else -> throw IllegalArgumentException("Property '$name' is not an array")
+        }
+        val index = segment.explicitIndex ?: list.size
+        if (index < 0 || index > list.size) {
+            throw IndexOutOfBoundsException("Index $index is out of bounds for property '$name' of size ${list.size}")
+        }
+
+        val newElement = if (isLast) value else child(list.getOrNull(index), segment.raw).with(segments, from + 1, value)
+        val items = arrayOfNulls<Any>(if (index == list.size) list.size + 1 else list.size)
+        list.forEachIndexed { i, item -> items[i] = item }
+        items[index] = newElement
+
+        return updated(put(name, FrozenList(items)))
+    }
+
+    private fun without(segments: Array<KeyPath.Segment>, from: Int): SimplifyMapSnapshot {
+        val segment = segments[from]
+        val isLast = from == segments.size - 1
+
+        val name = segment.arrayName
+        if (name == null) {
+            if (isLast) {
+                val updated = trie.remove(segment.raw)
+                return if (updated === trie) this else SimplifyMapSnapshot(updated, nextOrder)
+            }
+
+            val current = valueOf(segment.raw) ?: return this
+            val updated = child(current, segment.raw).without(segments, from + 1)
+            return if (updated === current) this else SimplifyMapSnapshot(put(segment.raw, updated), nextOrder)
+        }
+
+        val list = valueOf(name) as? List<*> ?: throw IllegalArgumentException("Property '$name' is not an array")
+        val index = segment.indexIn(list.size)
+        val current = list[index]
+
+        val items: Array<Any?> = if (isLast) {
+            Array(list.size - 1) { i -> list[if (i < index) i else i + 1] }
+        } else {
+            val updated = child(current ?: return this, segment.raw).without(segments, from + 1)
+            if (updated === current) {
+                return this
+            }
+            Array(list.size) { i -> if (i == index) updated else list[i] }
+        }
+
+        return SimplifyMapSnapshot(put(name, FrozenList(items)), nextOrder)
+    }
+
+    private fun child(value: Any?, name: String): SimplifyMapSnapshot = when (value) {
+        null -> EMPTY
+        is SimplifyMapSnapshot -> value
+        else -> throw IllegalArgumentException("Property '$name' is not a map")
+    }
+
+    // a value in the trie, with the number of the order its key was added in
+    private class Slot(val order: Int, val value: Any)
+
+    // the immutable list nested in snapshots
+    internal class FrozenList(private val items: Array<Any?>) : AbstractList<Any?>(), RandomAccess {
+
+        override val size: Int
+            get() = items.size
+
+        private var hash = 0
+
+        override fun get(index: Int): Any? = items[index]
+
+        override fun hashCode(): Int {
+            var h = hash
+            if (h == 0) {
+                h = super.hashCode()
+                hash = h
+            }
+            return h
+        }
+
+        override fun equals(other: Any?): Boolean {
+            return other === this || !(other is FrozenList && other.hashCode() != hashCode()) && super.equals(other)
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.simplify.android.sdk
+
+import com.google.gson.TypeAdapter
+import com.google.gson.stream.JsonReader
+import com.google.gson.stream.JsonToken
+import com.google.gson.stream.JsonWriter
+import java.util.ArrayList
+
+/**
+ * A streaming Gson [TypeAdapter] for [SimplifyMap] trees, used in both directions without reflection.
+ * <br>Objects at every level are read as [SimplifyMap]s, arrays as [ArrayList]s and numbers as [Double]s,
+ * or [LazyNumber]s when reading numbers lazily. Object members with a null value are skipped. Keys and short
+ * strings are replaced by their copy in the string pool, when given one.
+ * <br>When writing, maps, lists, strings, numbers and booleans are written as such, and any other
+ * value as its string representation.
+ *
+ * @param lazyNumbers Whether numbers are read as [LazyNumber]s
+ * @param stringPool  The pool sharing the strings read, or null
+ */
+internal class SimplifyMapTypeAdapter(
+        private val lazyNumbers: Boolean,
+        private val stringPool: SimplifyStringPool? = null
+) : TypeAdapter<SimplifyMap>() {
+
+    companion object {
+        val DEFAULT = SimplifyMapTypeAdapter(false)
+        val LAZY_NUMBERS = SimplifyMapTypeAdapter(true)
+
+        fun of(lazyNumbers: Boolean, stringPool: SimplifyStringPool? = null): SimplifyMapTypeAdapter = when {
+            stringPool != null -> SimplifyMapTypeAdapter(lazyNumbers, stringPool)
+            lazyNumbers -> LAZY_NUMBERS
+            else -> DEFAULT
+        }
+    }
+
+    override fun write(out: JsonWriter, value: SimplifyMap?) {
+        writeValue(out, value)
+    }
+
+    override fun read(reader: JsonReader): SimplifyMap? {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull()
+            return null
+        }
+
+        return readObject(reader, SimplifyMap())
+    }
+
+    fun writeMap(out: JsonWriter, map: Map<*, *>) {
+        out.beginObject()
+        for ((key, value) in map) {
+            if (value != null) {
+                out.name(key.toString())
+                writeValue(out, value)
+            }
+        }
+        out.endObject()
+    }
+
+    fun readObject(reader: JsonReader, target: SimplifyMap): SimplifyMap {
+        reader.beginObject()
+        while (reader.hasNext()) {
+            val name = intern(reader.nextName())
+            readValue(reader)?.let { target.putRaw(name, it) }
+        }
+        reader.endObject()
+
+        return target
+    }
+
+    private fun writeValue(out: JsonWriter, value: Any?) {
+        when (value) {
+            null -> out.nullValue()
+            is Map<*, *> -> writeMap(out, value)
+            is Iterable<*> -> {
+                out.beginArray()
+                value.forEach { writeValue(out, it) }
+                out.endArray()
+            }
+            is String -> out.value(value)
+            is Boolean -> out.value(value)
+            is Number -> out.value(value)
+            else -> out.value(value.toString())
+        }
+    }
+
+    private fun readList(reader: JsonReader): ArrayList<Any?> {
+        val list = ArrayList<Any?>()
+
+        reader.beginArray()
+        while (reader.hasNext()) {
+            list.add(readValue(reader))
+        }
+        reader.endArray()
+
+        return list
+    }
+
+    fun readValue(reader: JsonReader): Any? {
+        return when (reader.peek()) {
+            JsonToken.BEGIN_OBJECT -> readObject(reader, SimplifyMap())
+            JsonToken.BEGIN_ARRAY -> readList(reader)
+            JsonToken.STRING -> intern(reader.nextString())
+            JsonToken.NUMBER -> if (lazyNumbers) LazyNumber(reader.nextString()) else reader.nextDouble()
+            JsonToken.BOOLEAN -> reader.nextBoolean()
+            JsonToken.NULL -> {
+                reader.nextNull()
+                null
+            }
+            else -> throw IllegalStateException("Unexpected JSON token: ${reader.peek()}")
+        }
+    }
+
+    private fun intern(s: String): String = stringPool?.intern(s) ?: s
+}
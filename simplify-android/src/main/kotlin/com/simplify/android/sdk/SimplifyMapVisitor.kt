@@ -0,0 +1,19 @@
+package com.simplify.android.sdk
+
+/**
+ * Receives the values of a [SimplifyMap] one at a time, each with the key path it is found at,
+ * such as <code>card.secure3DData.acsUrl</code> or <code>fees[0].amount</code>.
+ *
+ * @see SimplifyMap.flatten
+ * @see SimplifyMap.writer
+ */
+interface SimplifyMapVisitor {
+
+    /**
+     * Called for each value
+     *
+     * @param keyPath The key path of the value
+     * @param value   The value
+     */
+    fun visit(keyPath: String, value: Any)
+}
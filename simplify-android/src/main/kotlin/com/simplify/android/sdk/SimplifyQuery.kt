@@ -0,0 +1,318 @@
+package com.simplify.android.sdk
+
+import java.math.BigDecimal
+import java.util.ArrayList
+
+/**
+ *
+ * A query selecting values from a tree of maps and lists, written like a key path with wildcards, recursive descent
+ * and filters, parsed once and reusable.
+ * <br>A query is made of steps separated by dots:
+ * <ul>
+ * <li><code>name</code> selects the value under the key, and <code>*</code> every value of a map or list</li>
+ * <li><code>name[2]</code> selects an element of a list, <code>name[]</code> its last element and
+ * <code>name[*]</code> all of them</li>
+ * <li><code>name[?key==value]</code> selects the elements of a list whose value at the dotted key equals the
+ * value, a quoted string, a number or a boolean, and <code>!=</code> those that differ. Elements with no value at
+ * the key are selected by neither. Applied to a map, it selects the map itself if it matches</li>
+ * <li>a step after two dots, such as <code>..id</code>, selects matching values at any depth below</li>
+ * </ul>
+ * Missing values and values of the wrong type select nothing, rather than failing as [SimplifyMap.get] does.
+ * <br>Instances are immutable and cached, like [KeyPath]s.
+ *
+ * Example:
+ * <pre>
+ * SimplifyQuery ids = SimplifyQuery.compile("data[?card.type=='VISA'].id");
+ * for (Object id : SequencesKt.asIterable(ids.select(response))) { ... }
+ * </pre>
+ */
+class SimplifyQuery private constructor(val query: String) {
+
+    private val steps: Array<Step> = Parser(query).parse()
+
+    /**
+     * Returns the values selected in the map, in depth first order. The sequence is lazy: the map is walked as
+     * values are taken from it, so taking the first few values of a large list only reads those, and changes made
+     * to the map before that are seen. A map containing itself gives an endless sequence under recursive descent.
+     *
+     * @param map The map to select values from
+     * @return The selected values
+     */
+    fun select(map: Map<String, Any>): Sequence<Any> {
+        var values = sequenceOf<Any>(map)
+        for (step in steps) {
+            values = values.flatMap { step.select(it) }
+        }
+        return values
+    }
+
+    override fun equals(other: Any?): Boolean = other is SimplifyQuery && other.query == query
+
+    override fun hashCode(): Int = query.hashCode()
+
+    override fun toString(): String = query
+
+    companion object {
+
+        /**
+         * The maximum number of parsed queries kept in the cache
+         */
+        const val CACHE_SIZE = 64
+
+        private val cache = object : LinkedHashMap<String, SimplifyQuery>(CACHE_SIZE, 0.75f, true) {
+            override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, SimplifyQuery>?): Boolean = size > CACHE_SIZE
+        }
+
+        /**
+         * Returns the parsed query for the given string, from the cache when possible
+         *
+         * @param query The query
+         * @return The parsed query
+         * @throws IllegalArgumentException if the query is not valid
+         */
+        @JvmStatic
+        fun compile(query: String): SimplifyQuery {
+            synchronized(cache) {
+                cache[query]?.let { return it }
+            }
+
+            // parse outside the lock, a race only costs a duplicate parse
+            val compiled = SimplifyQuery(query)
+
+            synchronized(cache) {
+                cache[query] = compiled
+            }
+
+            return compiled
+        }
+
+        // every map and list nested in the value, the value included, in depth first order, walked without recursion
+        private fun descendants(value: Any): Sequence<Any> = sequence {
+            val stack = ArrayList<Iterator<Any?>>()
+            yield(value)
+            children(value)?.let { stack.add(it) }
+
+            while (stack.isNotEmpty()) {
+                val iterator = stack[stack.size - 1]
+                if (!iterator.hasNext()) {
+                    stack.removeAt(stack.size - 1)
+                    continue
+                }
+
+                val child = iterator.next() ?: continue
+                children(child)?.let {
+                    yield(child)
+                    stack.add(it)
+                }
+            }
+        }
+
+        private fun children(value: Any): Iterator<Any?>? = when (value) {
+            is Map<*, *> -> value.values.iterator()
+            is List<*> -> value.iterator()
+            else -> null
+        }
+    }
+
+    // selects values from one value
+    private abstract class Step {
+        abstract fun select(value: Any): Sequence<Any>
+    }
+
+    private class Key(private val name: String) : Step() {
+        override fun select(value: Any): Sequence<Any> {
+            val child = (value as? Map<*, *>)?.get(name) ?: return emptySequence()
+            return sequenceOf(child)
+        }
+    }
+
+    private class Wildcard : Step() {
+        override fun select(value: Any): Sequence<Any> = when (value) {
+            is Map<*, *> -> value.values.asSequence().filterNotNull()
+            is List<*> -> value.asSequence().filterNotNull()
+            else -> emptySequence()
+        }
+    }
+
+    // an element by index, or the last one for a null index
+    private class Index(private val index: Int?) : Step() {
+        override fun select(value: Any): Sequence<Any> {
+            val list = value as? List<*> ?: return emptySequence()
+            val element = list.getOrNull(index ?: list.size - 1) ?: return emptySequence()
+            return sequenceOf(element)
+        }
+    }
+
+    private class Filter(private val keys: List<String>, private val expected: Any, private val equal: Boolean) : Step() {
+
+        override fun select(value: Any): Sequence<Any> = when (value) {
+            is List<*> -> value.asSequence().filterNotNull().filter { matches(it) }
+            is Map<*, *> -> if (matches(value)) sequenceOf(value) else emptySequence()
+            else -> emptySequence()
+        }
+
+        private fun matches(element: Any): Boolean {
+            var actual: Any? = element
+            for (key in keys) {
+                actual = (actual as? Map<*, *>)?.get(key) ?: return false
+            }
+            return isEqual(actual!!) == equal
+        }
+
+        // numbers are equal when they have the same value, whatever their type
+        private fun isEqual(actual: Any): Boolean {
+            if (expected !is BigDecimal) {
+                return expected == actual
+            }
+            if (actual !is Number) {
+                return false
+            }
+
+            return try {
+                BigDecimal(actual.toString()).compareTo(expected) == 0
+            } catch (e: NumberFormatException) {
+                false
+            }
+        }
+    }
+
+    private class Descent(private val step: Step) : Step() {
+        override fun select(value: Any): Sequence<Any> = descendants(value).flatMap { step.select(it) }
+    }
+
+    // reads the query in a single pass
+    private class Parser(private val query: String) {
+
+        private var position = 0
+
+        fun parse(): Array<Step> {
+            val steps = ArrayList<Step>()
+
+            do {
+                val descent = query.startsWith("..", position)
+                if (descent) {
+                    position += 2
+                } else if (position > 0) {
+                    position++
+                }
+
+                val name = name()
+                val step = if (name == "*") Wildcard() else Key(name)
+                steps.add(if (descent) Descent(step) else step)
+
+                while (position < query.length && query[position] == '[') {
+                    steps.add(bracket())
+                }
+
+                if (position < query.length && query[position] != '.') {
+                    throw error("Expected '.' or '['")
+                }
+            } while (position < query.length)
+
+            return steps.toTypedArray()
+        }
+
+        private fun name(): String {
+            val start = position
+            while (position < query.length && query[position] != '.' && query[position] != '[') {
+                position++
+            }
+
+            if (position == start) {
+                throw error("Expected a key")
+            }
+            return query.substring(start, position)
+        }
+
+        // a step in brackets, from the opening bracket to the closing one
+        private fun bracket(): Step {
+            position++
+            if (query.startsWith("?", position)) {
+                position++
+                return filter()
+            }
+
+            val end = query.indexOf(']', position)
+            if (end < 0) {
+                throw error("Expected ']'")
+            }
+
+            val text = query.substring(position, end)
+            val step = when (text) {
+                "*" -> Wildcard()
+                "" -> Index(null)
+                else -> Index(text.toIntOrNull()?.takeIf { it >= 0 } ?: throw error("Invalid index '$text'"))
+            }
+
+            position = end + 1
+            return step
+        }
+
+        private fun filter(): Step {
+            val start = position
+            while (position < query.length && !query.startsWith("==", position) && !query.startsWith("!=", position)) {
+                position++
+            }
+            if (position == query.length) {
+                throw error("Expected '==' or '!='")
+            }
+
+            val keys = query.substring(start, position).trim().split('.')
+            if (keys.any { it.isEmpty() }) {
+                throw error("Invalid filter key '${query.substring(start, position)}'")
+            }
+
+            val equal = query[position] == '='
+            position += 2
+
+            val value = literal()
+            if (!query.startsWith("]", position)) {
+                throw error("Expected ']'")
+            }
+            position++
+
+            return Filter(keys, value, equal)
+        }
+
+        // a quoted string, with backslashes escaping the next character, or a boolean or number
+        private fun literal(): Any {
+            while (query.startsWith(" ", position)) {
+                position++
+            }
+
+            val quote = query.getOrNull(position)
+            if (quote == '\'' || quote == '"') {
+                val s = StringBuilder()
+                position++
+                while (position < query.length && query[position] != quote) {
+                    if (query[position] == '\\') {
+                        position++
+                    }
+                    query.getOrNull(position)?.let { s.append(it) }
+                    position++
+                }
+                if (position >= query.length) {
+                    throw error("Unterminated string")
+                }
+                position++
+                return s.toString()
+            }
+
+            val end = query.indexOf(']', position)
+            val text = query.substring(position, if (end < 0) query.length else end).trim()
+            position = if (end < 0) query.length else end
+
+            return when (text) {
+                "true" -> true
+                "false" -> false
+                else -> try {
+                    BigDecimal(text)
+                } catch (e: NumberFormatException) {
+                    throw error("Invalid value '$text'")
+                }
+            }
+        }
+
+        private fun error(message: String) = IllegalArgumentException("$message at position $position of query '$query'")
+    }
+}
@@ -1,9 +1,90 @@
 package com.simplify.android.sdk
 
-internal class SimplifyRequest(val url: String, val method: Method, val payload: SimplifyMap, val headers: MutableMap<String, String> = mutableMapOf()) {
+import java.io.OutputStream
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
 
-    // internally supported request methods
-    internal enum class Method {
+/**
+ * A request to the Simplify API, as handed to a [SimplifyTransport]
+ */
+class SimplifyRequest internal constructor(val url: String, val method: Method, val payload: SimplifyMap, val headers: MutableMap<String, String> = mutableMapOf()) {
+
+    // receives a copy of the body as it is written, when logging
+    internal var bodyCopy: OutputStream? = null
+
+    private var cancelled = false
+    private var cancelAction: Runnable? = null
+
+    // released on cancel, waking up a wait between attempts
+    private val cancelLatch = CountDownLatch(1)
+
+    /**
+     * How long to wait for a connection to be established, in milliseconds
+     */
+    var connectTimeoutMillis: Int = SimplifyComms.CONNECTION_TIMEOUT
+
+    /**
+     * How long to wait for data once connected, in milliseconds
+     */
+    var readTimeoutMillis: Int = SimplifyComms.READ_TIMEOUT
+
+    /**
+     * True once the request has been cancelled
+     */
+    val isCancelled: Boolean
+        @Synchronized get() = cancelled
+
+    /**
+     * Cancels the request, running the cancel action if one is set
+     */
+    @Synchronized
+    fun cancel() {
+        if (!cancelled) {
+            cancelled = true
+            cancelLatch.countDown()
+            cancelAction?.run()
+        }
+    }
+
+    /**
+     * Waits until the request is cancelled, or the time has passed
+     *
+     * @return true if the request was cancelled
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    internal fun awaitCancel(timeoutMillis: Long): Boolean = cancelLatch.await(timeoutMillis, TimeUnit.MILLISECONDS)
+
+    /**
+     * Sets the action that aborts the request in flight, such as closing its connection.
+     * <br>Transports set it while the request is running, and clear it once done. Runs at once if the request is already cancelled.
+     *
+     * @param action The action to run on cancel, or null to clear it
+     */
+    @Synchronized
+    fun setCancelAction(action: Runnable?) {
+        cancelAction = action
+        if (cancelled) {
+            action?.run()
+        }
+    }
+
+    /**
+     * The length of the body in bytes, found by serializing the payload without keeping the data
+     */
+    val contentLength: Long
+        get() = CountingOutputStream().also { SimplifyJson.writeMap(payload, it) }.count
+
+    /**
+     * Writes the payload to the output stream as UTF-8 encoded JSON. The stream is flushed but not closed.
+     *
+     * @param os The stream to write to
+     */
+    fun writeBody(os: OutputStream) {
+        SimplifyJson.writeMap(payload, bodyCopy?.let { TeeOutputStream(os, it) } ?: os)
+    }
+
+    // supported request methods
+    enum class Method {
         POST
     }
-}
\ No newline at end of file
+}
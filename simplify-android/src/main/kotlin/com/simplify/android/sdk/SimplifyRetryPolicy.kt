@@ -0,0 +1,116 @@
+package com.simplify.android.sdk
+
+import java.io.EOFException
+import java.net.SocketException
+import java.net.SocketTimeoutException
+import java.net.UnknownHostException
+import java.util.*
+import javax.net.ssl.SSLException
+
+/**
+ *
+ * Decides whether a failed request to the Simplify API is sent again, and how long to wait first.
+ * <br>Delays use decorrelated jitter: each delay is picked at random between the base delay and three times
+ * the previous delay, capped at the maximum delay, so that clients failing together do not retry together.
+ * No retry is attempted once it would end after the deadline, measured from the start of the first attempt, and
+ * the connect and read timeouts of each attempt are shortened to the time left before it.
+ *
+ * @param maxAttempts          The maximum number of attempts, including the first
+ * @param baseDelayMillis      The shortest delay before a retry
+ * @param maxDelayMillis       The longest delay before a retry
+ * @param deadlineMillis       The time allowed across all attempts
+ * @param retryableStatusCodes The HTTP status codes worth retrying
+ */
+open class SimplifyRetryPolicy @JvmOverloads constructor(
+        val maxAttempts: Int = DEFAULT_MAX_ATTEMPTS,
+        val baseDelayMillis: Long = DEFAULT_BASE_DELAY_MILLIS,
+        val maxDelayMillis: Long = DEFAULT_MAX_DELAY_MILLIS,
+        val deadlineMillis: Long = DEFAULT_DEADLINE_MILLIS,
+        val retryableStatusCodes: Set<Int> = DEFAULT_RETRYABLE_STATUS_CODES
+) {
+
+    init {
+        if (maxAttempts < 1) {
+            throw IllegalArgumentException("Invalid max attempts: $maxAttempts")
+        }
+        if (baseDelayMillis < 0 || maxDelayMillis < baseDelayMillis) {
+            throw IllegalArgumentException("Invalid delays: $baseDelayMillis..$maxDelayMillis")
+        }
+    }
+
+    /**
+     * Returns true if a request that failed with the given error may succeed when sent again
+     *
+     * @param error The error thrown by the request
+     */
+    open fun isRetryable(error: Throwable): Boolean = when (error) {
+        is SimplifyException -> error.statusCode in retryableStatusCodes
+        // certificate and protocol failures will fail the same way again
+        is SSLException -> false
+        // timeouts, refused or reset connections, failed lookups and stale kept alive connections
+        is SocketTimeoutException, is SocketException, is UnknownHostException, is EOFException -> true
+        else -> false
+    }
+
+    /**
+     * Returns the delay before the next retry
+     *
+     * @param previousDelayMillis The delay before the previous retry, or the base delay before the first one
+     * @param random              The source of jitter
+     */
+    open fun nextDelayMillis(previousDelayMillis: Long, random: Random): Long {
+        val upper = maxOf(baseDelayMillis, previousDelayMillis * 3)
+        val delay = baseDelayMillis + (random.nextDouble() * (upper - baseDelayMillis)).toLong()
+        return minOf(maxDelayMillis, delay)
+    }
+
+    /**
+     * The timing and outcome of a single attempt
+     *
+     * @param number           The attempt number, starting at 1
+     * @param durationMillis   How long the attempt took
+     * @param error            The error thrown by the attempt, or null if it succeeded
+     * @param retryDelayMillis The delay before the next attempt, or -1 if there is none
+     */
+    class Attempt internal constructor(val number: Int, val durationMillis: Long, val error: Throwable?, val retryDelayMillis: Long) {
+
+        /**
+         * True if the request will be sent again
+         */
+        val willRetry: Boolean
+            get() = retryDelayMillis >= 0
+
+        override fun toString(): String {
+            return "Attempt[number=$number, durationMillis=$durationMillis, error=$error, retryDelayMillis=$retryDelayMillis]"
+        }
+    }
+
+    /**
+     * Receives every attempt made by a request, on the thread running the request
+     */
+    interface Listener {
+
+        /**
+         * Called once an attempt has completed
+         *
+         * @param attempt The timing and outcome of the attempt
+         */
+        fun onAttempt(attempt: Attempt)
+    }
+
+    companion object {
+        const val DEFAULT_MAX_ATTEMPTS = 3
+        const val DEFAULT_BASE_DELAY_MILLIS = 250L
+        const val DEFAULT_MAX_DELAY_MILLIS = 4000L
+        const val DEFAULT_DEADLINE_MILLIS = 30000L
+
+        @JvmField
+        val DEFAULT_RETRYABLE_STATUS_CODES = setOf(408, 429, 500, 502, 503, 504)
+
+        /**
+         * A policy that never retries, leaving the request timeouts as they are
+         */
+        @JvmField
+        val NONE = SimplifyRetryPolicy(maxAttempts = 1, deadlineMillis = Long.MAX_VALUE)
+    }
+}
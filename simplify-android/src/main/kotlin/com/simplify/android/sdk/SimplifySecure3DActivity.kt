@@ -7,6 +7,7 @@ import android.content.Intent
 import android.net.Uri
 import android.os.Build
 import android.os.Bundle
+import android.os.Parcelable
 import androidx.appcompat.app.AppCompatActivity
 import androidx.appcompat.widget.Toolbar
 import android.webkit.WebChromeClient
@@ -72,8 +73,19 @@ class SimplifySecure3DActivity : AppCompatActivity() {
     }
 
     private fun complete(uri: Uri) {
+        val result = getResultFromUri(uri)
+
+        // also hand the result back parsed, so it is not parsed again from JSON. A result that cannot be parsed
+        // is only passed on as a string, for Simplify.handle3DSResult to report
+        val resultMap = try {
+            result?.let { SimplifyMap(it) }
+        } catch (e: Exception) {
+            null
+        }
+
         val intent = Intent().apply {
-            putExtra(EXTRA_RESULT, getResultFromUri(uri))
+            putExtra(EXTRA_RESULT, result)
+            resultMap?.let { putExtra(EXTRA_RESULT_MAP, it as Parcelable) }
         }
 
         setResult(Activity.RESULT_OK, intent)
@@ -150,10 +162,15 @@ class SimplifySecure3DActivity : AppCompatActivity() {
         const val EXTRA_TITLE = "com.simplify.android.sdk.TITLE"
 
         /**
-         * The result data after performing 3DS
+         * The result data after performing 3DS, as a JSON string
          */
         const val EXTRA_RESULT = "com.simplify.android.sdk.RESULT"
 
+        /**
+         * The result data after performing 3DS, as a [SimplifyMap]. Missing if it could not be parsed
+         */
+        const val EXTRA_RESULT_MAP = "com.simplify.android.sdk.RESULT_MAP"
+
 
         private const val REDIRECT_SCHEME = "simplifysdk"
         private const val REDIRECT_QUERY_PARAM = "result"
@@ -179,10 +196,10 @@ class SimplifySecure3DActivity : AppCompatActivity() {
             }
 
             return Intent(context, SimplifySecure3DActivity::class.java).apply {
-                putExtra(EXTRA_ACS_URL, cardToken["card.secure3DData.acsUrl"] as String?)
-                putExtra(EXTRA_PA_REQ, cardToken["card.secure3DData.paReq"] as String?)
-                putExtra(EXTRA_MERCHANT_DATA, cardToken["card.secure3DData.md"] as String?)
-                putExtra(EXTRA_TERM_URL, cardToken["card.secure3DData.termUrl"] as String?)
+                putExtra(EXTRA_ACS_URL, cardToken.getString("card.secure3DData.acsUrl"))
+                putExtra(EXTRA_PA_REQ, cardToken.getString("card.secure3DData.paReq"))
+                putExtra(EXTRA_MERCHANT_DATA, cardToken.getString("card.secure3DData.md"))
+                putExtra(EXTRA_TERM_URL, cardToken.getString("card.secure3DData.termUrl"))
                 putExtra(EXTRA_TITLE, title)
             }
         }
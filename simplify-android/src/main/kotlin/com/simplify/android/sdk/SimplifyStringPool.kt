@@ -0,0 +1,119 @@
+package com.simplify.android.sdk
+
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ *
+ * Shares one copy of the keys and short string values found in decoded responses, such as <code>id</code>,
+ * <code>last4</code> or <code>MASTERCARD</code>, so that maps kept in memory do not each hold their own copies.
+ * <br>The field names of the Simplify API are always pooled. Other strings up to the maximum length are kept in a
+ * table of fixed capacity, where each string replaces the one it collides with, so the pool never grows. Longer
+ * strings, such as ids, are returned as they are.
+ * <br>A pool may be shared by several [Simplify] instances and used from any thread.
+ *
+ * @param capacity  The number of strings kept besides the field names, rounded up to a power of two
+ * @param maxLength The length of the longest string pooled
+ */
+class SimplifyStringPool @JvmOverloads constructor(
+        capacity: Int = DEFAULT_CAPACITY,
+        val maxLength: Int = DEFAULT_MAX_LENGTH
+) {
+
+    companion object {
+        const val DEFAULT_CAPACITY = 1024
+        const val DEFAULT_MAX_LENGTH = 32
+
+        // the field names of Simplify API responses and 3-D Secure data, and common enum values
+        private val KNOWN = arrayOf(
+                "id", "key", "type", "used", "dateCreated", "card", "brand", "last4", "expMonth", "expYear", "name",
+                "number", "cvc", "addressLine1", "addressLine2", "addressCity", "addressState", "addressZip",
+                "addressCountry", "customer", "email", "reference", "description", "amount", "currency", "status",
+                "paymentStatus", "authCode", "declineReason", "transactionData", "secure3DData", "secure3DRequestData",
+                "isEnrolled", "acsUrl", "paReq", "md", "termUrl", "secure3d", "authenticated", "error", "code",
+                "message", "fieldErrors", "field", "list", "total", "VISA", "MASTERCARD", "AMERICAN_EXPRESS",
+                "DISCOVER", "DINERS", "JCB", "CHINA_UNION_PAY", "USD", "APPROVED", "DECLINED")
+
+        private val known = HashMap<String, String>(KNOWN.size * 2).apply { KNOWN.forEach { put(it, it) } }
+    }
+
+    // strings are immutable, so slots are read and replaced without locking
+    private val slots: Array<String?>
+    private val mask: Int
+
+    private val hits = AtomicLong()
+    private val misses = AtomicLong()
+
+    init {
+        require(capacity > 0) { "Invalid capacity: $capacity" }
+        require(maxLength >= 0) { "Invalid maximum length: $maxLength" }
+
+        var size = 1
+        while (size < capacity) {
+            size = size shl 1
+        }
+        slots = arrayOfNulls(size)
+        mask = slots.size - 1
+    }
+
+    /**
+     * The number of strings kept besides the field names
+     */
+    val capacity: Int
+        get() = slots.size
+
+    /**
+     * The number of strings replaced by a pooled copy
+     */
+    val internHits: Long
+        get() = hits.get()
+
+    /**
+     * The number of strings added to the pool, or replacing a string that collided with them
+     */
+    val internMisses: Long
+        get() = misses.get()
+
+    /**
+     * The share of pooled strings replaced by a pooled copy, between 0 and 1. Longer strings are not counted
+     */
+    val hitRate: Double
+        get() {
+            val h = hits.get()
+            val total = h + misses.get()
+            return if (total == 0L) 0.0 else h.toDouble() / total
+        }
+
+    /**
+     * Returns the pooled copy of the string, pooling it if there is none
+     *
+     * @param s The string
+     * @return An equal string, the same instance for every call while it stays in the pool
+     */
+    fun intern(s: String): String {
+        if (s.length > maxLength) {
+            return s
+        }
+
+        known[s]?.let {
+            hits.incrementAndGet()
+            return it
+        }
+
+        val h = s.hashCode()
+        val slot = (h xor (h ushr 16)) and mask
+        val pooled = slots[slot]
+        if (pooled != null && pooled == s) {
+            hits.incrementAndGet()
+            return pooled
+        }
+
+        slots[slot] = s
+        misses.incrementAndGet()
+        return s
+    }
+
+    override fun toString(): String {
+        return "SimplifyStringPool[capacity=$capacity, maxLength=$maxLength, internHits=$internHits, " +
+                "internMisses=$internMisses]"
+    }
+}
@@ -0,0 +1,44 @@
+package com.simplify.android.sdk
+
+import java.io.Closeable
+import java.io.IOException
+import java.io.InputStream
+
+/**
+ * Sends a [SimplifyRequest] to the Simplify API and returns the raw response.
+ * <br>The default implementation uses [javax.net.ssl.HttpsURLConnection]. Implementations must be thread safe,
+ * as requests may be sent from several threads at once.
+ */
+interface SimplifyTransport {
+
+    /**
+     * Sends the request, blocking until the response status and headers are available
+     *
+     * @param request The request to send. Its payload is written with [SimplifyRequest.writeBody]
+     * @return The response, which the caller closes once the body has been read
+     * @throws IOException If the request could not be sent or the response could not be read
+     */
+    @Throws(IOException::class)
+    fun execute(request: SimplifyRequest): Response
+
+    /**
+     * A raw response from the Simplify API
+     *
+     * @param statusCode The HTTP status code
+     * @param headers    The response headers
+     * @param body       The response body, or null if there is none
+     */
+    open class Response @JvmOverloads constructor(
+            val statusCode: Int,
+            val headers: Map<String, List<String>> = emptyMap(),
+            val body: InputStream? = null
+    ) : Closeable {
+
+        /**
+         * Releases the resources held by this response, including its body
+         */
+        override fun close() {
+            body?.close()
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.simplify.android.sdk
+
+/**
+ * A callback interface for warming up the connection to the Simplify API
+ */
+interface SimplifyWarmUpCallback {
+
+    /**
+     * Called once the connection is warmed up
+     *
+     * @param result The timing and outcome of the warm up
+     */
+    fun onWarmUp(result: SimplifyWarmUpResult)
+
+    /**
+     * Called when the warm up fails
+     *
+     * @param throwable The exception thrown
+     */
+    fun onError(throwable: Throwable)
+}
@@ -0,0 +1,36 @@
+package com.simplify.android.sdk
+
+/**
+ * The timing and outcome of warming up the connection to the Simplify API
+ *
+ * @param dnsMillis         How long it took to resolve the API host
+ * @param connectMillis     How long it took to open the connection and complete the TLS handshake
+ * @param totalMillis       How long the whole warm up took, including the TLS context and JSON set up
+ * @param isConnectionKept  True if the connection was kept alive for the next request
+ */
+class SimplifyWarmUpResult internal constructor(
+        val dnsMillis: Long,
+        val connectMillis: Long,
+        val totalMillis: Long,
+        val isConnectionKept: Boolean
+) {
+
+    @Volatile
+    private var reused: Boolean? = null
+
+    /**
+     * True if the next request to the API reused a kept alive connection, false if it opened a new one.
+     * <br>Null until that request has completed, or if no connection was kept.
+     */
+    val isConnectionReused: Boolean?
+        get() = reused
+
+    internal fun setConnectionReused(reused: Boolean) {
+        this.reused = reused
+    }
+
+    override fun toString(): String {
+        return "SimplifyWarmUpResult[dnsMillis=$dnsMillis, connectMillis=$connectMillis, totalMillis=$totalMillis, " +
+                "isConnectionKept=$isConnectionKept, isConnectionReused=$isConnectionReused]"
+    }
+}
@@ -0,0 +1,67 @@
+package com.simplify.android.sdk
+
+import java.io.InputStream
+import java.io.OutputStream
+
+// copies everything written to the target into a second stream
+internal class TeeOutputStream(private val target: OutputStream, private val copy: OutputStream) : OutputStream() {
+
+    override fun write(b: Int) {
+        target.write(b)
+        copy.write(b)
+    }
+
+    override fun write(b: ByteArray, off: Int, len: Int) {
+        target.write(b, off, len)
+        copy.write(b, off, len)
+    }
+
+    override fun flush() {
+        target.flush()
+        copy.flush()
+    }
+
+    override fun close() {
+        target.close()
+        copy.close()
+    }
+}
+
+// discards everything written, only counting the bytes
+internal class CountingOutputStream : OutputStream() {
+
+    var count = 0L
+        private set
+
+    override fun write(b: Int) {
+        count++
+    }
+
+    override fun write(b: ByteArray, off: Int, len: Int) {
+        count += len
+    }
+}
+
+// copies everything read from the source into a second stream
+internal class TeeInputStream(private val source: InputStream, private val copy: OutputStream) : InputStream() {
+
+    override fun read(): Int {
+        val b = source.read()
+        if (b != -1) {
+            copy.write(b)
+        }
+        return b
+    }
+
+    override fun read(b: ByteArray, off: Int, len: Int): Int {
+        val n = source.read(b, off, len)
+        if (n > 0) {
+            copy.write(b, off, n)
+        }
+        return n
+    }
+
+    override fun available(): Int = source.available()
+
+    override fun close() = source.close()
+}
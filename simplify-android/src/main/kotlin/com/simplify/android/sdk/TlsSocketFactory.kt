@@ -0,0 +1,98 @@
+package com.simplify.android.sdk
+
+import java.net.InetAddress
+import java.net.Socket
+import java.util.concurrent.atomic.AtomicLong
+import javax.net.ssl.SSLContext
+import javax.net.ssl.SSLSocket
+import javax.net.ssl.SSLSocketFactory
+
+/**
+ * An [SSLSocketFactory] bound to a single [SSLContext], counting the sockets it creates and the
+ * TLS handshakes they perform.
+ *
+ * Re-using the same instance across connections lets the context's client session cache
+ * resume previous sessions instead of negotiating a full handshake every time.
+ */
+internal class TlsSocketFactory(val context: SSLContext) : SSLSocketFactory() {
+
+    private val delegate: SSLSocketFactory = context.socketFactory
+
+    private val socketCount = AtomicLong()
+    private val handshakeCount = AtomicLong()
+    private val resumedHandshakeCount = AtomicLong()
+
+    // the last socket created on each thread, so a request can tell whether it opened a new connection
+    private val createdOnThread = ThreadLocal<Socket?>()
+
+    /**
+     * The number of sockets created by this factory
+     */
+    val socketsCreated: Long
+        get() = socketCount.get()
+
+    /**
+     * The number of completed TLS handshakes, including resumed ones
+     */
+    val handshakes: Long
+        get() = handshakeCount.get()
+
+    /**
+     * The number of completed TLS handshakes that resumed a cached session
+     */
+    val resumedHandshakes: Long
+        get() = resumedHandshakeCount.get()
+
+    /**
+     * The number of completed TLS handshakes that negotiated a new session
+     */
+    val fullHandshakes: Long
+        get() = handshakes - resumedHandshakes
+
+    /**
+     * Returns the last socket created by this factory on the calling thread, and forgets it
+     */
+    fun takeSocketCreatedOnThread(): Socket? {
+        val socket = createdOnThread.get()
+        createdOnThread.remove()
+        return socket
+    }
+
+    override fun getDefaultCipherSuites(): Array<String> = delegate.defaultCipherSuites
+
+    override fun getSupportedCipherSuites(): Array<String> = delegate.supportedCipherSuites
+
+    override fun createSocket(s: Socket, host: String, port: Int, autoClose: Boolean): Socket =
+            track(delegate.createSocket(s, host, port, autoClose))
+
+    override fun createSocket(): Socket = track(delegate.createSocket())
+
+    override fun createSocket(host: String, port: Int): Socket = track(delegate.createSocket(host, port))
+
+    override fun createSocket(host: String, port: Int, localHost: InetAddress, localPort: Int): Socket =
+            track(delegate.createSocket(host, port, localHost, localPort))
+
+    override fun createSocket(host: InetAddress, port: Int): Socket = track(delegate.createSocket(host, port))
+
+    override fun createSocket(address: InetAddress, port: Int, localAddress: InetAddress, localPort: Int): Socket =
+            track(delegate.createSocket(address, port, localAddress, localPort))
+
+    private fun track(socket: Socket): Socket {
+        socketCount.incrementAndGet()
+        createdOnThread.set(socket)
+
+        if (socket is SSLSocket) {
+            val createdAt = System.currentTimeMillis()
+            socket.addHandshakeCompletedListener { event ->
+                handshakeCount.incrementAndGet()
+
+                // a resumed session was negotiated before this socket existed
+                if (event.session.creationTime < createdAt) {
+                    resumedHandshakeCount.incrementAndGet()
+                }
+            }
+        }
+
+        return socket
+    }
+}
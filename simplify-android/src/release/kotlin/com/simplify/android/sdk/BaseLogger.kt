@@ -1,16 +1,16 @@
 package com.simplify.android.sdk
 
 
-import java.net.HttpURLConnection
-
-
 internal class BaseLogger : Logger {
 
-    override fun logRequest(c: HttpURLConnection, data: String?) {
+    override val isEnabled: Boolean
+        get() = false
+
+    override fun logRequest(request: SimplifyRequest, data: String?) {
         // no-op
     }
 
-    override fun logResponse(c: HttpURLConnection, data: String?) {
+    override fun logResponse(response: SimplifyTransport.Response, data: String?) {
         // no-op
     }
 
@@ -6,12 +6,15 @@ import com.google.gson.Gson;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import java.math.BigDecimal;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -229,6 +232,21 @@ public class SimplifyMapTest {
 
     }
 
+    @Test
+    public void testJsonConstructorBuildsSimplifyMapsAtEveryLevel() {
+
+        String json = "{\"k1\":{\"k2\":{\"k3\":1}},\"a1\":[{\"m1\":\"v1\"}],\"n\":null}";
+        SimplifyMap map = new SimplifyMap(json);
+
+        assert map.get("k1") instanceof SimplifyMap;
+        assert map.get("k1.k2") instanceof SimplifyMap;
+        assert map.get("a1[0]") instanceof SimplifyMap;
+        assertEquals(1.0, map.get("k1.k2.k3"));
+        assertFalse(map.containsKey("n"));
+
+        assert new SimplifyMap("").isEmpty();
+    }
+
     @Test
     public void testArrayNotationWithNestedMaps() {
 
@@ -739,6 +757,137 @@ public class SimplifyMapTest {
 
 
 
+    @Test
+    public void keyPathOverloadsMatchStringKeys() {
+        SimplifyMap map = new SimplifyMap();
+        KeyPath acsUrl = KeyPath.of("card.secure3DData.acsUrl");
+        KeyPath item = KeyPath.of("a[0].k1");
+
+        map.set(acsUrl, "https://acs").set(item, 1);
+
+        assertEquals("https://acs", map.get("card.secure3DData.acsUrl"));
+        assertEquals("https://acs", map.get(acsUrl));
+        assertEquals(1, map.get(item));
+        assertTrue(map.containsKey(item));
+        assertEquals(1, map.remove(item));
+        assertFalse(map.containsKey("a[0].k1"));
+    }
+
+    @Test
+    public void keyPathsAreParsedOnceAndCached() {
+        assertSame(KeyPath.of("card.last4"), KeyPath.of("card.last4"));
+        assertEquals(KeyPath.of("card.last4"), KeyPath.of("card.last4"));
+    }
+
+    @Test
+    public void missingIntermediateKeyIsNotFound() {
+        SimplifyMap map = new SimplifyMap()
+                .set("y.z", "root level");
+
+        // an earlier version fell back to the root map once part of the path was missing
+        assertNull(map.get("x.y.z"));
+        assertFalse(map.containsKey("x.y.z"));
+        assertNull(map.remove("x.y.z"));
+        assertNull(map.get("x.y"));
+        assertEquals("root level", map.get("y.z"));
+    }
+
+    @Test
+    public void nonMapIntermediateKeyThrowsException() {
+        SimplifyMap map = new SimplifyMap()
+                .set("a", "value");
+
+        try {
+            map.get("a.b");
+            fail("IllegalArgumentException not raised");
+        } catch (IllegalArgumentException e) {
+            // Ignore
+        } catch (Exception e) {
+            fail("Expected IllegalArgumentException but got '" + e + "'");
+        }
+    }
+
+    @Test
+    public void typedGettersConvertValuesAndFallBackToDefaults() {
+        SimplifyMap map = new SimplifyMap("{\"amount\":1000,\"rate\":0.1,\"card\":{\"last4\":\"4444\",\"expMonth\":12},\"live\":true}");
+
+        assertEquals(1000L, map.getLong("amount"));
+        assertEquals(12, map.getInt("card.expMonth"));
+        assertEquals(0.1, map.getDouble("rate"), 0.0);
+        assertEquals(new BigDecimal("0.1"), map.getBigDecimal("rate"));
+        assertEquals("4444", map.getString("card.last4"));
+        assertTrue(map.getBoolean("live"));
+
+        assertEquals(7L, map.getLong("missing", 7L));
+        assertEquals(0, map.getInt("card.missing"));
+        assertEquals("none", map.getString("missing", "none"));
+        assertNull(map.getBigDecimal("missing"));
+        assertFalse(map.getBoolean("missing"));
+    }
+
+    @Test
+    public void typedGetterForWrongTypeThrowsException() {
+        SimplifyMap map = new SimplifyMap().set("last4", "4444");
+
+        try {
+            map.getLong("last4");
+            fail("IllegalArgumentException not raised");
+        } catch (IllegalArgumentException e) {
+            // Ignore
+        } catch (Exception e) {
+            fail("Expected IllegalArgumentException but got '" + e + "'");
+        }
+    }
+
+    @Test
+    public void lazyNumbersReadExactly() {
+        LazyNumber number = new LazyNumber("9007199254740993");
+
+        assertEquals(9007199254740993L, number.longValue());
+        assertEquals(new BigDecimal("9007199254740993"), number.toBigDecimal());
+        assertEquals(9007199254740993L, new SimplifyMap().set("amount", number).getLong("amount"));
+    }
+
+    @Test
+    public void integerGettersDoNotTruncateOrWrap() {
+        SimplifyMap map = new SimplifyMap()
+                .set("fraction", 2.5)
+                .set("integral", 100.0)
+                .set("long", 4294967296L)
+                .set("huge", 1e19)
+                .set("lazyFraction", new LazyNumber("12.50"))
+                .set("lazyIntegral", new LazyNumber("1e2"))
+                .set("lazyHuge", new LazyNumber("9223372036854775808"));
+
+        assertEquals(100, map.getInt("integral"));
+        assertEquals(100, map.getInt("lazyIntegral"));
+        assertEquals(4294967296L, map.getLong("long"));
+
+        for (String key : new String[]{"fraction", "long", "huge", "lazyFraction", "lazyHuge"}) {
+            try {
+                map.getInt(key);
+                fail("IllegalArgumentException not raised for " + key);
+            } catch (IllegalArgumentException e) {
+                // Ignore
+            }
+        }
+        for (String key : new String[]{"fraction", "huge", "lazyFraction", "lazyHuge"}) {
+            try {
+                map.getLong(key);
+                fail("IllegalArgumentException not raised for " + key);
+            } catch (IllegalArgumentException e) {
+                // Ignore
+            }
+        }
+
+        try {
+            new LazyNumber("12.50").intValue();
+            fail("ArithmeticException not raised");
+        } catch (ArithmeticException e) {
+            // Ignore
+        }
+    }
+
     @Test
     public void normalizeMapConvertsObjects() {
         SimplifyMap m = new SimplifyMap()
@@ -0,0 +1,204 @@
+package com.simplify.android.sdk
+
+import org.junit.Test
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertFalse
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class ConcurrentSimplifyMapTest {
+
+    @Test
+    fun testReadsAndWritesKeyPaths() {
+        val map = ConcurrentSimplifyMap()
+                .set("card.number", "5555555555554444")
+                .set("card.address.city", "OFallon")
+                .set("fees", arrayListOf(1.0, SimplifyMap("type", "flat")))
+
+        assertEquals("5555555555554444", map["card.number"])
+        assertEquals("flat", map["fees[1].type"])
+        assertTrue(map.containsKey("card.address.city"))
+        assertTrue(map["card"] is SimplifyMapSnapshot)
+        assertFailsWith<IllegalArgumentException> { map["card.number.x"] }
+
+        assertEquals("OFallon", map.put("card.address.city", "Dublin"))
+        assertEquals("Dublin", map.remove("card.address.city"))
+        assertFalse(map.containsKey("card.address.city"))
+        assertEquals(setOf("card", "fees"), map.keys)
+
+        assertEquals("flat", map.remove("fees[1].type"))
+        assertEquals(listOf(1.0, SimplifyMap()), map["fees"])
+        val card = SimplifyMap("number", "5555555555554444").set("address", SimplifyMap())
+        assertEquals<Map<String, Any>>(SimplifyMap("card", card).set("fees", listOf(1.0, SimplifyMap())), map)
+
+        map.entries.iterator().let {
+            it.next().setValue("x")
+            it.remove()
+        }
+        assertEquals(1, map.size)
+
+        map.clear()
+        assertTrue(map.isEmpty())
+    }
+
+    @Test
+    fun testStoredValuesAreCopies() {
+        val card = SimplifyMap("number", "5555555555554444")
+        val map = ConcurrentSimplifyMap(mapOf("card" to card))
+
+        card["number"] = "4111111111111111"
+
+        assertEquals("5555555555554444", map["card.number"])
+        assertEquals<Map<String, Any>>(SimplifyMap("card", SimplifyMap("number", "5555555555554444")), map.snapshot())
+    }
+
+    @Test
+    fun testGetOrPutAndUpdate() {
+        val map = ConcurrentSimplifyMap()
+
+        assertEquals("a", map.getOrPut("card.id") { "a" })
+        assertEquals("a", map.getOrPut("card.id") { "b" })
+
+        assertEquals(1, map.update("counts.total") { (it as Int? ?: 0) + 1 })
+        assertEquals(2, map.update("counts.total") { (it as Int? ?: 0) + 1 })
+        assertNull(map.update("counts.total") { null })
+        assertNull(map["counts.total"])
+        assertNull(map.update("counts.other") { null })
+    }
+
+    @Test
+    fun testConcurrentUpdatesAreNotLost() {
+        val map = ConcurrentSimplifyMap()
+
+        race { thread ->
+            repeat(UPDATES) {
+                map.update("shared.count") { (it as Int? ?: 0) + 1 }
+                map.update("shared.byThread.t$thread") { (it as Int? ?: 0) + 1 }
+                map.update("own$thread.count") { (it as Int? ?: 0) + 1 }
+            }
+        }
+
+        assertEquals(THREADS * UPDATES, map["shared.count"])
+        for (thread in 0 until THREADS) {
+            assertEquals(UPDATES, map["shared.byThread.t$thread"])
+            assertEquals(UPDATES, map["own$thread.count"])
+        }
+    }
+
+    @Test
+    fun testConcurrentGetOrPutHasOneWinner() {
+        val map = ConcurrentSimplifyMap()
+        val calls = AtomicInteger()
+        val seen = Collections.synchronizedSet(HashSet<Any>())
+
+        race { thread ->
+            for (i in 0 until UPDATES) {
+                seen.add(map.getOrPut("sessions.s$i.id") {
+                    calls.incrementAndGet()
+                    "s$i-t$thread"
+                })
+            }
+        }
+
+        assertEquals(UPDATES, calls.get())
+        assertEquals(UPDATES, seen.size)
+    }
+
+    @Test
+    fun testReadersSeeWholeWrites() {
+        val map = ConcurrentSimplifyMap().set("pair", SimplifyMap("x", 0).set("y", 0))
+        val done = AtomicInteger()
+
+        race { thread ->
+            if (thread == 0) {
+                for (i in 1..UPDATES) {
+                    map["pair"] = SimplifyMap("x", i).set("y", i)
+                    map.update("counter") { (it as Int? ?: 0) + 1 }
+                }
+                done.set(1)
+            } else {
+                var last = 0
+                while (done.get() == 0) {
+                    val pair = map["pair"] as Map<*, *>
+                    assertEquals(pair["x"], pair["y"])
+
+                    // a counter that only grows is never read going back
+                    val counter = map["counter"] as Int? ?: 0
+                    assertTrue(counter >= last, "$counter read after $last")
+                    last = counter
+                }
+            }
+        }
+
+        assertEquals(UPDATES, map["counter"])
+    }
+
+    @Test
+    fun testNestedPathReadsDoNotSerialize() {
+        val paths = 4 * KeyPath.CACHE_SIZE
+        val map = ConcurrentSimplifyMap()
+        for (i in 0 until paths) {
+            map["cards.c$i.number"] = "number$i"
+        }
+
+        // an update holding the lock of every key path under "cards" does not hold up readers
+        val updating = CountDownLatch(1)
+        val release = CountDownLatch(1)
+        val writer = Thread {
+            map.update("cards.c0.used") {
+                updating.countDown()
+                release.await()
+                true
+            }
+        }.apply { start() }
+        updating.await()
+
+        // more paths than the key path cache holds, so that reads keep parsing and evicting as well
+        try {
+            race { thread ->
+                repeat(4) {
+                    for (i in 0 until paths) {
+                        val n = (i + thread * 31) % paths
+                        assertEquals("number$n", map["cards.c$n.number"])
+                    }
+                }
+            }
+        } finally {
+            release.countDown()
+            writer.join()
+        }
+
+        assertEquals(true, map["cards.c0.used"])
+        assertTrue(KeyPath.cacheSize <= KeyPath.CACHE_SIZE, "${KeyPath.cacheSize} key paths cached")
+    }
+
+    // runs the block on several threads at once, failing with the first error thrown by any of them
+    private fun race(block: (thread: Int) -> Unit) {
+        val start = CountDownLatch(1)
+        val errors = Collections.synchronizedList(ArrayList<Throwable>())
+
+        val threads = (0 until THREADS).map { i ->
+            Thread {
+                try {
+                    start.await()
+                    block(i)
+                } catch (e: Throwable) {
+                    errors.add(e)
+                }
+            }.apply { start() }
+        }
+
+        start.countDown()
+        threads.forEach { it.join() }
+        errors.firstOrNull()?.let { throw it }
+    }
+
+    companion object {
+        private const val THREADS = 8
+        private const val UPDATES = 2000
+    }
+}
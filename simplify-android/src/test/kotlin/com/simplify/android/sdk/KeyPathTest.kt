@@ -0,0 +1,151 @@
+package com.simplify.android.sdk
+
+import org.junit.Test
+import java.util.*
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertNotSame
+import kotlin.test.assertSame
+import kotlin.test.assertTrue
+import kotlin.test.fail
+
+class KeyPathTest {
+
+    @Test
+    fun testParsesLikeRegexForRandomPaths() {
+        val random = Random(20190601)
+
+        repeat(50000) {
+            val path = (0..random.nextInt(4)).joinToString(".") { randomSegment(random) }
+
+            assertEquals(regexSegments(path), scannedSegments(path), "segments of '$path'")
+        }
+    }
+
+    @Test
+    fun testParsesLikeRegexForEdgeCases() {
+        listOf(
+                "a", "a[0]", "a[]", "a[x]", "a[+1]", "a[-1]", "a[+]", "a[-]", "a[2147483647]", "a[2147483648]",
+                "a[-2147483648]", "a[-2147483649]", "a[\u0661\u0662]", "a b[ 1]", "card.secure3DData.acsUrl",
+                "a[0].b[].c"
+        ).forEach { path ->
+            assertEquals(regexSegments(path), scannedSegments(path), "segments of '$path'")
+        }
+    }
+
+    @Test
+    fun testRejectsMalformedPaths() {
+        mapOf(
+                "a[" to "expected ']' at offset 2",
+                "a]" to "unexpected ']' at offset 1",
+                "a[0]b" to "expected '.' at offset 4",
+                "a[1][2]" to "expected '.' at offset 4",
+                "a[[1]]" to "unexpected '[' at offset 2",
+                "a][1]" to "unexpected ']' at offset 1",
+                "a..b" to "expected a key at offset 2",
+                "a." to "expected a key at offset 2",
+                ".a" to "expected a key at offset 0",
+                "" to "expected a key at offset 0",
+                "[0]" to "expected a key at offset 0",
+                "a.[]" to "expected a key at offset 2"
+        ).forEach { (path, message) ->
+            val e = assertFailsWith<IllegalArgumentException>(path) { KeyPath.of(path) }
+            assertEquals("Invalid key path '$path': $message", e.message)
+        }
+    }
+
+    @Test
+    fun testParsesLongPathsInLinearTime() {
+        val n = 200000
+
+        assertEquals(n + 1, KeyPath.of("a[0].".repeat(n) + "b").size)
+
+        val e = assertFailsWith<IllegalArgumentException> { KeyPath.of("a" + "[".repeat(n) + "]".repeat(n)) }
+        assertTrue(e.message!!.endsWith("unexpected '[' at offset 2"))
+    }
+
+    @Test
+    fun testCacheKeepsPathsReadRepeatedly() {
+        val hot = KeyPath.of("card.secure3DData.acsUrl")
+
+        // many more unique paths than the cache holds, with the hot path read in between
+        repeat(20 * KeyPath.CACHE_SIZE) { i ->
+            KeyPath.of("flood$i.id")
+            if (i % 16 == 0) {
+                assertSame(hot, KeyPath.of("card.secure3DData.acsUrl"))
+            }
+        }
+
+        assertSame(hot, KeyPath.of("card.secure3DData.acsUrl"))
+        assertTrue(KeyPath.cacheSize <= KeyPath.CACHE_SIZE)
+
+        // a path read only once is evicted by the flood
+        val cold = KeyPath.of("card.number")
+        repeat(2 * KeyPath.CACHE_SIZE) { KeyPath.of("flood$it.number") }
+        assertNotSame(cold, KeyPath.of("card.number"))
+    }
+
+    @Test
+    fun testInvalidIndexNamesSegment() {
+        try {
+            KeyPath.of("a[xx].k1").first.explicitIndex
+            fail("NumberFormatException not raised")
+        } catch (e: NumberFormatException) {
+            assertEquals("Invalid array index 'xx' in key path segment 'a[xx]'", e.message)
+        }
+    }
+
+    private fun scannedSegments(path: String): List<String> {
+        return KeyPath.of(path).segments.map { segment ->
+            val index = try {
+                segment.explicitIndex?.toString() ?: "last"
+            } catch (e: NumberFormatException) {
+                "invalid"
+            }
+            describe(segment.raw, segment.arrayName, if (segment.isArray) index else null)
+        }
+    }
+
+    // the parser SimplifyMap used before key paths were scanned by hand
+    private fun regexSegments(path: String): List<String> {
+        return path.split("\\.".toRegex()).map { raw ->
+            val groups = ARRAY_INDEX_PATTERN.find(raw)?.groupValues
+            val index = groups?.let {
+                when {
+                    it[2].isEmpty() -> "last"
+                    else -> try {
+                        Integer.parseInt(it[2]).toString()
+                    } catch (e: NumberFormatException) {
+                        "invalid"
+                    }
+                }
+            }
+            describe(raw, groups?.get(1), index)
+        }
+    }
+
+    private fun describe(raw: String, name: String?, index: String?): String {
+        return "raw=$raw, name=$name, index=$index"
+    }
+
+    // a key, optionally followed by an index in brackets
+    private fun randomSegment(random: Random): String {
+        val key = randomText(random, 1 + random.nextInt(4), KEY_ALPHABET)
+        return when (random.nextInt(3)) {
+            0 -> key
+            else -> key + "[" + randomText(random, random.nextInt(6), INDEX_ALPHABET) + "]"
+        }
+    }
+
+    private fun randomText(random: Random, length: Int, alphabet: String): String {
+        return buildString {
+            repeat(length) { append(alphabet[random.nextInt(alphabet.length)]) }
+        }
+    }
+
+    companion object {
+        private val ARRAY_INDEX_PATTERN = "(.*)\\[(.*)\\]".toRegex()
+        private const val KEY_ALPHABET = "ab01 "
+        private const val INDEX_ALPHABET = "0129+-x \u0661"
+    }
+}
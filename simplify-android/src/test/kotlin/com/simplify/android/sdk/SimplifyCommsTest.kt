@@ -0,0 +1,689 @@
+package com.simplify.android.sdk
+
+import com.sun.net.httpserver.HttpsConfigurator
+import com.sun.net.httpserver.HttpsServer
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import io.reactivex.schedulers.Schedulers
+import kotlinx.coroutines.cancelAndJoin
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import java.io.ByteArrayOutputStream
+import java.net.InetSocketAddress
+import java.net.Socket
+import java.net.SocketException
+import java.net.SocketTimeoutException
+import java.security.KeyStore
+import java.util.*
+import java.util.concurrent.CancellationException
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import javax.net.ssl.KeyManagerFactory
+import javax.net.ssl.SSLContext
+import javax.net.ssl.SSLServerSocket
+import javax.net.ssl.SSLSocket
+import javax.net.ssl.TrustManagerFactory
+import kotlin.concurrent.thread
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertFailsWith
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+import kotlin.test.fail
+import kotlin.test.assertSame
+
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE)
+class SimplifyCommsTest {
+
+    private lateinit var comms: SimplifyComms
+
+    private var server: HttpsServer? = null
+    private var receivedBody: String? = null
+    private var receivedHeaders: Map<String, List<String>> = emptyMap()
+
+    @Before
+    fun setUp() {
+        comms = SimplifyComms()
+    }
+
+    @After
+    fun tearDown() {
+        server?.stop(0)
+    }
+
+    @Test
+    fun testSslSocketFactoryIsSharedAcrossConnections() {
+        val request = SimplifyRequest(Simplify.API_BASE_SANDBOX_URL + Simplify.API_PATH_CARDTOKEN, SimplifyRequest.Method.POST, SimplifyMap())
+
+        val c1 = comms.httpsTransport.createHttpsUrlConnection(request)
+        val c2 = SimplifyComms().httpsTransport.createHttpsUrlConnection(request)
+
+        assertSame(c1.sslSocketFactory, c2.sslSocketFactory)
+    }
+
+    @Test
+    fun testTlsSessionIsResumedAcrossConnections() {
+        val factory = TlsSocketFactory(localContext())
+        val server = localContext().serverSocketFactory.createServerSocket(0) as SSLServerSocket
+
+        val accepting = thread {
+            repeat(3) {
+                (server.accept() as SSLSocket).use { it.startHandshake() }
+            }
+        }
+
+        repeat(3) {
+            (factory.createSocket("localhost", server.localPort) as SSLSocket).use { it.startHandshake() }
+        }
+
+        accepting.join(5000)
+        server.close()
+
+        // handshake listeners are notified asynchronously
+        val deadline = System.currentTimeMillis() + 5000
+        while (factory.handshakes < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10)
+        }
+
+        assertEquals(3, factory.socketsCreated)
+        assertEquals(3, factory.handshakes)
+        assertEquals(1, factory.fullHandshakes)
+        assertEquals(2, factory.resumedHandshakes)
+    }
+
+    @Test
+    fun testSequentialRequestsReuseOneConnection() {
+        val factory = TlsSocketFactory(localContext())
+        val pool = SimplifyConnectionPool(hosts = setOf("localhost"))
+        comms.httpsTransport.socketFactory = factory
+        comms.httpsTransport.connectionPool = pool
+
+        val url = startLocalServer()
+        repeat(5) {
+            val response = comms.executeSimplifyRequest(cardTokenRequest(url))
+            assertEquals("tok_123", response["id"])
+        }
+
+        assertEquals(1, factory.socketsCreated)
+        assertEquals(1, pool.reuseMisses)
+        assertEquals(4, pool.reuseHits)
+    }
+
+    @Test
+    fun testIdleConnectionsAreClosed() {
+        val factory = TlsSocketFactory(localContext())
+        val pool = SimplifyConnectionPool(idleTimeoutMillis = 50, hosts = setOf("localhost"))
+        comms.httpsTransport.socketFactory = factory
+        comms.httpsTransport.connectionPool = pool
+
+        val url = startLocalServer()
+        comms.executeSimplifyRequest(cardTokenRequest(url))
+        Thread.sleep(100)
+        comms.executeSimplifyRequest(cardTokenRequest(url))
+
+        assertEquals(2, factory.socketsCreated)
+        assertEquals(1, pool.evictionCount)
+        assertEquals(0, pool.reuseHits)
+    }
+
+    @Test
+    fun testIdleConnectionsAreClosedWithoutFurtherRequests() {
+        val pool = SimplifyConnectionPool(idleTimeoutMillis = 50, hosts = setOf("localhost"))
+        val socket = Socket()
+
+        pool.acquire("localhost")
+        pool.release("localhost", socket, true)
+        assertEquals(1, pool.connectionCount)
+
+        val deadline = System.currentTimeMillis() + 5000
+        while (!socket.isClosed && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10)
+        }
+
+        assertTrue(socket.isClosed)
+        assertEquals(1, pool.evictionCount)
+        assertEquals(0, pool.connectionCount)
+
+        // the cleanup stops once no connections are parked
+        while (pool.isCleanupRunning && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10)
+        }
+        assertFalse(pool.isCleanupRunning)
+    }
+
+    @Test
+    fun testWarmUpListenersExpireWithIdleConnections() {
+        val pool = SimplifyConnectionPool(idleTimeoutMillis = 50, hosts = setOf("localhost"))
+        val reported = ArrayList<String>()
+
+        pool.onNextRelease("localhost") { reported.add("stale") }
+        Thread.sleep(100)
+        pool.onNextRelease("localhost") { reported.add("fresh") }
+
+        // the stale listener is dropped as soon as another is added
+        assertEquals(1, pool.pendingListenerCount("localhost"))
+
+        pool.acquire("localhost")
+        pool.release("localhost", null, true)
+
+        assertEquals(listOf("fresh"), reported)
+        assertEquals(0, pool.pendingListenerCount("localhost"))
+    }
+
+    @Test
+    fun testConnectionsAreClosedWithoutPool() {
+        val factory = TlsSocketFactory(localContext())
+        comms.httpsTransport.socketFactory = factory
+        comms.httpsTransport.connectionPool = null
+
+        val url = startLocalServer()
+        repeat(3) { comms.executeSimplifyRequest(cardTokenRequest(url)) }
+
+        assertEquals(3, factory.socketsCreated)
+    }
+
+    @Test
+    fun testFixedLengthStreamingSendsContentLength() {
+        comms.httpsTransport.socketFactory = TlsSocketFactory(localContext())
+        comms.httpsTransport.streamingMode = HttpsTransport.StreamingMode.FIXED_LENGTH
+
+        comms.executeSimplifyRequest(cardTokenRequest(startLocalServer()))
+
+        assertEquals(EXPECTED_REQUEST_BODY, receivedBody)
+        assertEquals(listOf(EXPECTED_REQUEST_BODY.length.toString()), receivedHeaders["Content-length"])
+    }
+
+    @Test
+    fun testChunkedStreamingSendsSameBody() {
+        comms.httpsTransport.socketFactory = TlsSocketFactory(localContext())
+        comms.httpsTransport.streamingMode = HttpsTransport.StreamingMode.CHUNKED
+
+        comms.executeSimplifyRequest(cardTokenRequest(startLocalServer()))
+
+        assertEquals(EXPECTED_REQUEST_BODY, receivedBody)
+        assertEquals(listOf("chunked"), receivedHeaders["Transfer-encoding"])
+    }
+
+    @Test
+    fun testRequestDataIsOnlyCopiedForLogging() {
+        comms.httpsTransport.socketFactory = TlsSocketFactory(localContext())
+        val url = startLocalServer()
+
+        val logger = RecordingLogger()
+        comms.logger = logger
+        comms.executeSimplifyRequest(cardTokenRequest(url))
+        assertEquals(EXPECTED_REQUEST_BODY, logger.requestData)
+        assertEquals(CARD_TOKEN_RESPONSE, logger.responseData)
+
+        comms.logger = NoOpLogger
+        val quietRequest = cardTokenRequest(url)
+        comms.executeSimplifyRequest(quietRequest)
+        assertNull(quietRequest.bodyCopy)
+
+        val disabled = RecordingLogger(false)
+        comms.logger = disabled
+        val disabledRequest = cardTokenRequest(url)
+        comms.executeSimplifyRequest(disabledRequest)
+        assertNull(disabledRequest.bodyCopy)
+        assertNull(disabled.requestData)
+        assertNull(disabled.responseData)
+
+        assertEquals(EXPECTED_REQUEST_BODY, receivedBody)
+    }
+
+    @Test
+    fun testRequestIsLoggedWhenSendingFails() {
+        val logger = RecordingLogger()
+        comms.logger = logger
+        comms.transport = object : SimplifyTransport {
+            override fun execute(request: SimplifyRequest): SimplifyTransport.Response {
+                request.writeBody(ByteArrayOutputStream())
+                throw SocketException("Connection reset")
+            }
+        }
+
+        assertFailsWith<SocketException> { comms.executeSimplifyRequest(cardTokenRequest(Simplify.API_BASE_SANDBOX_URL)) }
+
+        assertEquals(EXPECTED_REQUEST_BODY, logger.requestData)
+        assertNull(logger.responseData)
+    }
+
+    @Test
+    fun testInMemoryTransportAnswersWithCardToken() {
+        val transport = SimplifyInMemoryTransport()
+        comms.transport = transport
+
+        val request = cardTokenRequest(Simplify.API_BASE_SANDBOX_URL)
+        request.payload["card.expMonth"] = 12
+        val response = comms.executeSimplifyRequest(request)
+
+        assertEquals(1, transport.requestCount)
+        assertEquals("4444", response["card.last4"])
+        assertEquals("MASTERCARD", response["card.type"])
+        assertEquals(12.0, response["card.expMonth"])
+        assertEquals("application/json", request.headers["Content-Type"])
+    }
+
+    @Test
+    fun testInMemoryTransportReturnsScriptedResponsesInOrder() {
+        val transport = SimplifyInMemoryTransport()
+        transport.enqueue(402, "{\"error\":{\"message\":\"Declined\"}}")
+        comms.transport = transport
+
+        try {
+            comms.executeSimplifyRequest(cardTokenRequest(Simplify.API_BASE_SANDBOX_URL))
+            fail("Should have thrown a SimplifyException on a scripted error")
+        } catch (e: SimplifyException) {
+            assertEquals(402, e.statusCode)
+            assertEquals("Declined", e.message)
+        }
+
+        // falls back to a card token once the script is exhausted
+        assertEquals("4444", comms.executeSimplifyRequest(cardTokenRequest(Simplify.API_BASE_SANDBOX_URL))["card.last4"])
+    }
+
+    @Test
+    fun testResponseIsDecodedIntoNestedSimplifyMaps() {
+        comms.httpsTransport.socketFactory = TlsSocketFactory(localContext())
+
+        val response = comms.executeSimplifyRequest(cardTokenRequest(startLocalServer()))
+
+        assertTrue(response["card"] is SimplifyMap)
+        assertTrue(response["card.secure3DData"] is SimplifyMap)
+        assertEquals("4444", response["card.last4"])
+        assertEquals(true, response["card.secure3DData.isEnrolled"])
+    }
+
+    @Test
+    fun testErrorResponseIsDecodedFromErrorStream() {
+        comms.httpsTransport.socketFactory = TlsSocketFactory(localContext())
+        val url = startLocalServer(400, "{\"error\":{\"code\":\"validation\",\"message\":\"Invalid card\"}}")
+
+        try {
+            comms.executeSimplifyRequest(cardTokenRequest(url))
+            fail("Should have thrown a SimplifyException on an error status")
+        } catch (e: SimplifyException) {
+            assertEquals(400, e.statusCode)
+            assertEquals("Invalid card", e.message)
+            assertEquals("validation", e.errorResponse["error.code"])
+            assertTrue(e.errorResponse["error"] is SimplifyMap)
+        }
+    }
+
+    @Test
+    fun testBatchRunsConcurrentlyUpToLimit() {
+        val inFlight = AtomicInteger()
+        val maxInFlight = AtomicInteger()
+        val inMemory = SimplifyInMemoryTransport(20)
+        comms.executor = SimplifyExecutor(8)
+        comms.transport = object : SimplifyTransport {
+            override fun execute(request: SimplifyRequest): SimplifyTransport.Response {
+                val n = inFlight.incrementAndGet()
+                synchronized(maxInFlight) { maxInFlight.set(maxOf(maxInFlight.get(), n)) }
+                try {
+                    return inMemory.execute(request)
+                } finally {
+                    inFlight.decrementAndGet()
+                }
+            }
+        }
+
+        val results = comms.runSimplifyRequests(List(12) { cardTokenRequest(Simplify.API_BASE_SANDBOX_URL) }, 3).toList().blockingGet()
+
+        assertEquals(12, results.size)
+        assertEquals((0 until 12).toSet(), results.map { it.index }.toSet())
+        assertTrue(maxInFlight.get() in 2..3, "max in flight was ${maxInFlight.get()}")
+    }
+
+    @Test
+    fun testBatchResultsKeepInputOrderAndIsolateFailures() {
+        val transport = SimplifyInMemoryTransport()
+        transport.enqueue(402, "{\"error\":{\"message\":\"Declined\"}}")
+        comms.transport = transport
+
+        val results = runBlocking { comms.awaitSimplifyRequests(List(5) { cardTokenRequest(Simplify.API_BASE_SANDBOX_URL) }, 2) }
+
+        assertEquals(listOf(0, 1, 2, 3, 4), results.map { it.index })
+        assertEquals(1, results.count { !it.isSuccess })
+        assertEquals("Declined", results.first { !it.isSuccess }.error!!.message)
+        assertTrue(results.filter { it.isSuccess }.all { it.response!!["card.last4"] == "4444" })
+    }
+
+    @Test
+    fun testBatchCallbackReportsEachResultThenCompletes() {
+        comms.transport = SimplifyInMemoryTransport()
+        val reported = Collections.synchronizedList(ArrayList<SimplifyBatchResult>())
+        val done = CountDownLatch(1)
+        var completed: List<SimplifyBatchResult> = emptyList()
+
+        comms.runSimplifyRequests(List(4) { cardTokenRequest(Simplify.API_BASE_SANDBOX_URL) }, 2, object : SimplifyBatchCallback {
+            override fun onResult(result: SimplifyBatchResult) {
+                reported.add(result)
+            }
+
+            override fun onComplete(results: List<SimplifyBatchResult>) {
+                completed = results
+                done.countDown()
+            }
+        })
+
+        assertTrue(done.await(5, TimeUnit.SECONDS))
+        assertEquals(4, reported.size)
+        assertEquals(listOf(0, 1, 2, 3), completed.map { it.index })
+    }
+
+    @Test
+    fun testRetriesTransientErrorsUntilSuccess() {
+        val transport = SimplifyInMemoryTransport()
+        transport.enqueue(503, "{\"error\":{\"message\":\"Unavailable\"}}")
+        transport.enqueue(503, "{\"error\":{\"message\":\"Unavailable\"}}")
+        comms.transport = transport
+        comms.retryPolicy = SimplifyRetryPolicy(maxAttempts = 3, baseDelayMillis = 1, maxDelayMillis = 5)
+        val attempts = ArrayList<SimplifyRetryPolicy.Attempt>()
+        comms.retryListener = object : SimplifyRetryPolicy.Listener {
+            override fun onAttempt(attempt: SimplifyRetryPolicy.Attempt) {
+                attempts.add(attempt)
+            }
+        }
+
+        val response = comms.executeSimplifyRequest(cardTokenRequest(Simplify.API_BASE_SANDBOX_URL))
+
+        assertEquals("4444", response["card.last4"])
+        assertEquals(3, transport.requestCount)
+        assertEquals(listOf(1, 2, 3), attempts.map { it.number })
+        assertEquals(listOf(true, true, false), attempts.map { it.willRetry })
+        assertNull(attempts.last().error)
+    }
+
+    @Test
+    fun testDoesNotRetryPastDeadlineOrOnClientErrors() {
+        val transport = SimplifyInMemoryTransport()
+        comms.transport = transport
+        comms.retryPolicy = SimplifyRetryPolicy(maxAttempts = 5, baseDelayMillis = 50, maxDelayMillis = 50, deadlineMillis = 120)
+
+        transport.enqueue(400, "{\"error\":{\"message\":\"Invalid\"}}")
+        assertFailsWith<SimplifyException> { comms.executeSimplifyRequest(cardTokenRequest(Simplify.API_BASE_SANDBOX_URL)) }
+        assertEquals(1, transport.requestCount)
+
+        repeat(5) { transport.enqueue(503, "{\"error\":{\"message\":\"Unavailable\"}}") }
+        assertFailsWith<SimplifyException> { comms.executeSimplifyRequest(cardTokenRequest(Simplify.API_BASE_SANDBOX_URL)) }
+        // each retry waits 50ms, so no more than three attempts fit within the deadline
+        assertTrue(transport.requestCount - 1 in 2..3, "made ${transport.requestCount - 1} attempts")
+    }
+
+    @Test
+    fun testCancelEndsTheWaitBetweenAttempts() {
+        val transport = SimplifyInMemoryTransport()
+        repeat(2) { transport.enqueue(503, "{\"error\":{\"message\":\"Unavailable\"}}") }
+        comms.transport = transport
+        comms.retryPolicy = SimplifyRetryPolicy(maxAttempts = 2, baseDelayMillis = 10000, maxDelayMillis = 10000)
+        val request = cardTokenRequest(Simplify.API_BASE_SANDBOX_URL)
+
+        thread {
+            Thread.sleep(200)
+            request.cancel()
+        }
+
+        val start = System.currentTimeMillis()
+        assertFailsWith<CancellationException> { comms.executeSimplifyRequest(request) }
+        assertTrue(System.currentTimeMillis() - start < 5000)
+        assertEquals(1, transport.requestCount)
+
+        // a cancelled request is not attempted at all
+        assertFailsWith<CancellationException> { comms.executeSimplifyRequest(request) }
+        assertEquals(1, transport.requestCount)
+    }
+
+    @Test
+    fun testDeadlineShortensTimeoutsOfEachAttempt() {
+        val inMemory = SimplifyInMemoryTransport(100)
+        val readTimeouts = ArrayList<Int>()
+        comms.transport = object : SimplifyTransport {
+            override fun execute(request: SimplifyRequest): SimplifyTransport.Response {
+                readTimeouts.add(request.readTimeoutMillis)
+                return inMemory.execute(request)
+            }
+        }
+        comms.retryPolicy = SimplifyRetryPolicy(maxAttempts = 5, baseDelayMillis = 10, maxDelayMillis = 10, deadlineMillis = 250)
+        repeat(5) { inMemory.enqueue(503, "{\"error\":{\"message\":\"Unavailable\"}}") }
+
+        val request = cardTokenRequest(Simplify.API_BASE_SANDBOX_URL)
+        val start = System.nanoTime()
+        assertFailsWith<SocketTimeoutException> { comms.executeSimplifyRequest(request) }
+        val elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+
+        // the last attempt times out when the deadline is reached, rather than waiting for its response
+        assertEquals(3, readTimeouts.size, "read timeouts $readTimeouts")
+        assertTrue(readTimeouts[0] <= 250 && readTimeouts[1] < readTimeouts[0] && readTimeouts[2] < 100, "read timeouts $readTimeouts")
+        assertTrue(elapsedMillis < 330, "took ${elapsedMillis}ms")
+        assertEquals(SimplifyComms.READ_TIMEOUT, request.readTimeoutMillis)
+        assertEquals(SimplifyComms.CONNECTION_TIMEOUT, request.connectTimeoutMillis)
+
+        // no attempt is made once the deadline has passed
+        comms.retryPolicy = SimplifyRetryPolicy(deadlineMillis = 0)
+        assertFailsWith<SocketTimeoutException> { comms.executeSimplifyRequest(cardTokenRequest(Simplify.API_BASE_SANDBOX_URL)) }
+        assertEquals(3, readTimeouts.size)
+    }
+
+    @Test
+    fun testTimeoutsAreTakenFromRequest() {
+        val request = cardTokenRequest(Simplify.API_BASE_SANDBOX_URL)
+        request.connectTimeoutMillis = 1234
+        request.readTimeoutMillis = 5678
+
+        val c = comms.httpsTransport.createHttpsUrlConnection(request)
+
+        assertEquals(1234, c.connectTimeout)
+        assertEquals(5678, c.readTimeout)
+    }
+
+    @Test
+    fun testCancelClosesBlockedConnection() {
+        comms.httpsTransport.socketFactory = TlsSocketFactory(localContext())
+        val release = CountDownLatch(1)
+        val url = startLocalServer(onRequest = { release.await(10, TimeUnit.SECONDS) })
+        val request = cardTokenRequest(url)
+
+        thread {
+            Thread.sleep(200)
+            request.cancel()
+        }
+
+        val start = System.currentTimeMillis()
+        try {
+            comms.executeSimplifyRequest(request)
+            fail("Should have thrown a CancellationException once cancelled")
+        } catch (e: CancellationException) {
+            assertTrue(System.currentTimeMillis() - start < 5000)
+        } finally {
+            release.countDown()
+        }
+    }
+
+    @Test
+    fun testDisposingSingleCancelsRequest() {
+        comms.transport = SimplifyInMemoryTransport(10000)
+        val request = cardTokenRequest(Simplify.API_BASE_SANDBOX_URL)
+
+        val disposable = comms.runSimplifyRequest(request).subscribeOn(Schedulers.io()).subscribe({}, {})
+        Thread.sleep(100)
+        disposable.dispose()
+
+        assertTrue(request.isCancelled)
+    }
+
+    @Test
+    fun testCancellingCoroutineCancelsRequest() {
+        val finished = CountDownLatch(1)
+        val inMemory = SimplifyInMemoryTransport(10000)
+        comms.transport = object : SimplifyTransport {
+            override fun execute(request: SimplifyRequest): SimplifyTransport.Response {
+                try {
+                    return inMemory.execute(request)
+                } finally {
+                    finished.countDown()
+                }
+            }
+        }
+
+        runBlocking {
+            val job = launch { comms.awaitSimplifyRequest(cardTokenRequest(Simplify.API_BASE_SANDBOX_URL)) }
+            delay(100)
+            job.cancelAndJoin()
+        }
+
+        // the blocked transport call is released, not left running until its latency ends
+        assertTrue(finished.await(2, TimeUnit.SECONDS))
+    }
+
+    @Test
+    fun testCancelledCallbackIsNotInvoked() {
+        comms.transport = SimplifyInMemoryTransport(10000)
+        val request = cardTokenRequest(Simplify.API_BASE_SANDBOX_URL)
+        var invoked = false
+
+        comms.runSimplifyRequest(request, object : SimplifyCallback {
+            override fun onSuccess(response: SimplifyMap) {
+                invoked = true
+            }
+
+            override fun onError(throwable: Throwable) {
+                invoked = true
+            }
+        })
+        Thread.sleep(100)
+        SimplifyCall(listOf(request)).cancel()
+        Thread.sleep(200)
+
+        assertFalse(invoked)
+    }
+
+    @Test
+    fun testWarmUpKeepsConnectionForNextRequest() {
+        val factory = TlsSocketFactory(localContext())
+        comms.httpsTransport.socketFactory = factory
+        comms.httpsTransport.connectionPool = SimplifyConnectionPool(hosts = setOf("localhost"))
+        val url = startLocalServer()
+
+        val result = comms.executeWarmUp(url)
+
+        assertTrue(result.isConnectionKept)
+        assertNull(result.isConnectionReused)
+        assertEquals("", receivedBody)
+
+        comms.executeSimplifyRequest(cardTokenRequest(url))
+
+        assertEquals(true, result.isConnectionReused)
+        assertEquals(1, factory.socketsCreated)
+        assertEquals(1, factory.fullHandshakes)
+    }
+
+    @Test
+    fun testLazyNumbersKeepResponseNumbersExact() {
+        val transport = SimplifyInMemoryTransport()
+        transport.enqueue(200, "{\"id\":\"tok_123\",\"amount\":9007199254740993}")
+        transport.enqueue(200, "{\"id\":\"tok_123\",\"amount\":9007199254740993}")
+        comms.transport = transport
+        val logger = RecordingLogger()
+        comms.logger = logger
+
+        assertEquals(9007199254740992L, comms.executeSimplifyRequest(cardTokenRequest(Simplify.API_BASE_SANDBOX_URL)).getLong("amount"))
+
+        comms.lazyNumbers = true
+        val response = comms.executeSimplifyRequest(cardTokenRequest(Simplify.API_BASE_SANDBOX_URL))
+        assertEquals(9007199254740993L, response.getLong("amount"))
+        assertEquals(LazyNumber("9007199254740993"), response["amount"])
+
+        // lazy numbers are written back as they were read
+        val request = SimplifyRequest(Simplify.API_BASE_SANDBOX_URL, SimplifyRequest.Method.POST, response)
+        comms.executeSimplifyRequest(request)
+        assertEquals("{\"id\":\"tok_123\",\"amount\":9007199254740993}", logger.requestData)
+    }
+
+    @Test
+    fun testLazyResponsesReadLikeEagerResponses() {
+        val body = "{\"id\":\"tok_123\",\"card\":{\"last4\":\"4242\"},\"amount\":1000}"
+        val transport = SimplifyInMemoryTransport()
+        transport.enqueue(200, body)
+        transport.enqueue(200, body)
+        comms.transport = transport
+        val logger = RecordingLogger()
+        comms.logger = logger
+
+        val eager = comms.executeSimplifyRequest(cardTokenRequest(Simplify.API_BASE_SANDBOX_URL))
+
+        comms.lazyResponses = true
+        val lazy = comms.executeSimplifyRequest(cardTokenRequest(Simplify.API_BASE_SANDBOX_URL))
+        assertEquals("4242", lazy.getString("card.last4"))
+        assertEquals(eager, lazy)
+        assertEquals(body, logger.responseData)
+    }
+
+    private fun cardTokenRequest(baseUrl: String): SimplifyRequest {
+        return SimplifyRequest(baseUrl + Simplify.API_PATH_CARDTOKEN, SimplifyRequest.Method.POST, SimplifyMap("card.number", "5555555555554444"))
+    }
+
+    // starts a local stand-in for the Simplify API, returns its base url
+    private fun startLocalServer(status: Int = 200, responseBody: String = CARD_TOKEN_RESPONSE, onRequest: () -> Unit = {}): String {
+        val s = HttpsServer.create(InetSocketAddress("localhost", 0), 0)
+        s.httpsConfigurator = HttpsConfigurator(localContext())
+        s.createContext("/") { exchange ->
+            receivedHeaders = exchange.requestHeaders.toMap()
+            receivedBody = exchange.requestBody.use { it.readBytes().toString(Charsets.UTF_8) }
+            onRequest()
+
+            val body = responseBody.toByteArray()
+            exchange.responseHeaders.add("Content-Type", "application/json")
+            exchange.sendResponseHeaders(status, body.size.toLong())
+            exchange.responseBody.use { it.write(body) }
+        }
+        s.start()
+        server = s
+
+        return "https://localhost:${s.address.port}/v1/api"
+    }
+
+    // a context that presents, and trusts, the self-signed localhost certificate
+    private fun localContext(): SSLContext {
+        val keyStore = KeyStore.getInstance("PKCS12")
+        javaClass.classLoader!!.getResourceAsStream("localhost.p12").use { keyStore.load(it, KEYSTORE_PASSWORD) }
+
+        val kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm())
+        kmf.init(keyStore, KEYSTORE_PASSWORD)
+
+        val tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm())
+        tmf.init(keyStore)
+
+        return SSLContext.getInstance("TLSv1.2").apply {
+            init(kmf.keyManagers, tmf.trustManagers, null)
+        }
+    }
+
+    private class RecordingLogger(override val isEnabled: Boolean = true) : Logger {
+        var requestData: String? = null
+        var responseData: String? = null
+
+        override fun logRequest(request: SimplifyRequest, data: String?) {
+            requestData = data
+        }
+
+        override fun logResponse(response: SimplifyTransport.Response, data: String?) {
+            responseData = data
+        }
+
+        override fun logDebug(message: String) {}
+    }
+
+    companion object {
+        private val KEYSTORE_PASSWORD = "simplify".toCharArray()
+        private const val CARD_TOKEN_RESPONSE = "{\"id\":\"tok_123\",\"card\":{\"last4\":\"4444\",\"secure3DData\":{\"isEnrolled\":true}}}"
+        private const val EXPECTED_REQUEST_BODY = "{\"card\":{\"number\":\"5555555555554444\"}}"
+    }
+}
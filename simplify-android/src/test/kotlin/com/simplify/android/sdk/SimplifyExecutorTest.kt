@@ -0,0 +1,71 @@
+package com.simplify.android.sdk
+
+import org.junit.After
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeUnit
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+import kotlin.test.fail
+
+class SimplifyExecutorTest {
+
+    private val executor = SimplifyExecutor(poolSize = 1, queueCapacity = 1)
+
+    @After
+    fun tearDown() {
+        executor.shutdownNow()
+    }
+
+    @Test
+    fun testRunsOnNamedDaemonThreads() {
+        var thread: Thread? = null
+        val done = CountDownLatch(1)
+
+        executor.execute {
+            thread = Thread.currentThread()
+            done.countDown()
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS))
+        assertTrue(thread!!.isDaemon)
+        assertTrue(thread!!.name.startsWith(SimplifyExecutor.THREAD_NAME_PREFIX))
+    }
+
+    @Test
+    fun testRejectsWhenQueueIsFullAndReportsStats() {
+        val started = CountDownLatch(1)
+        val release = CountDownLatch(1)
+        val done = CountDownLatch(2)
+
+        // occupy the only thread, then fill the queue
+        executor.execute {
+            started.countDown()
+            release.await()
+            done.countDown()
+        }
+        started.await()
+        executor.execute { done.countDown() }
+
+        assertEquals(1, executor.activeThreads)
+        assertEquals(1, executor.queueDepth)
+
+        try {
+            executor.execute { }
+            fail("Should have rejected a request when the queue is full")
+        } catch (e: RejectedExecutionException) {
+            // expected
+        }
+
+        assertEquals(1, executor.rejectedCount)
+
+        Thread.sleep(20)
+        release.countDown()
+
+        assertTrue(done.await(5, TimeUnit.SECONDS))
+        assertEquals(0, executor.queueDepth)
+        assertTrue(executor.maxQueueWaitMillis >= 20)
+        assertTrue(executor.totalQueueWaitMillis >= executor.maxQueueWaitMillis)
+    }
+}
@@ -0,0 +1,227 @@
+package com.simplify.android.sdk
+
+import com.google.gson.Gson
+import com.google.gson.GsonBuilder
+import com.google.gson.JsonSyntaxException
+import com.google.gson.TypeAdapter
+import com.google.gson.TypeAdapterFactory
+import com.google.gson.reflect.TypeToken
+import org.junit.Test
+import java.io.StringReader
+import java.lang.reflect.Type
+import java.util.ArrayList
+import java.util.Collections
+import java.util.IdentityHashMap
+import java.util.UUID
+import java.util.concurrent.CountDownLatch
+import kotlin.concurrent.thread
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertNull
+import kotlin.test.assertSame
+import kotlin.test.assertTrue
+
+class SimplifyJsonTest {
+
+    @Test
+    fun testTypeAdapterReadsSimplifyMapsAtEveryLevel() {
+        val gson = GsonBuilder().registerTypeAdapter(SimplifyMap::class.java, SimplifyMap.typeAdapter()).create()
+
+        val map = gson.fromJson(RESPONSE, SimplifyMap::class.java)
+
+        assertTrue(map["card"] is SimplifyMap)
+        assertTrue(map["fees"] is ArrayList<*>)
+        assertTrue((map["fees"] as List<*>)[0] is SimplifyMap)
+        assertEquals("4242", map["card.last4"])
+        assertEquals(12.0, map["card.expMonth"])
+        assertEquals(true, map["used"])
+        assertEquals("flat", map["fees[1].type"])
+        assertNull(gson.fromJson("null", SimplifyMap::class.java))
+    }
+
+    @Test
+    fun testTypeAdapterWritesWhatItReads() {
+        val map = SimplifyJson.gson.fromJson(RESPONSE, SimplifyMap::class.java)
+
+        assertEquals(map, SimplifyJson.gson.fromJson(SimplifyJson.gson.toJson(map), SimplifyMap::class.java))
+        assertEquals("{\"a\":[1,\"b\",null,{\"c\":true}],\"d\":\"e\"}",
+                SimplifyJson.gson.toJson(SimplifyMap()
+                        .set("a", listOf(1, "b", null, mapOf("c" to true)))
+                        .set("d", StringBuilder("e"))))
+    }
+
+    @Test
+    fun testLazyMapsOnlyDecodeWhatIsRead() {
+        // the malformed values would fail if they were decoded
+        val map = SimplifyJson.readMapLazily(("{\"id\":\"tok_123\",\"card\":{\"last4\":\"4242\",\"bad\":[1}}," +
+                "\"secure3DData\":{\"paReq\":{\"a\":[1}}},\"list\":[1,{\"a\":2}]}").toByteArray())
+
+        assertEquals("tok_123", map["id"])
+        assertEquals("4242", map.getString("card.last4"))
+        assertTrue(map.containsKey("secure3DData"))
+        assertEquals(listOf(1.0, SimplifyMap("a", 2.0)), map["list"])
+        assertEquals(SimplifyMap("a", 2.0), map["list[1]"])
+
+        assertFailsWith<JsonSyntaxException> { map["card.bad"] }
+        assertFailsWith<JsonSyntaxException> { map["secure3DData.paReq.a"] }
+    }
+
+    @Test
+    fun testLazyMapsCompareAndSerializeLikeEagerMaps() {
+        val json = RESPONSE.replace("\"used\":true", "\"used\" : true, \"gone\":null, \"esc\\u0061ped\":\"\\u00e9\"")
+
+        val eager = SimplifyJson.readMap(StringReader(json))
+        val lazy = SimplifyJson.readMapLazily(json.toByteArray())
+        assertEquals(eager, lazy)
+        assertEquals(lazy, SimplifyJson.readMapLazily(json.toByteArray()))
+        assertEquals(SimplifyJson.readMapLazily(json.toByteArray()), eager)
+        assertEquals(eager.hashCode(), SimplifyJson.readMapLazily(json.toByteArray()).hashCode())
+        assertEquals(eager.keys.toList(), lazy.keys.toList())
+        assertEquals("\u00e9", lazy["escaped"])
+
+        assertEquals(SimplifyJson.gson.toJson(eager), SimplifyJson.gson.toJson(SimplifyJson.readMapLazily(json.toByteArray())))
+        assertEquals(eager.toString(), SimplifyJson.readMapLazily(json.toByteArray()).toString())
+
+        val lazyNumbers = SimplifyJson.readMapLazily("{\"amount\":9007199254740993}".toByteArray(), true)
+        assertEquals(9007199254740993L, lazyNumbers.getLong("amount"))
+
+        assertTrue(SimplifyJson.readMapLazily(" ".toByteArray()).isEmpty())
+        assertTrue(SimplifyJson.readMapLazily("null".toByteArray()).isEmpty())
+        assertTrue(SimplifyJson.readMapLazily("{ }".toByteArray()).isEmpty())
+        assertFailsWith<JsonSyntaxException> { SimplifyJson.readMapLazily("{\"a\" 1}".toByteArray()) }
+        assertFailsWith<JsonSyntaxException> { SimplifyJson.readMapLazily("{\"a\":\"1}".toByteArray()) }
+        assertFailsWith<JsonSyntaxException> { SimplifyJson.readMapLazily("[1]".toByteArray()) }
+    }
+
+    @Test
+    fun testLazyMapsDecodeEachValueOnceAcrossThreads() {
+        repeat(200) {
+            val map = SimplifyJson.readMapLazily(RESPONSE.toByteArray())
+            val start = CountDownLatch(1)
+            val cards = arrayOfNulls<Any>(8)
+            val threads = List(cards.size) { i ->
+                thread {
+                    start.await()
+                    cards[i] = if (i % 2 == 0) map["card"] else map.entries.first { it.key == "card" }.value
+                }
+            }
+
+            start.countDown()
+            threads.forEach { it.join() }
+
+            cards.forEach { card ->
+                assertSame(cards[0], card)
+                assertEquals("4242", (card as SimplifyMap)["last4"])
+            }
+        }
+    }
+
+    @Test
+    fun testTruncatedDocumentsFail() {
+        val truncated = "{\"id\":\"tok_1\",\"card\":{"
+
+        assertFailsWith<JsonSyntaxException> { SimplifyJson.readMap(StringReader(truncated)) }
+        assertFailsWith<JsonSyntaxException> { SimplifyJson.readMap(StringReader("{\"id\":\"tok_1\"")) }
+        assertFailsWith<JsonSyntaxException> { SimplifyJson.readMapLazily(truncated.toByteArray()) }
+        assertFailsWith<JsonSyntaxException> { SimplifyMap(truncated) }
+
+        assertTrue(SimplifyJson.readMap(StringReader("")).isEmpty())
+        assertTrue(SimplifyJson.readMap(StringReader(" \n")).isEmpty())
+        assertTrue(SimplifyMap("null").isEmpty())
+    }
+
+    @Test
+    fun testMapsNeverGoThroughReflectiveAdapters() {
+        // how response maps used to be built: a generic Gson map, looking up adapters for every type it holds
+        val reflective = CountingAdapterFactory()
+        GsonBuilder().registerTypeAdapterFactory(reflective).create().fromJson<Map<String, Any>>(RESPONSE, object : TypeToken<Map<String, Any>>() {}.type)
+        assertTrue(reflective.requested.size > 1, reflective.requested.toString())
+
+        val streaming = CountingAdapterFactory()
+        // the factories registered last are consulted first, so every lookup is counted
+        val gson = GsonBuilder()
+                .registerTypeHierarchyAdapter(SimplifyMap::class.java, SimplifyMapTypeAdapter.DEFAULT)
+                .registerTypeAdapterFactory(streaming)
+                .create()
+        val map = gson.fromJson(RESPONSE, SimplifyMap::class.java)
+        assertEquals(map, gson.fromJson(gson.toJson(map), SimplifyMap::class.java))
+        assertEquals(setOf<Type>(SimplifyMap::class.java), streaming.requested)
+    }
+
+    @Test
+    fun testStringPoolSharesKeysAndShortValues() {
+        val pool = SimplifyStringPool()
+
+        val first = SimplifyJson.readMap(StringReader(RESPONSE), stringPool = pool)
+        val second = SimplifyJson.readMap(StringReader(RESPONSE), stringPool = pool)
+        val lazy = SimplifyJson.readMapLazily(RESPONSE.toByteArray(), stringPool = pool)
+
+        assertEquals(SimplifyJson.readMap(StringReader(RESPONSE)), first)
+        assertEquals(first, lazy)
+        first.keys.zip(second.keys).forEach { (a, b) -> assertSame(a, b) }
+        first.keys.zip(lazy.keys).forEach { (a, b) -> assertSame(a, b) }
+        assertSame(first["card.type"], second["card.type"])
+        assertSame(first["card.addressCity"], lazy["card.addressCity"])
+        assertSame(first["fees[1].type"], second["fees[1].type"])
+        assertTrue(pool.hitRate > 0.5, pool.toString())
+
+        // a full pool replaces strings rather than growing
+        val small = SimplifyStringPool(4, 8)
+        val strings = (0 until 1000).map { "v$it" }
+        strings.forEach { assertEquals(it, small.intern(String(it.toCharArray()))) }
+        assertEquals(1000L, small.internMisses)
+        assertSame(small.intern("card"), SimplifyStringPool().intern(String("card".toCharArray())))
+        assertEquals("a long string value", small.intern("a long string value"))
+        assertEquals(1001L, small.internHits + small.internMisses)
+    }
+
+    @Test
+    fun testPooledTokensShareTheirStrings() {
+        val responses = Array(TOKENS) { i -> RESPONSE.replace("tok_123", UUID(i.toLong(), i * 31L).toString()) }
+
+        val plain = responses.map { SimplifyJson.readMap(StringReader(it)) }
+        val pool = SimplifyStringPool()
+        val pooled = responses.map { SimplifyJson.readMap(StringReader(it), stringPool = pool) }
+        assertEquals(plain, pooled)
+
+        // every token keeps its own copy of each key and string value, unless pooled. Pooled, equal strings are
+        // kept once, except the ids, too long for the pool, which are kept once per token
+        val copiesPerToken = distinctStrings(plain.take(1))
+        assertEquals(TOKENS * copiesPerToken.size, distinctStrings(plain).size)
+        assertEquals(TOKENS + HashSet(copiesPerToken).size - 1, distinctStrings(pooled).size)
+        assertTrue(pool.hitRate > 0.99, pool.toString())
+    }
+
+    // the distinct string instances used as keys and values in the trees
+    private fun distinctStrings(trees: List<Any>): Set<String> {
+        val strings = Collections.newSetFromMap(IdentityHashMap<String, Boolean>())
+        val pending = ArrayList<Any>(trees)
+        while (pending.isNotEmpty()) {
+            when (val value = pending.removeAt(pending.size - 1)) {
+                is String -> strings.add(value)
+                is Map<*, *> -> value.forEach { (k, v) -> pending.add(k!!); pending.add(v!!) }
+                is List<*> -> value.forEach { pending.add(it!!) }
+            }
+        }
+        return strings
+    }
+
+    // records the types Gson looks up adapters for, leaving the adapters to the other factories
+    private class CountingAdapterFactory : TypeAdapterFactory {
+
+        val requested = HashSet<Type>()
+
+        override fun <T : Any?> create(gson: Gson, type: TypeToken<T>): TypeAdapter<T>? {
+            requested.add(type.type)
+            return null
+        }
+    }
+
+    companion object {
+        private const val TOKENS = 10000
+
+        private const val RESPONSE = "{\"id\":\"tok_123\",\"used\":true,\"card\":{\"id\":\"card_1\",\"last4\":\"4242\"," +
+                "\"type\":\"VISA\",\"expMonth\":12,\"expYear\":99,\"addressCity\":\"OFallon\",\"dateCreated\":1559347200000}," +
+                "\"fees\":[{\"type\":\"percentage\",\"amount\":2.5},{\"type\":\"flat\",\"amount\":30}]}"
+    }
+}
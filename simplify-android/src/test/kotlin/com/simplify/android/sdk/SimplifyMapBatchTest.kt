@@ -0,0 +1,143 @@
+package com.simplify.android.sdk
+
+import org.junit.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertTrue
+
+class SimplifyMapBatchTest {
+
+    @Test
+    fun testGetAllMatchesGet() {
+        val map = SimplifyMap()
+                .set("card.secure3DData.acsUrl", "https://acs")
+                .set("card.secure3DData.md", "md")
+                .set("card.number", "5555555555554444")
+                .set("fees[0].amount", 10)
+                .set("fees[1].amount", 20)
+                .set("id", "tok_123")
+
+        val paths = arrayOf("card.secure3DData.acsUrl", "id", "fees[1].amount", "card.secure3DData.paReq",
+                "missing.a.b", "card.number", "fees[0].amount", "fees[].amount", "card.secure3DData.md")
+
+        assertEquals(paths.map { map[it] }, map.getAll(*paths).toList())
+        assertTrue(map.getAll(*emptyArray<String>()).isEmpty())
+
+        assertFailsWith<IllegalArgumentException> { map.getAll("id.a", "card.number") }
+        assertFailsWith<IllegalArgumentException> { map.getAll("card[0].number") }
+    }
+
+    @Test
+    fun testSetAllMatchesSet() {
+        val values = linkedMapOf<String, Any>(
+                "card.number" to "5555555555554444",
+                "amount" to 1000,
+                "secure3DRequestData.amount" to 1000,
+                "card.expMonth" to "01",
+                "fees[0].amount" to 10,
+                "card.address.city" to "Dublin",
+                "fees[1].amount" to 20,
+                "fees[0].currency" to "USD",
+                "card.expYear" to "50",
+                "secure3DRequestData.currency" to "USD")
+
+        assertSetAllMatchesSet(values, SimplifyMap("id", "tok_123"))
+
+        // paths that add array elements, or replace a map that the previous path wrote into, are not shared
+        assertSetAllMatchesSet(linkedMapOf("fees[].amount" to 10, "fees[].currency" to "USD"), SimplifyMap())
+        assertSetAllMatchesSet(linkedMapOf("card.address.city" to "Dublin", "card.address" to "none", "card.name" to "a"), SimplifyMap())
+        assertSetAllMatchesSet(linkedMapOf("card" to SimplifyMap("number", "1"), "card.name" to "a"), SimplifyMap("card.cvc", "123"))
+        assertSetAllMatchesSet(linkedMapOf("fees[0].amount" to 10, "fees" to arrayListOf<Any>(), "fees[0].currency" to "USD"), SimplifyMap())
+
+        assertSetAllMatchesSet(emptyMap(), SimplifyMap("id", "tok_123"))
+        assertFailsWith<IllegalArgumentException> { SimplifyMap("card", "none").setAll(mapOf("card.number" to "1")) }
+    }
+
+    @Test
+    fun testFlattenAndUnflatten() {
+        val map = SimplifyMap("{\"id\":\"tok_123\",\"card\":{\"number\":\"5555555555554444\",\"secure3DData\":{\"md\":\"md\"}}," +
+                "\"fees\":[{\"amount\":10,\"tags\":[\"a\",\"b\"]},{\"amount\":20}],\"matrix\":[[1],[2]],\"empty\":{},\"none\":[]}")
+
+        val flat = map.flatten()
+        assertEquals(listOf("id", "card.number", "card.secure3DData.md", "fees[0].amount", "fees[0].tags[0]", "fees[0].tags[1]",
+                "fees[1].amount", "matrix", "empty", "none"), flat.keys.toList())
+        assertEquals("b", flat["fees[0].tags[1]"])
+        assertEquals(map["matrix"], flat["matrix"])
+
+        val unflattened = SimplifyMap.unflatten(flat)
+        assertEquals<Map<String, Any>>(map, unflattened)
+        assertEquals(map.toString(), unflattened.toString())
+
+        val visited = ArrayList<String>()
+        map.flatten(object : SimplifyMapVisitor {
+            override fun visit(keyPath: String, value: Any) {
+                visited.add(keyPath)
+            }
+        })
+        assertEquals(flat.keys.toList(), visited)
+
+        // the writer stores array elements in their lists, appending for an empty or next index
+        val written = SimplifyMap()
+        written.writer().apply {
+            visit("tags[]", "a")
+            visit("tags[1]", "b")
+            visit("tags[0]", "c")
+        }
+        assertEquals(listOf("c", "b"), written["tags"])
+        assertFailsWith<IndexOutOfBoundsException> { written.writer().visit("tags[5]", "d") }
+
+        assertFailsWith<IllegalArgumentException> { SimplifyMap().apply { putAll(mapOf("a.b" to 1)) }.flatten() }
+    }
+
+    @Test
+    fun testBatchesWalkSharedPrefixesOnce() {
+        // 64 key paths, three levels deep, under nested maps that count their lookups
+        val keyPaths = (0 until 64).map { KeyPath.of("key${it / 16}.key${it / 4 % 4}.key${it % 4}") }.toTypedArray()
+        val nested = ArrayList<CountingMap>()
+        val map = SimplifyMap()
+        for (i in 0 until 4) {
+            val level1 = CountingMap().also { nested.add(it) }
+            for (j in 0 until 4) {
+                val level2 = CountingMap().also { nested.add(it) }
+                for (k in 0 until 4) {
+                    level2["key$k"] = "key$i.key$j.key$k"
+                }
+                level1["key$j"] = level2
+            }
+            map["key$i"] = level1
+        }
+
+        // one by one, every key path looks up both nested levels
+        assertEquals(keyPaths.map { it.path }, keyPaths.map { map[it] })
+        assertEquals(128, nested.sumBy { it.lookups })
+        nested.forEach { it.lookups = 0 }
+
+        // batched, the first level is looked up once for each of its 16 maps, then each value once
+        assertEquals(keyPaths.map { it.path }, map.getAll(*keyPaths).toList())
+        assertEquals(16 + 64, nested.sumBy { it.lookups })
+        nested.forEach { it.lookups = 0 }
+
+        // writing finds the nested maps the same way
+        map.setAll(keyPaths.associate { it.path to "new" as Any })
+        assertEquals(16, nested.sumBy { it.lookups })
+        assertTrue(map.getAll(*keyPaths).all { it == "new" })
+    }
+
+    private fun assertSetAllMatchesSet(values: Map<String, Any>, initial: SimplifyMap) {
+        val expected = SimplifyMap(initial.snapshot().toSimplifyMap())
+        values.forEach { (k, v) -> expected.set(k, v) }
+
+        val actual = initial.setAll(values)
+        assertEquals(expected.toString(), actual.toString())
+    }
+
+    private class CountingMap : LinkedHashMap<String, Any>() {
+
+        var lookups = 0
+
+        override fun get(key: String): Any? {
+            lookups++
+            return super.get(key)
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.simplify.android.sdk
+
+import android.os.Parcel
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import java.math.BigDecimal
+import java.math.BigInteger
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertTrue
+
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE)
+class SimplifyMapCodecTest {
+
+    @Test
+    fun testBytesRoundTripKeepsValueTypes() {
+        val map = SimplifyMap()
+                .set("id", "tok_123")
+                .set("used", false)
+                .set("amount", 1000)
+                .set("fee", -9007199254740993L)
+                .set("rate", 2.5)
+                .set("ratio", 0.5f)
+                .set("exact", BigDecimal("0.10"))
+                .set("huge", BigInteger("123456789012345678901234567890"))
+                .set("lazy", LazyNumber("12.50"))
+                .set("card.secure3DData.acsUrl", "https://acs.example.com/é")
+                .set("items", arrayListOf<Any?>(1, null, arrayListOf("a"), SimplifyMap("id", "x")))
+                .set("other", StringBuilder("text"))
+                .set("empty", SimplifyMap())
+
+        val read = SimplifyMap.fromBytes(map.toBytes())
+
+        assertEquals(map.toString(), read.toString())
+        assertEquals(map.keys.toList(), read.keys.toList())
+        assertEquals(1000, read["amount"])
+        assertEquals(-9007199254740993L, read["fee"])
+        assertEquals(0.5f, read["ratio"])
+        assertEquals(BigDecimal("0.10"), read["exact"])
+        assertEquals(LazyNumber("12.50"), read["lazy"])
+        assertEquals("text", read["other"])
+        assertTrue(read["card"] is SimplifyMap)
+        assertTrue(read["items[3]"] is SimplifyMap)
+    }
+
+    @Test
+    fun testMalformedBytesAreRejected() {
+        val bytes = SimplifyMap("card.number", "5555555555554444").toBytes()
+
+        assertFailsWith<IllegalArgumentException> { SimplifyMap.fromBytes(bytes.copyOf(bytes.size - 1)) }
+        assertFailsWith<IllegalArgumentException> { SimplifyMap.fromBytes(bytes + 0) }
+        assertFailsWith<IllegalArgumentException> { SimplifyMap.fromBytes(byteArrayOf(2, 0, 0)) }
+        assertFailsWith<IllegalArgumentException> { SimplifyMap.fromBytes(byteArrayOf(1, 0x7f, 0)) }
+        assertFailsWith<IllegalArgumentException> { SimplifyMap.fromBytes(byteArrayOf()) }
+    }
+
+    @Test
+    fun testParcelRoundTrip() {
+        val map = SimplifyMap("secure3d.authenticated", true).set("secure3d.id", "3ds_1")
+
+        val parcel = Parcel.obtain()
+        map.writeToParcel(parcel, 0)
+        parcel.setDataPosition(0)
+        val read = SimplifyMap.CREATOR.createFromParcel(parcel)
+        parcel.recycle()
+
+        assertEquals<Map<String, Any>>(map, read)
+    }
+
+    @Test
+    fun testBytesAreSmallerThanJson() {
+        val map = SimplifyMap()
+        for (i in 0 until 20) {
+            map.set("data[$i].id", "tok_$i")
+                    .set("data[$i].amount", 1000L + i)
+                    .set("data[$i].card.last4", "4444")
+                    .set("data[$i].card.expMonth", 1 + i % 12)
+                    .set("data[$i].card.secure3DData.isEnrolled", i % 2 == 0)
+                    .set("data[$i].rate", i / 8.0)
+        }
+
+        val json = SimplifyJson.gson.toJson(map).toByteArray(Charsets.UTF_8)
+        val bytes = map.toBytes()
+
+        // keys are written once, in the string table, rather than once per map
+        assertEquals(20, occurrences(json, "secure3DData"))
+        assertEquals(1, occurrences(bytes, "secure3DData"))
+        assertEquals(1, occurrences(bytes, "expMonth"))
+        assertEquals(920, bytes.size)
+        assertEquals(2298, json.size)
+        assertEquals<Map<String, Any>>(map, SimplifyMap.fromBytes(bytes))
+    }
+
+    private fun occurrences(bytes: ByteArray, key: String): Int {
+        val text = String(bytes, Charsets.ISO_8859_1)
+        return text.windowed(key.length).count { it == key }
+    }
+}
@@ -0,0 +1,145 @@
+package com.simplify.android.sdk
+
+import org.junit.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertNotEquals
+import kotlin.test.assertTrue
+
+class SimplifyMapDiffTest {
+
+    @Test
+    fun testDiffListsChangedKeyPaths() {
+        val submitted = SimplifyMap()
+                .set("card.number", "5555555555554444")
+                .set("card.address.city", "OFallon")
+                .set("card.cvc", "123")
+                .set("fees", arrayListOf(SimplifyMap("amount", 100), SimplifyMap("amount", 200)))
+                .set("tags", arrayListOf("a", "b"))
+
+        val cached = SimplifyMap()
+                .set("card.number", "5555555555554444")
+                .set("card.address.city", "Dublin")
+                .set("card.expMonth", 12)
+                .set("fees", arrayListOf(SimplifyMap("amount", 100), SimplifyMap("amount", 250)))
+                .set("tags", arrayListOf("a"))
+
+        assertEquals(listOf(
+                SimplifyMapOperation(SimplifyMapOperation.Type.REPLACE, "card.address.city", "Dublin"),
+                SimplifyMapOperation(SimplifyMapOperation.Type.REMOVE, "card.cvc", null),
+                SimplifyMapOperation(SimplifyMapOperation.Type.ADD, "card.expMonth", 12),
+                SimplifyMapOperation(SimplifyMapOperation.Type.REPLACE, "fees[1].amount", 250),
+                SimplifyMapOperation(SimplifyMapOperation.Type.REPLACE, "tags", listOf("a"))
+        ), submitted.diff(cached))
+
+        assertEquals(emptyList(), submitted.diff(SimplifyMap(submitted)))
+        assertEquals<Map<String, Any>>(cached, submitted.applyPatch(submitted.diff(cached)))
+    }
+
+    @Test
+    fun testApplyPatch() {
+        val map = SimplifyMap()
+                .set("card.number", "5555555555554444")
+                .set("fees", arrayListOf(SimplifyMap("amount", 100), SimplifyMap("amount", 200)))
+                .set("data.tags", arrayListOf("a", "b", "c"))
+
+        map.applyPatch(listOf(
+                SimplifyMapOperation(SimplifyMapOperation.Type.REPLACE, "fees[0].amount", 150),
+                SimplifyMapOperation(SimplifyMapOperation.Type.REMOVE, "fees[1]", null),
+                SimplifyMapOperation(SimplifyMapOperation.Type.REMOVE, "data.tags[0]", null),
+                SimplifyMapOperation(SimplifyMapOperation.Type.REPLACE, "data.tags[1]", "d"),
+                SimplifyMapOperation(SimplifyMapOperation.Type.ADD, "data.tags[]", "e"),
+                SimplifyMapOperation(SimplifyMapOperation.Type.ADD, "card.address.city", "OFallon"),
+                SimplifyMapOperation(SimplifyMapOperation.Type.REMOVE, "card.missing.value", null)
+        ))
+
+        assertEquals(150, map["fees[0].amount"])
+        assertEquals(1, (map["fees"] as List<*>).size)
+        assertEquals(listOf("b", "d", "e"), map["data.tags"])
+        assertEquals("OFallon", map["card.address.city"])
+        assertFailsWith<IllegalArgumentException> { SimplifyMapOperation(SimplifyMapOperation.Type.ADD, "a", null) }
+        assertFailsWith<IllegalArgumentException> { SimplifyMap("a.b", 1).diff(SimplifyMap().set("a", SimplifyMap().apply { putRaw("b.c", 1) })) }
+    }
+
+    @Test
+    fun testAppliedValuesAreCopies() {
+        val cached = SimplifyMap()
+                .set("card.address.city", "Dublin")
+                .set("fees", arrayListOf(SimplifyMap("amount", 100)))
+        val operations = SimplifyMap().diff(cached)
+
+        val patched = SimplifyMap().applyPatch(operations)
+        patched["card.address.city"] = "OFallon"
+        patched["fees[0].amount"] = 150
+
+        assertEquals("Dublin", cached["card.address.city"])
+        assertEquals(100, cached["fees[0].amount"])
+        assertEquals<Map<String, Any>>(cached, SimplifyMap().applyPatch(operations))
+    }
+
+    @Test
+    fun testSnapshotDiffSkipsSharedBranches() {
+        var snapshot = SimplifyMapSnapshot.EMPTY
+        for (i in 0 until 1000) {
+            snapshot = snapshot.with("data$i.id", "tok_$i").with("data$i.card.last4", "4444")
+        }
+        val updated = snapshot.with("data500.card.last4", "1111").without("data7")
+
+        assertEquals(listOf(
+                SimplifyMapOperation(SimplifyMapOperation.Type.REPLACE, "data500.card.last4", "1111"),
+                SimplifyMapOperation(SimplifyMapOperation.Type.REMOVE, "data7", null)
+        ), snapshot.diff(updated).sortedBy { it.keyPath })
+
+        val patched = snapshot.toSimplifyMap().applyPatch(snapshot.diff(updated))
+        assertEquals<Map<String, Any>>(updated, patched)
+
+        assertNotEquals(snapshot, updated)
+        assertEquals(snapshot.hashCode(), SimplifyMapSnapshot.of(snapshot.toSimplifyMap()).hashCode())
+        assertEquals(snapshot, SimplifyMapSnapshot.of(snapshot.toSimplifyMap()))
+    }
+
+    @Test
+    fun testDiffNeverWalksSharedBranches() {
+        // branches under maps that count how often they are read
+        val cards = (0 until 50).map { CountingMap().apply { put("last4", "4444") } }
+        val shared = cards.mapIndexed { i, card ->
+            CountingMap().apply {
+                put("id", "tok_$i")
+                put("card", card)
+            }
+        }
+        val cached = SimplifyMap()
+        shared.forEachIndexed { i, branch -> cached["data$i"] = branch }
+        val submitted = SimplifyMap(cached).set("status", "APPROVED")
+
+        assertEquals(listOf(SimplifyMapOperation(SimplifyMapOperation.Type.REMOVE, "status", null)), submitted.diff(cached))
+        assertEquals(listOf(SimplifyMapOperation(SimplifyMapOperation.Type.ADD, "status", "APPROVED")), cached.diff(submitted))
+        assertEquals(0, (shared + cards).sumBy { it.reads })
+
+        // an equal branch that is not shared is walked once, down to its values
+        submitted["data0"] = CountingMap().apply {
+            put("id", "tok_0")
+            put("card", CountingMap().apply { put("last4", "4444") })
+        }
+        assertEquals(listOf(SimplifyMapOperation(SimplifyMapOperation.Type.REMOVE, "status", null)), submitted.diff(cached))
+        assertEquals(0, (shared.drop(1) + cards.drop(1)).sumBy { it.reads })
+        assertTrue(shared[0].reads > 0)
+    }
+
+    // counts the times its entries are iterated or its values looked up
+    private class CountingMap : LinkedHashMap<String, Any>() {
+
+        var reads = 0
+
+        override val entries: MutableSet<MutableMap.MutableEntry<String, Any>>
+            get() {
+                reads++
+                return super.entries
+            }
+
+        override fun get(key: String): Any? {
+            reads++
+            return super.get(key)
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.simplify.android.sdk
+
+import org.junit.Test
+import java.io.StringReader
+import java.util.*
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertNull
+import kotlin.test.assertSame
+import kotlin.test.assertTrue
+
+class SimplifyMapSnapshotTest {
+
+    @Test
+    fun testSnapshotIsIsolatedFromTheOriginalMap() {
+        val map = SimplifyMap()
+                .set("card.number", "5555555555554444")
+                .set("card.address.city", "OFallon")
+                .set("fees", arrayListOf(1.0, SimplifyMap("type", "flat")))
+
+        val snapshot = map.snapshot()
+        assertEquals<Map<String, Any>>(map, snapshot)
+        assertEquals<Map<String, Any>>(snapshot, map)
+        assertEquals(map.hashCode(), snapshot.hashCode())
+
+        map["card.number"] = "4111111111111111"
+        (map["fees"] as MutableList<Any>).add(2.0)
+        map.getValue("card").let { (it as MutableMap<String, Any>).remove("address") }
+
+        assertEquals("5555555555554444", snapshot["card.number"])
+        assertEquals("OFallon", snapshot["card.address.city"])
+        assertEquals(2, (snapshot["fees"] as List<*>).size)
+        assertEquals("flat", snapshot["fees[1].type"])
+        assertEquals("flat", snapshot["fees[].type"])
+        assertTrue(snapshot.containsKey("card.address"))
+        assertNull(snapshot["card.missing.city"])
+        assertFailsWith<IllegalArgumentException> { snapshot["card.number.x"] }
+        assertFailsWith<IllegalArgumentException> { snapshot["card[0]"] }
+
+        assertEquals<Map<String, Any>>(SimplifyJson.readMap(StringReader(SimplifyJson.gson.toJson(snapshot))), snapshot)
+        assertEquals<Map<String, Any>>(snapshot, snapshot.toSimplifyMap())
+        assertTrue(snapshot.toSimplifyMap()["card"] is SimplifyMap)
+    }
+
+    @Test
+    fun testUpdatesShareUnchangedPaths() {
+        val original = SimplifyMap()
+                .set("card.number", "5555555555554444")
+                .set("secure3DRequestData.amount", 1000)
+                .snapshot()
+
+        val updated = original.with("card.number", "4111111111111111")
+        assertEquals("5555555555554444", original["card.number"])
+        assertEquals("4111111111111111", updated["card.number"])
+        assertSame(original["secure3DRequestData"], updated["secure3DRequestData"])
+
+        assertSame(original, SimplifyMapSnapshot.of(original))
+        assertSame(original["card"], SimplifyMap("card", original["card"]!!).snapshot()["card"])
+
+        val withList = updated.with("fees[]", SimplifyMap("type", "flat")).with("fees[1].type", "percentage").with("fees[0].amount", 30)
+        assertEquals(listOf(SimplifyMap().set("type", "flat").set("amount", 30), SimplifyMap("type", "percentage")), withList["fees"])
+        assertFailsWith<IndexOutOfBoundsException> { withList.with("fees[3]", 1) }
+        assertFailsWith<IllegalArgumentException> { withList.with("card.number.x", 1) }
+
+        val removed = withList.without("fees[0]").without("card.number").without("missing.key")
+        assertEquals(listOf(SimplifyMap("type", "percentage")), removed["fees"])
+        assertEquals(SimplifyMapSnapshot.EMPTY, removed["card"])
+        assertSame(removed, removed.without("missing"))
+        assertSame(original, original.without("card.missing"))
+    }
+
+    @Test
+    fun testSnapshotsKeepInsertionOrder() {
+        val random = Random(20190615)
+        val expected = LinkedHashMap<String, Any>()
+        var snapshot = SimplifyMapSnapshot.EMPTY
+        val keys = (0 until 100).map { "key$it" }
+
+        repeat(2000) {
+            val key = keys[random.nextInt(keys.size)]
+            if (random.nextInt(3) == 0) {
+                expected.remove(key)
+                snapshot = snapshot.without(key)
+            } else {
+                val value = random.nextInt(100)
+                expected[key] = value
+                snapshot = snapshot.with(key, value)
+            }
+            assertEquals(expected.keys.toList(), snapshot.keys.toList())
+        }
+
+        val map = SimplifyMap().set("number", "5555555555554444").set("expMonth", "01").set("expYear", "50").set("cvc", "123")
+        assertEquals(map.keys.toList(), map.snapshot().keys.toList())
+        assertEquals(SimplifyJson.gson.toJson(map), SimplifyJson.gson.toJson(map.snapshot()))
+        assertEquals(map.keys.toList(), map.snapshot().toSimplifyMap().keys.toList())
+    }
+
+    @Test
+    fun testMapKeepsItsSnapshotUntilChanged() {
+        val map = SimplifyMap()
+                .set("card.number", "5555555555554444")
+                .set("card.address.city", "OFallon")
+                .set("amount", 1000)
+
+        val snapshot = map.snapshot()
+        assertSame(snapshot, map.snapshot())
+        assertSame(snapshot, SimplifyMapSnapshot.of(map))
+
+        // a change to a nested map is a change to the map
+        map["card.address.city"] = "Dublin"
+        val changed = map.snapshot()
+        assertEquals("OFallon", snapshot["card.address.city"])
+        assertEquals("Dublin", changed["card.address.city"])
+        assertSame(changed, map.snapshot())
+
+        map["amount"] = 2000
+        assertEquals(2000, map.snapshot()["amount"])
+        assertSame(changed["card"], map.snapshot()["card"])
+
+        map.remove("amount")
+        assertNull(map.snapshot()["amount"])
+
+        // lists can change without the map knowing, so they are copied every time
+        map["tags"] = arrayListOf("a")
+        val withList = map.snapshot()
+        (map["tags"] as MutableList<Any>).add("b")
+        assertEquals(listOf("a"), withList["tags"])
+        assertEquals(listOf("a", "b"), map.snapshot()["tags"])
+    }
+
+    @Test
+    fun testHashTrieMatchesHashMap() {
+        val random = Random(20190615)
+        val expected = HashMap<String, Any>()
+        var trie = HashTrie.EMPTY
+        val versions = ArrayList<Pair<HashTrie, Map<String, Any>>>()
+
+        // "Aa" and "BB" share a hash code, as do their concatenations
+        val keys = (0 until 2000).map { "key$it" } + listOf("Aa", "BB", "AaAa", "AaBB", "BBAa", "BBBB")
+
+        repeat(20000) {
+            val key = keys[random.nextInt(keys.size)]
+            if (random.nextInt(3) == 0) {
+                expected.remove(key)
+                trie = trie.remove(key)
+            } else {
+                val value = random.nextInt(100)
+                expected[key] = value
+                trie = trie.put(key, value)
+            }
+
+            if (it % 1000 == 0) {
+                versions.add(trie to HashMap(expected))
+            }
+        }
+        versions.add(trie to expected)
+
+        // every version still holds what it held when it was made
+        for ((version, contents) in versions) {
+            assertEquals(contents.size, version.size)
+            keys.forEach { assertEquals(contents[it], version[it]) }
+
+            val iterated = HashMap<String, Any>()
+            version.forEach { key, value -> iterated[key] = value }
+            assertEquals(contents, iterated)
+        }
+    }
+}
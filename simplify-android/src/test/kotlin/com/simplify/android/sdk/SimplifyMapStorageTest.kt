@@ -0,0 +1,248 @@
+package com.simplify.android.sdk
+
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.ObjectInputStream
+import java.io.ObjectOutputStream
+import java.util.*
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertFalse
+import kotlin.test.assertSame
+import kotlin.test.assertTrue
+
+class SimplifyMapStorageTest {
+
+    @Test
+    fun testBehavesLikeLinkedHashMap() {
+        val random = Random(20190701)
+
+        // "Aa" and "BB" share a hash code
+        val keys = (0 until 40).map { "key$it" } + listOf("Aa", "BB", "AaAa", "BBBB", "AaBB")
+
+        repeat(200) {
+            val map = SimplifyMap()
+            val expected = LinkedHashMap<String, Any>()
+            val size = random.nextInt(keys.size)
+
+            repeat(300) {
+                val key = keys[random.nextInt(size + 1)]
+                when (random.nextInt(6)) {
+                    0 -> assertEquals(expected.remove(key), map.remove(key))
+                    1 -> {
+                        // removes through the iterator
+                        val iterator = map.entries.iterator()
+                        val expectedIterator = expected.entries.iterator()
+                        while (iterator.hasNext()) {
+                            val entry = iterator.next()
+                            assertEquals(expectedIterator.next(), entry)
+                            if (entry.key == key) {
+                                iterator.remove()
+                                expectedIterator.remove()
+                            }
+                        }
+                    }
+                    2 -> {
+                        map.entries.firstOrNull { it.key == key }?.setValue("set")
+                        expected.entries.firstOrNull { it.key == key }?.setValue("set")
+                    }
+                    else -> {
+                        val value = random.nextInt(100)
+                        assertEquals(expected.put(key, value), map.put(key, value))
+                    }
+                }
+
+                assertEquals(expected.size, map.size)
+                assertEquals(expected.keys.toList(), map.keys.toList())
+                assertEquals(expected.values.toList(), map.values.toList())
+                keys.forEach {
+                    assertEquals(expected[it], map[it])
+                    assertEquals(expected.containsKey(it), map.containsKey(it))
+                }
+            }
+
+            assertEquals<Map<String, Any>>(expected, map)
+            assertEquals<Map<String, Any>>(map, expected)
+            assertEquals(expected.hashCode(), map.hashCode())
+            assertEquals(expected.toString(), map.toString())
+        }
+    }
+
+    @Test
+    fun testFollowsTheMapContract() {
+        val map = SimplifyMap().set("number", "5555555555554444").set("expMonth", "01").set("expYear", "50")
+
+        assertFailsWith<ConcurrentModificationException> {
+            for (key in map.keys) {
+                map["cvc"] = "123"
+            }
+        }
+
+        assertTrue(map.containsValue("01"))
+        assertTrue(map.values.remove("01"))
+        assertFalse(map.containsKey("expMonth"))
+        assertTrue(map.keys.removeAll(listOf("expYear")))
+        assertEquals(listOf("number", "cvc"), map.keys.toList())
+
+        @Suppress("UNCHECKED_CAST")
+        val copy = map.clone() as SimplifyMap
+        copy.clear()
+        assertTrue(copy.isEmpty())
+        assertEquals(2, map.size)
+
+        assertFailsWith<IllegalArgumentException> { SimplifyMap(-1) }
+        assertFailsWith<IllegalArgumentException> { SimplifyMap(4, 0f) }
+
+        map["address"] = SimplifyMap("city", "Dublin")
+        val bytes = ByteArrayOutputStream().also { ObjectOutputStream(it).writeObject(map) }.toByteArray()
+        val read = ObjectInputStream(ByteArrayInputStream(bytes)).readObject() as SimplifyMap
+        assertEquals<Map<String, Any>>(map, read)
+        assertTrue(read["address"] is SimplifyMap)
+        // the serialized form holds the keys and values, not the store
+        assertFalse(String(bytes, Charsets.ISO_8859_1).contains(CompactStore::class.java.simpleName))
+        read.remove("address")
+        read["expMonth"] = "02"
+        assertEquals(listOf("number", "cvc", "expMonth"), read.keys.toList())
+    }
+
+    @Test
+    fun testSmallPayloadsAreStoredCompactly() {
+        for ((name, keys) in PAYLOADS) {
+            // grown from empty, the arrays at most double the room needed, and small maps have no index
+            val grown = fill(CompactStore(0), keys)
+            assertTrue(grown.capacity < keys.size * 2 || grown.capacity == 4, "$name: ${grown.capacity} slots")
+            assertEquals(keys.size > CompactStore.THRESHOLD, grown.isIndexed, name)
+
+            // presized, no room is wasted
+            val presized = fill(CompactStore(keys.size), keys)
+            assertEquals(keys.size, presized.capacity, name)
+            keys.forEachIndexed { slot, key -> assertEquals(slot, presized.find(String(key.toCharArray())), name) }
+        }
+    }
+
+    @Test
+    fun testNormalizesDeepAndCyclicTrees() {
+        // deep enough to overflow the stack if walked by recursion
+        val root = LinkedHashMap<String, Any>()
+        var deepest: MutableMap<String, Any> = root
+        repeat(100000) {
+            val next = LinkedHashMap<String, Any>()
+            deepest["next"] = arrayListOf<Any>(next, StringBuilder("value"))
+            deepest = next
+        }
+
+        var normalized: Any? = SimplifyMap.normalize(root)
+        var depth = 0
+        while (normalized is Map<*, *>) {
+            val list = normalized["next"] as? List<*> ?: break
+            assertEquals("value", list[1])
+            normalized = list[0]
+            depth++
+        }
+        assertEquals(100000, depth)
+
+        assertFailsWith<IllegalArgumentException> { SimplifyMap.normalize(root, 1000) }
+        assertEquals(3, SimplifyMap.normalize(SimplifyMap("a.b[0].c", 3), 4)["a.b[0].c"])
+
+        deepest["root"] = root
+        assertFailsWith<IllegalArgumentException> { SimplifyMap.normalize(root) }
+    }
+
+    @Test
+    fun testNormalizeKeepsNormalizedSnapshots() {
+        val card = SimplifyMap("number", "5555555555554444").set("exp", arrayListOf(1, 2)).snapshot()
+        val changed = SimplifyMap("number", "5555555555554444").set("tags", arrayListOf(StringBuilder("a"))).snapshot()
+
+        val normalized = SimplifyMap.normalize(SimplifyMap().set("card", card).set("changed", changed))
+
+        assertSame(card, normalized["card"])
+        assertEquals("a", normalized["changed.tags[0]"])
+        assertSame(changed["number"], normalized["changed.number"])
+    }
+
+    @Test
+    fun testNormalizedTreesAreSizedForTheirSource() {
+        val tree = tree(Random(20190701))
+        val normalized = SimplifyMap.normalize(tree)
+        assertEquals<Map<String, Any>>(tree, normalized)
+
+        // every map is copied, with exactly as much room as its source needs
+        val copies = nestedMaps(normalized)
+        assertEquals(nestedMaps(tree).size, copies.size)
+        copies.forEach { assertEquals(it.size, (it as SimplifyMap).capacity) }
+
+        // snapshots of normalized trees are kept rather than copied
+        val snapshot = SimplifyMap(normalized).snapshot()
+        assertSame(snapshot, SimplifyMap.normalize(SimplifyMap("tree", snapshot))["tree"])
+    }
+
+    @Test
+    fun testNormalizeStoresNullsAsStrings() {
+        val map = LinkedHashMap<String, Any?>()
+        map["card"] = LinkedHashMap<String, Any?>().apply { put("number", "5555555555554444"); put("cvc", null) }
+        map["tags"] = arrayListOf("a", null)
+
+        @Suppress("UNCHECKED_CAST")
+        val normalized = SimplifyMap.normalize(map as MutableMap<String, Any>)
+
+        assertEquals("null", normalized["card.cvc"])
+        assertEquals(listOf("a", "null"), normalized["tags"])
+    }
+
+    // the maps of the tree, the root included
+    private fun nestedMaps(root: Map<String, Any>): List<Map<*, *>> {
+        val maps = ArrayList<Map<*, *>>()
+        val pending = arrayListOf<Any>(root)
+        while (pending.isNotEmpty()) {
+            when (val value = pending.removeAt(pending.size - 1)) {
+                is Map<*, *> -> {
+                    maps.add(value)
+                    pending.addAll(value.values.filterNotNull())
+                }
+                is List<*> -> pending.addAll(value.filterNotNull())
+            }
+        }
+        return maps
+    }
+
+    // a tree of hash maps and lists, with values shared with every other tree built from the same seed
+    private fun tree(random: Random): MutableMap<String, Any> {
+        val root = LinkedHashMap<String, Any>()
+        val parents = arrayListOf<MutableMap<String, Any>>(root)
+
+        for (node in 1 until NODES) {
+            val parent = parents[random.nextInt(parents.size)]
+            val key = KEYS[random.nextInt(KEYS.size)]
+
+            when (random.nextInt(4)) {
+                0 -> LinkedHashMap<String, Any>().also { parent[key] = it; parents.add(it) }
+                1 -> parent[key] = arrayListOf<Any>(VALUES[node % VALUES.size], LinkedHashMap<String, Any>().also { parents.add(it) })
+                else -> parent[key] = VALUES[node % VALUES.size]
+            }
+        }
+
+        return root
+    }
+
+    private fun fill(store: CompactStore, keys: Array<String>): CompactStore {
+        for (key in keys) {
+            store.put(key, key)
+        }
+        return store
+    }
+
+    companion object {
+        private const val NODES = 10000
+
+        private val KEYS = (0 until 16).map { "key$it" }.toTypedArray()
+        private val VALUES = arrayOf("value", 1, 2.5, true, 9007199254740993L)
+
+        private val PAYLOADS = listOf(
+                "card" to arrayOf("number", "expMonth", "expYear", "cvc"),
+                "secure3DData" to arrayOf("acsUrl", "paReq", "md", "termUrl"),
+                "card token" to arrayOf("id", "card", "used", "dateCreated", "secure3DData"),
+                "card response" to arrayOf("id", "type", "last4", "expMonth", "expYear", "dateCreated", "addressCity",
+                        "addressState", "addressZip", "addressCountry", "customer", "name"))
+    }
+}
@@ -0,0 +1,92 @@
+package com.simplify.android.sdk
+
+import org.junit.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertSame
+import kotlin.test.assertTrue
+
+class SimplifyQueryTest {
+
+    private val response = SimplifyMap()
+            .set("id", "list_1")
+            .set("data", arrayListOf(
+                    SimplifyMap("id", "tok_1").set("card.type", "VISA").set("card.last4", "4242").set("amount", 100),
+                    SimplifyMap("id", "tok_2").set("card.type", "MASTERCARD").set("card.last4", "4444").set("amount", 2.5),
+                    SimplifyMap("id", "tok_3").set("card.type", "VISA").set("used", true).set("amount", LazyNumber("100.0"))))
+            .set("card.secure3DData.acsUrl", "https://acs.example.com")
+            .set("card.secure3DData.md", "md_1")
+
+    @Test
+    fun testWildcardsAndIndexes() {
+        assertEquals(listOf("tok_1", "tok_2", "tok_3"), response.query("data[*].id").toList())
+        assertEquals(listOf("tok_2"), response.query("data[1].id").toList())
+        assertEquals(listOf("tok_3"), response.query("data[].id").toList())
+        assertEquals(listOf("4242", "4444"), response.query("data[*].card.last4").toList())
+        assertEquals(listOf(response["card.secure3DData"]!!), response.query("card.*").toList())
+        assertEquals(listOf("https://acs.example.com", "md_1"), response.query("card.secure3DData.*").toList())
+
+        assertEquals(emptyList(), response.query("data[9].id").toList())
+        assertEquals(emptyList(), response.query("id[*]").toList())
+        assertEquals(emptyList(), response.query("missing.id").toList())
+    }
+
+    @Test
+    fun testRecursiveDescent() {
+        assertEquals(listOf("list_1", "tok_1", "tok_2", "tok_3"), response.query("..id").toList())
+        assertEquals(listOf("4242", "4444"), response.query("data..last4").toList())
+        assertEquals(listOf("https://acs.example.com"), response.query("..acsUrl").toList())
+        assertEquals(listOf("tok_1", SimplifyMap("type", "VISA").set("last4", "4242"), 100, "VISA", "4242"), response.query("data[0]..*").toList())
+
+        // deep enough to overflow the stack if walked by recursion
+        val root = SimplifyMap()
+        var deepest = root
+        repeat(100000) { deepest = SimplifyMap().also { child -> deepest["next"] = child } }
+        deepest["id"] = "deepest"
+        assertEquals(listOf("deepest"), root.query("..id").toList())
+    }
+
+    @Test
+    fun testFilters() {
+        assertEquals(listOf("tok_1", "tok_3"), response.query("data[?card.type=='VISA'].id").toList())
+        assertEquals(listOf("tok_2"), response.query("data[?card.type != \"VISA\"].id").toList())
+        // elements missing the value are selected by neither comparison
+        assertEquals(listOf("tok_1"), response.query("data[?card.last4=='4242'].id").toList())
+        assertEquals(listOf("tok_2"), response.query("data[?card.last4!='4242'].id").toList())
+        assertEquals(emptyList(), response.query("data[?used!=true].id").toList())
+        assertEquals(listOf("tok_3"), response.query("data[?used==true].id").toList())
+        assertEquals(listOf("tok_1", "tok_3"), response.query("data[?amount==100].id").toList())
+        assertEquals(listOf("tok_2"), response.query("data[?amount==2.50].id").toList())
+        assertEquals(listOf("md_1"), response.query("card.secure3DData[?md=='md_1'].md").toList())
+        assertEquals(listOf("a]b"), SimplifyMap("l", arrayListOf(SimplifyMap("k", "a]b"))).query("l[?k=='a]b'].k").toList())
+    }
+
+    @Test
+    fun testResultsAreLazy() {
+        val items = ArrayList<Any>()
+        repeat(100000) { items.add(SimplifyMap("id", "item_$it")) }
+        val read = ArrayList<Any>()
+        val map = SimplifyMap("items", object : AbstractList<Any>() {
+            override val size: Int
+                get() = items.size
+
+            override fun get(index: Int): Any = items[index].also { read.add(it) }
+        })
+
+        assertEquals(listOf("item_0", "item_1"), map.query("items[*].id").take(2).toList())
+        assertTrue(read.size <= 3, "${read.size} items read")
+    }
+
+    @Test
+    fun testQueriesAreCompiledOnce() {
+        val query = SimplifyQuery.compile("data[*].id")
+        assertSame(query, SimplifyQuery.compile("data[*].id"))
+        assertEquals(listOf("tok_1", "tok_2", "tok_3"), response.query(query).toList())
+        assertEquals(listOf("x"), query.select(SimplifyMap("data", arrayListOf(SimplifyMap("id", "x")))).toList())
+
+        for (invalid in listOf("", ".id", "data.", "data[", "data[x]", "data[-1]", "data[?id]", "data[?id=='x'",
+                "data[?id=='x]", "data[?id==x]", "data[*]x", "a...b", "data[?.a==1]")) {
+            assertFailsWith<IllegalArgumentException>(invalid) { SimplifyQuery.compile(invalid) }
+        }
+    }
+}
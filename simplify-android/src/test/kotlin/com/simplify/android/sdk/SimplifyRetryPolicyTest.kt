@@ -0,0 +1,51 @@
+package com.simplify.android.sdk
+
+import org.junit.Test
+import java.io.IOException
+import java.net.ConnectException
+import java.net.SocketTimeoutException
+import java.util.*
+import javax.net.ssl.SSLHandshakeException
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+class SimplifyRetryPolicyTest {
+
+    private val policy = SimplifyRetryPolicy(baseDelayMillis = 100, maxDelayMillis = 1000)
+
+    @Test
+    fun testClassifiesStatusCodes() {
+        assertTrue(policy.isRetryable(SimplifyException("", 503, SimplifyMap())))
+        assertTrue(policy.isRetryable(SimplifyException("", 429, SimplifyMap())))
+        assertFalse(policy.isRetryable(SimplifyException("", 400, SimplifyMap())))
+        assertFalse(policy.isRetryable(SimplifyException("", 402, SimplifyMap())))
+    }
+
+    @Test
+    fun testClassifiesSocketErrors() {
+        assertTrue(policy.isRetryable(SocketTimeoutException()))
+        assertTrue(policy.isRetryable(ConnectException()))
+        assertFalse(policy.isRetryable(SSLHandshakeException("untrusted")))
+        assertFalse(policy.isRetryable(IOException()))
+        assertFalse(policy.isRetryable(IllegalStateException()))
+    }
+
+    @Test
+    fun testDelaysStayWithinDecorrelatedJitterBounds() {
+        val random = Random(42)
+        var delay = policy.baseDelayMillis
+
+        repeat(100) {
+            val next = policy.nextDelayMillis(delay, random)
+            assertTrue(next >= policy.baseDelayMillis, "delay $next below base")
+            assertTrue(next <= minOf(policy.maxDelayMillis, delay * 3), "delay $next above bound for $delay")
+            delay = next
+        }
+    }
+
+    @Test
+    fun testNoneMakesASingleAttempt() {
+        assertEquals(1, SimplifyRetryPolicy.NONE.maxAttempts)
+    }
+}
@@ -146,9 +146,23 @@ class SimplifyTest {
 
             // second request, includes 3DS data
             assertEquals(secure3DRequestData["paReq"], secondValue.payload["secure3DRequestData.paReq"])
+
+            // later changes to the card do not reach the requests
+            card["number"] = "4111111111111111"
+            assertEquals("5555555555554444", firstValue.payload["card.number"])
+            assertEquals("5555555555554444", secondValue.payload["card.number"])
         }
     }
 
+    @Test
+    fun testWarmUpUsesConfiguredTimeouts() {
+        val callback: SimplifyWarmUpCallback = mock()
+
+        simplify.withTimeouts(1234, 5678).warmUp(callback)
+
+        verify(mockComms).runWarmUp(any(), eq(1234), eq(5678), eq(callback))
+    }
+
     @Test
     fun test3DSUnrecognizedRequestCodeReturnsFalse() {
         val unrecognizedRequestCode = 123
@@ -201,6 +215,18 @@ class SimplifyTest {
         assertTrue("Should return true when handling error event") { result }
     }
 
+    @Test
+    fun test3DSParcelledResultCallsCompleteOnCallback() {
+        val mockData: Intent = mock()
+        whenever(mockData.getParcelableExtra<SimplifyMap>(SimplifySecure3DActivity.EXTRA_RESULT_MAP)).doReturn(SimplifyMap("secure3d.authenticated", true))
+
+        val result = Simplify.handle3DSResult(Simplify.REQUEST_CODE_3DS, Activity.RESULT_OK, mockData, spy3DSCallback)
+
+        verify(spy3DSCallback).onSecure3DComplete(true)
+        verify(mockData, never()).getStringExtra(any())
+        assertTrue("Should return true when handling complete event") { result }
+    }
+
     @Test
     fun test3DSSuccessInResponseCallsCompleteOnCallback() {
         val authenticated = true
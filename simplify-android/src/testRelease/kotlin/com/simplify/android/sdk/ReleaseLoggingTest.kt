@@ -0,0 +1,26 @@
+package com.simplify.android.sdk
+
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import kotlin.test.assertFalse
+import kotlin.test.assertNull
+
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE)
+class ReleaseLoggingTest {
+
+    @Test
+    fun testDefaultLoggerDoesNotCopyRequestData() {
+        val comms = SimplifyComms()
+        comms.transport = SimplifyInMemoryTransport()
+
+        val request = SimplifyRequest(Simplify.API_BASE_SANDBOX_URL + Simplify.API_PATH_CARDTOKEN,
+                SimplifyRequest.Method.POST, SimplifyMap("card.number", "5555555555554444").set("card.cvc", "123"))
+        comms.executeSimplifyRequest(request)
+
+        assertFalse(comms.logger.isEnabled)
+        assertNull(request.bodyCopy)
+    }
+}